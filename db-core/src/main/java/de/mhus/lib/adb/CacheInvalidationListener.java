@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb;
+
+import java.util.List;
+import java.util.Map;
+
+import de.mhus.lib.adb.model.Table;
+
+/**
+ * Listener for written objects of tables with an entity cache. It's used to invalidate the caches
+ * of other nodes using the same database.
+ *
+ * @author mikehummel
+ */
+public interface CacheInvalidationListener {
+
+    /**
+     * Called once after the written objects are committed. All objects written in the same
+     * transaction are given together. It's not called if the write failed or the transaction was
+     * rolled back.
+     *
+     * @param cacheKeys The cache keys of the written objects by table
+     */
+    void invalidated(Map<Table, List<String>> cacheKeys);
+}
@@ -44,8 +44,35 @@ public interface DbCollection<O> extends Iterable<O>, Iterator<O>, MCloseable {
 
     boolean isRecycle();
 
+    /**
+     * Load the RelSingle relation of the objects together. The collection reads ahead a block of
+     * objects and loads the relations of the block with IN queries.
+     *
+     * <p>Not every implementation supports prefetching.
+     *
+     * @param relationName Name of the relation attribute
+     * @return x
+     * @throws MException
+     */
+    default DbCollection<O> prefetch(String relationName) throws MException {
+        return this;
+    }
+
     O current() throws MException;
 
+    /**
+     * Return a token to continue the query after the current object. Use it with
+     * AQuery.seek(token) to load the next page. The query must be ordered.
+     *
+     * <p>Not every implementation supports continuation tokens.
+     *
+     * @return The token or null if not available
+     * @throws MException
+     */
+    default String getContinuationToken() throws MException {
+        return null;
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     default void addToList(List list) {
         for (O o : this) {
@@ -97,7 +124,14 @@ public interface DbCollection<O> extends Iterable<O>, Iterator<O>, MCloseable {
         }
     }
 
-    default boolean skip(int cnt) { // TODO optimize, do not fully load objects
+    /**
+     * Skip the next objects. By default the objects are loaded and dropped, an implementation can
+     * skip the rows by the database if the query is not executed yet.
+     *
+     * @param cnt Number of objects to skip
+     * @return true if more objects are available
+     */
+    default boolean skip(int cnt) {
         for (int i = 0; i < cnt && hasNext(); i++) next();
         return hasNext();
     }
@@ -15,15 +15,27 @@
  */
 package de.mhus.lib.adb;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import de.mhus.lib.adb.model.Field;
+import de.mhus.lib.adb.model.FieldRelation;
+import de.mhus.lib.adb.query.AOrder;
+import de.mhus.lib.adb.query.ASeek;
+import de.mhus.lib.adb.relation.RelSingle;
+import de.mhus.lib.adb.relation.RelSingleBatch;
 import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.util.MObject;
 import de.mhus.lib.core.util.Table;
 import de.mhus.lib.errors.AccessDeniedException;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.MRuntimeException;
 import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPool;
 import de.mhus.lib.sql.DbResult;
@@ -36,6 +48,11 @@ import de.mhus.lib.sql.DbResult;
  */
 public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
 
+    private static final CfgBoolean CFG_BATCH_RELATIONS =
+            new CfgBoolean(DbCollectionImpl.class, "batchRelations", true);
+    private static final CfgInt CFG_PREFETCH_SIZE =
+            new CfgInt(DbCollectionImpl.class, "prefetchSize", 500);
+
     private DbManager manager;
     private DbResult res;
     private DbConnection con;
@@ -47,6 +64,18 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
     private boolean ownConnection;
     private O current;
     private DbPool pool;
+    // current batch by relation name
+    private HashMap<String, RelSingleBatch> batches;
+    private HashSet<String> prefetch;
+    private LinkedList<O> buffer;
+    private FetchPlan plan;
+    // the result is positioned at a row not read yet
+    private boolean rowPending;
+    private List<AOrder> orders;
+    private boolean partial;
+    // deferred query, executed with the first access
+    private Executor executor;
+    private int offset;
 
     public DbCollectionImpl(
             DbManager manager,
@@ -56,6 +85,30 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
             O object,
             DbResult res)
             throws MException {
+        this(manager, con, ownConnection, registryName, object, res, null);
+    }
+
+    /**
+     * Create a collection of objects loaded together with their relations.
+     *
+     * @param manager The manager
+     * @param con The connection
+     * @param ownConnection Close the connection with the collection
+     * @param registryName The registry name or null
+     * @param object The object or class
+     * @param res The result
+     * @param plan The plan to fill the objects and relations or null
+     * @throws MException
+     */
+    public DbCollectionImpl(
+            DbManager manager,
+            DbConnection con,
+            boolean ownConnection,
+            String registryName,
+            O object,
+            DbResult res,
+            FetchPlan plan)
+            throws MException {
 
         if (registryName == null) {
             Class<?> clazz = manager.getSchema().findClassForObject(object, manager);
@@ -75,19 +128,90 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
         this.object = object;
         this.ownConnection = ownConnection;
         this.pool = manager.getPool();
+        this.plan = plan;
+        if (plan != null) recycle = false;
+
+        if (res != null) nextObject();
+    }
 
+    /**
+     * Create a collection of a deferred query. The query is executed with the first access of the
+     * collection, rows skipped before are skipped by the database.
+     *
+     * @param manager The manager
+     * @param registryName The registry name or null
+     * @param object The object or class
+     * @param plan The plan to fill the objects and relations or null
+     * @param executor Executes the query and sets the result
+     * @throws MException
+     */
+    public DbCollectionImpl(
+            DbManager manager, String registryName, O object, FetchPlan plan, Executor executor)
+            throws MException {
+        this(manager, null, false, registryName, object, null, plan);
+        this.executor = executor;
+    }
+
+    /**
+     * Set the result if the collection was created without, e.g. by the executor of a deferred
+     * query.
+     *
+     * @param con The connection
+     * @param ownConnection Close the connection with the collection
+     * @param res The result
+     */
+    public void setResult(DbConnection con, boolean ownConnection, DbResult res) {
+        this.con = con;
+        this.ownConnection = ownConnection;
+        this.res = res;
         nextObject();
     }
 
-    @SuppressWarnings("unchecked")
+    private void open() {
+        if (executor == null) return;
+        Executor e = executor;
+        executor = null;
+        try {
+            e.execute(this, offset);
+        } catch (MException ex) {
+            hasNext = false;
+            throw new MRuntimeException(RC.STATUS.ERROR, registryName, ex);
+        }
+    }
+
     private void nextObject() {
+        if (buffer == null || recycle) {
+            readObject();
+            return;
+        }
+        if (buffer.isEmpty()) fillBuffer();
+        next = buffer.poll();
+        hasNext = next != null;
+    }
+
+    private void fillBuffer() {
+        int size = Math.max(1, CFG_PREFETCH_SIZE.value());
+        while (buffer.size() < size) {
+            readObject();
+            if (next == null) break;
+            buffer.add(next);
+        }
+        for (String name : prefetch) {
+            RelSingleBatch batch = batches == null ? null : batches.get(name);
+            if (batch != null) batch.load();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject() {
         next = null;
-        if (!hasNext) return;
+        if (!hasNext || res == null) return;
         try {
             while (true) {
                 try {
 
-                    hasNext = res.next();
+                    hasNext = rowPending || res.next();
+                    rowPending = false;
                     if (hasNext) {
                         O out = object;
                         if (!recycle) {
@@ -108,7 +232,18 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
                                 throw new MException(RC.STATUS.ERROR, con, t);
                             }
                         }
-                        manager.fillObject(registryName, out, con, res);
+                        if (plan == null) {
+                            manager.fillObject(registryName, out, con, res, partial);
+                        } else {
+                            try {
+                                rowPending = plan.fill(out, con, res);
+                            } catch (AccessDeniedException e) {
+                                throw e;
+                            } catch (Throwable t) {
+                                throw new MException(RC.STATUS.ERROR, registryName, t);
+                            }
+                        }
+                        if (!recycle) addToBatches(out);
                         next = out;
                     } else {
                         next = null;
@@ -129,8 +264,60 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
         if (!hasNext) close();
     }
 
+    /**
+     * Register the RelSingle relations of the loaded object to load them together with the other
+     * objects of the collection.
+     *
+     * @param out The loaded object
+     */
+    protected void addToBatches(O out) {
+        if (!CFG_BATCH_RELATIONS.value() && prefetch == null) return;
+        de.mhus.lib.adb.model.Table table = manager.getTable(registryName);
+        if (table == null) return;
+        for (FieldRelation field : table.getFieldRelations()) {
+            if (!CFG_BATCH_RELATIONS.value() && !prefetch.contains(field.getName())) continue;
+            if (plan != null && plan.isFetched(field.getName())) continue;
+            IRelationObject rel = field.getRelationObject(out);
+            if (!(rel instanceof RelSingle)) continue;
+            if (batches == null) batches = new HashMap<>();
+            RelSingleBatch batch = batches.get(field.getName());
+            if (batch == null || !batch.add((RelSingle<?>) rel)) {
+                batch = new RelSingleBatch(field);
+                batch.add((RelSingle<?>) rel);
+                batches.put(field.getName(), batch);
+            }
+        }
+    }
+
+    @Override
+    public DbCollectionImpl<O> prefetch(String relationName) throws MException {
+        de.mhus.lib.adb.model.Table table = manager.getTable(registryName);
+        if (table == null || table.getFieldRelation(relationName) == null)
+            throw new MException(RC.NOT_FOUND, "relation not found", registryName, relationName);
+        if (recycle)
+            throw new MException(RC.NOT_SUPPORTED, "prefetch not supported with recycle");
+        if (prefetch == null) prefetch = new HashSet<>();
+        prefetch.add(relationName);
+        if (buffer == null) {
+            buffer = new LinkedList<>();
+            // a deferred query fills the buffer when it's executed
+            if (executor != null) return this;
+            // the first object is already loaded
+            if (next != null) {
+                buffer.add(next);
+                if (!CFG_BATCH_RELATIONS.value()) addToBatches(next);
+            }
+            nextObject();
+        }
+        return this;
+    }
+
     @Override
     public void close() {
+        if (executor != null) {
+            executor = null;
+            hasNext = false;
+        }
         if (res != null) {
             try {
                 res.close();
@@ -157,7 +344,8 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
      */
     @Override
     public DbCollectionImpl<O> setRecycle(boolean on) {
-        recycle = on;
+        // the objects of a fetch plan hold their own relations
+        recycle = on && plan == null;
         return this;
     }
 
@@ -168,6 +356,7 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
 
     @Override
     public boolean hasNext() {
+        open();
         return hasNext;
     }
 
@@ -176,6 +365,61 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
         return current;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If the query is not executed yet the rows are skipped by the database with an offset and
+     * not loaded.
+     */
+    @Override
+    public boolean skip(int cnt) {
+        if (executor != null) {
+            if (cnt > 0) offset += cnt;
+            return hasNext();
+        }
+        return DbCollection.super.skip(cnt);
+    }
+
+    /**
+     * Fill only the columns of the result, the objects are partially loaded.
+     *
+     * @param partial true for a projection
+     */
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    /**
+     * Set the orders of the query, needed to create continuation tokens.
+     *
+     * @param orders The orders
+     */
+    public void setOrders(List<AOrder> orders) {
+        this.orders = orders;
+    }
+
+    @Override
+    public String getContinuationToken() throws MException {
+        if (current == null || orders == null || orders.isEmpty()) return null;
+        de.mhus.lib.adb.model.Table table = manager.getTable(registryName);
+        Object[] values = new Object[orders.size()];
+        for (int i = 0; i < values.length; i++) {
+            Field field = table.getField(orders.get(i).getAttribute());
+            if (field == null)
+                throw new MException(
+                        RC.NOT_FOUND,
+                        "order attribute not found",
+                        registryName,
+                        orders.get(i).getAttribute());
+            try {
+                values[i] = field.get(current);
+            } catch (Exception e) {
+                throw new MException(RC.STATUS.ERROR, registryName, field.getName(), e);
+            }
+        }
+        return ASeek.toToken(values);
+    }
+
     @Override
     public Iterator<O> iterator() {
         return this;
@@ -188,6 +432,7 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
 
     @Override
     public O next() {
+        open();
         if (!hasNext) throw new NoSuchElementException();
         current = next;
         nextObject();
@@ -226,4 +471,17 @@ public class DbCollectionImpl<O> extends MObject implements DbCollection<O> {
 
         return out;
     }
+
+    /** Executes a deferred query and sets the result of the collection. */
+    public interface Executor {
+
+        /**
+         * Execute the query.
+         *
+         * @param collection The collection, call setResult()
+         * @param offset Rows to skip
+         * @throws MException
+         */
+        void execute(DbCollectionImpl<?> collection, int offset) throws MException;
+    }
 }
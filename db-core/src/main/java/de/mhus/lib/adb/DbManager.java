@@ -16,9 +16,11 @@
 package de.mhus.lib.adb;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import de.mhus.lib.adb.model.Field;
 import de.mhus.lib.adb.model.Table;
@@ -61,6 +63,20 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     public abstract <T> DbCollection<T> getByQualification(AQuery<T> qualification)
             throws MException;
 
+    /**
+     * Get a collection of objects by the query, the first rows are skipped by the database and not
+     * loaded. The offset is added to the paging of the query, a limit of the query is reduced by
+     * the skipped rows. The given query is not changed.
+     *
+     * @param <T> Type of the object
+     * @param qualification The query
+     * @param offset Rows to skip
+     * @return A collection with the results
+     * @throws MException
+     */
+    public abstract <T> DbCollection<T> getByQualification(AQuery<T> qualification, int offset)
+            throws MException;
+
     /**
      * Get an collection of objects by it's qualification. The qualification is the WHERE part of a
      * query. e.g. "$db.table.name$ like 'Joe %'"
@@ -83,6 +99,30 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
             Map<String, Object> attributes)
             throws MException;
 
+    /**
+     * Get an collection of objects by it's qualification. If fetchSize is greater than zero the
+     * result is streamed from the database, see DbStatement.setFetchSize().
+     *
+     * @param <T> Type of the object
+     * @param con The connection or null
+     * @param object a representation of the object (empty object) or a object to recycle in the
+     *     collection.
+     * @param registryName The name of the registry (if not default) or null
+     * @param qualification The WHERE string
+     * @param attributes attributes or null if not needed
+     * @param fetchSize Rows per round trip or 0 to load the result as usual
+     * @return A collection with the results
+     * @throws MException
+     */
+    public abstract <T> DbCollection<T> getByQualification(
+            DbConnection con,
+            T object,
+            String registryName,
+            String qualification,
+            Map<String, Object> attributes,
+            int fetchSize)
+            throws MException;
+
     public abstract String createSqlSelect(Class<?> clazz, String columns, String qualification);
 
     public abstract <T> long getCountAll(Class<T> clazz) throws MException;
@@ -150,6 +190,33 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     public abstract <T, R> List<R> getAttributeByQualification(
             String field, AQuery<? extends T> qualification) throws MException;
 
+    /**
+     * Return the values of the projection defined by AQuery.select() without creating objects.
+     * Every row is given to the mapper as array of the values in the order of the projection.
+     *
+     * @param <T> Type of the query
+     * @param <R> Type of the rows
+     * @param qualification The query with a projection
+     * @param mapper Create the row, e.g. a record
+     * @return List of rows
+     * @throws MException
+     */
+    public abstract <T, R> List<R> getValuesByQualification(
+            AQuery<T> qualification, Function<Object[], R> mapper) throws MException;
+
+    /**
+     * Return the values of the projection defined by AQuery.select() as arrays.
+     *
+     * @param <T> Type of the query
+     * @param qualification The query with a projection
+     * @return List of value arrays
+     * @throws MException
+     */
+    public <T> List<Object[]> getValuesByQualification(AQuery<T> qualification)
+            throws MException {
+        return getValuesByQualification(qualification, row -> row);
+    }
+
     public abstract <T, R> List<R> getAttributeByQualification(
             DbConnection con,
             Class<? extends T> clazz,
@@ -179,6 +246,29 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
             Map<String, Object> attributes)
             throws MException;
 
+    /**
+     * Returns an collection. If fetchSize is greater than zero the result is streamed from the
+     * database, see DbStatement.setFetchSize().
+     *
+     * @param <T>
+     * @param con DbConnection or null
+     * @param clazz Empty Object class
+     * @param registryName registry name or null
+     * @param query The query, remember to return all attributes
+     * @param attributes attributes for the query or null
+     * @param fetchSize Rows per round trip or 0 to load the result as usual
+     * @return a collection with the results
+     * @throws MException
+     */
+    public abstract <T> DbCollection<T> executeQuery(
+            DbConnection con,
+            T clazz,
+            String registryName,
+            String query,
+            Map<String, Object> attributes,
+            int fetchSize)
+            throws MException;
+
     /**
      * Returns a long value out of a query.
      *
@@ -229,6 +319,10 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     abstract void fillObject(String registryName, Object object, DbConnection con, DbResult res)
             throws MException;
 
+    abstract void fillObject(
+            String registryName, Object object, DbConnection con, DbResult res, boolean partial)
+            throws MException;
+
     public abstract <T> boolean existsObject(Class<T> clazz, Object... keys) throws MException;
 
     public abstract <T> boolean existsObject(DbConnection con, Class<T> clazz, Object... keys)
@@ -311,6 +405,19 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     public abstract void createObject(DbConnection con, String registryName, Object object)
             throws MException;
 
+    public abstract void createObjects(Collection<?> objects) throws MException;
+
+    /**
+     * Create a list of objects in the database. The objects are grouped by table and inserted
+     * using JDBC batches. If no connection is given a chunk is committed after every batch.
+     *
+     * @param con The connection to use or null.
+     * @param objects The objects to create, could be of different types.
+     * @throws MException
+     */
+    public abstract void createObjects(DbConnection con, Collection<?> objects)
+            throws MException;
+
     public abstract void saveObject(Object object) throws MException;
 
     public abstract void saveObject(String registryName, Object object) throws MException;
@@ -329,6 +436,18 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     public abstract void saveObject(DbConnection con, String registryName, Object object)
             throws MException;
 
+    public abstract void saveObjects(Collection<?> objects) throws MException;
+
+    /**
+     * Update a list of objects in the database. The objects are grouped by table and updated
+     * using JDBC batches. If no connection is given a chunk is committed after every batch.
+     *
+     * @param con The connection to use or null
+     * @param objects The objects to save, could be of different types.
+     * @throws MException
+     */
+    public abstract void saveObjects(DbConnection con, Collection<?> objects) throws MException;
+
     public abstract void saveObjectForce(Object object, boolean raw) throws MException;
 
     public abstract void saveObjectForce(String registryName, Object object, boolean raw)
@@ -387,6 +506,19 @@ public abstract class DbManager extends MJmx implements DbObjectHandler, XdbServ
     public abstract void deleteObject(DbConnection con, String registryName, Object object)
             throws MException;
 
+    public abstract void deleteObjects(Collection<?> objects) throws MException;
+
+    /**
+     * Delete a list of objects in the database. The objects are grouped by table and deleted
+     * using JDBC batches. If no connection is given a chunk is committed after every batch.
+     *
+     * @param con The connection to use or null
+     * @param objects The objects to delete, could be of different types.
+     * @throws MException
+     */
+    public abstract void deleteObjects(DbConnection con, Collection<?> objects)
+            throws MException;
+
     @Override
     public abstract boolean isConnected();
 
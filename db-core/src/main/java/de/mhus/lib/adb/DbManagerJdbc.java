@@ -15,15 +15,27 @@
  */
 package de.mhus.lib.adb;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import de.mhus.lib.adb.model.Field;
 import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.adb.model.TableCache;
+import de.mhus.lib.adb.query.ALimit;
 import de.mhus.lib.adb.query.AQuery;
+import de.mhus.lib.adb.transaction.ConcurrentLockStrategy;
+import de.mhus.lib.adb.transaction.LockStrategy;
 import de.mhus.lib.adb.util.DbProperties;
 import de.mhus.lib.adb.util.ParserJdbcDebug;
 import de.mhus.lib.adb.util.Property;
@@ -34,6 +46,7 @@ import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MDate;
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.concurrent.Lock;
 import de.mhus.lib.core.concurrent.ThreadLock;
 import de.mhus.lib.core.logging.ITracer;
@@ -42,8 +55,10 @@ import de.mhus.lib.errors.AccessDeniedException;
 import de.mhus.lib.errors.MException;
 import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbPrepared;
 import de.mhus.lib.sql.DbResult;
 import de.mhus.lib.sql.DbStatement;
+import de.mhus.lib.sql.InternalDbConnection;
 import de.mhus.lib.sql.MetadataBundle;
 import de.mhus.lib.sql.SqlDialectCreateContext;
 import io.opentracing.Scope;
@@ -57,6 +72,11 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
 
     private static CfgBoolean CFG_DEBUG_PARSER =
             new CfgBoolean(DbManagerJdbc.class, "debugParser", false);
+    private static CfgInt CFG_TEMPLATE_CACHE_SIZE =
+            new CfgInt(DbManagerJdbc.class, "templateCacheSize", 1000);
+    private static CfgInt CFG_QUERY_CACHE_SIZE =
+            new CfgInt(DbManagerJdbc.class, "queryCacheSize", 1000);
+    private static CfgInt CFG_BATCH_SIZE = new CfgInt(DbManagerJdbc.class, "batchSize", 1000);
     public static final String DATABASE_VERSION = "db.version";
     public static final String DATABASE_CREATED = "db.created";
     public static final String DATABASE_MANAGER_VERSION = "db.manager.version";
@@ -77,6 +97,16 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     private MActivator activator;
     private Lock reloadLock = new ThreadLock("reload");
     private String dataSourceName;
+    // compiled sql templates, key is language and the query with $...$ placeholders
+    private ConcurrentHashMap<String, DbPrepared> templateCache = new ConcurrentHashMap<>();
+    private AtomicLong templateHits = new AtomicLong();
+    private AtomicLong templateMisses = new AtomicLong();
+    private AtomicLong templateEvictions = new AtomicLong();
+    // rendered AQuery qualifications, key is the structural fingerprint of the query
+    private ConcurrentHashMap<String, String> queryCache = new ConcurrentHashMap<>();
+    private AtomicLong queryHits = new AtomicLong();
+    private AtomicLong queryMisses = new AtomicLong();
+    private volatile CacheInvalidationListener cacheInvalidationListener;
 
     public DbManagerJdbc(String dataSourceName, DbPool pool, DbPool poolRo, DbSchema schema)
             throws Exception {
@@ -136,21 +166,277 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         return getByQualification(null, object, null, qualification, attributes);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The sql is created immediately, errors of the query are thrown here. The query is
+     * executed with the first access of the collection, rows skipped by DbCollection.skip() before
+     * are skipped by the database with an offset.
+     */
     @Override
-    @SuppressWarnings("unchecked")
     public <T> DbCollection<T> getByQualification(AQuery<T> qualification) throws MException {
+        return getByQualification(qualification, 0);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> DbCollection<T> getByQualification(AQuery<T> qualification, int offset)
+            throws MException {
+        reloadLock.waitWithException(MAX_LOCK);
         qualification.doFinal();
-        return (DbCollection<T>)
-                getByQualification(
-                        null,
-                        qualification.getType(),
+        if (offset > 0) qualification = addOffset(qualification, offset);
+        AQuery<T> query = qualification;
+        Class<?> clazz = query.getType();
+        List<String> fetches = query.getFetches();
+        FetchPlan plan = fetches.isEmpty() ? null : createFetchPlan(clazz, fetches);
+        List<String> select = query.getSelect();
+        if (plan != null && !select.isEmpty())
+            throw new MException(RC.NOT_SUPPORTED, "projection with fetch is not supported", clazz);
+        String columns = select.isEmpty() ? "*" : createSelectColumns(clazz, select, true);
+        String sql = createQuerySql(clazz, columns, toQualification(query), query, plan);
+        DbCollectionImpl<T> res =
+                new DbCollectionImpl<T>(
+                        this,
                         null,
-                        toQualification(qualification),
-                        qualification.getAttributes());
+                        (T) clazz,
+                        plan,
+                        (collection, skip) -> {
+                            AQuery<T> q = query;
+                            String s = sql;
+                            if (skip > 0) {
+                                q = addOffset(query, skip);
+                                s = createQuerySql(clazz, columns, toQualification(q), q, plan);
+                            }
+                            Map<String, Object> attributes = q.getAttributes();
+                            log().t("getByQualification", clazz, s, attributes);
+                            executeQuery(collection, s, attributes, q.getFetchSize());
+                        });
+        res.setOrders(query.getOrders());
+        res.setPartial(!select.isEmpty());
+        return res;
+    }
+
+    private String createQuerySql(
+            Class<?> clazz, String columns, String where, AQuery<?> query, FetchPlan plan) {
+        String s = createSqlSelect(clazz, columns, where);
+        if (plan != null) s = plan.createSql(s, query.getOperations());
+        return s;
+    }
+
+    /**
+     * Create the column list of a projection.
+     *
+     * @param clazz The class
+     * @param select Names of the attributes
+     * @param primaryKey Add the primary key columns if not selected
+     * @return The column list
+     * @throws MException
+     */
+    protected String createSelectColumns(Class<?> clazz, List<String> select, boolean primaryKey)
+            throws MException {
+        Table c = cIndex.get(getRegistryName(clazz));
+        if (c == null)
+            throw new MException(RC.ERROR, "class definition not found in schema", clazz);
+        String mapping = getMappingName(clazz);
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (String attr : select) {
+            Field f = c.getField(attr);
+            if (f == null || !f.isPersistent())
+                throw new MException(RC.NOT_FOUND, "attribute not found", clazz, attr);
+            names.add(f.getName().toLowerCase());
+        }
+        if (primaryKey) for (Field f : c.getPrimaryKeys()) names.add(f.getName().toLowerCase());
+        StringBuilder out = new StringBuilder();
+        for (String name : names) {
+            if (out.length() > 0) out.append(",");
+            out.append("$db.").append(mapping).append('.').append(name).append('$');
+        }
+        return out.toString();
+    }
+
+    @Override
+    public <T, R> List<R> getValuesByQualification(
+            AQuery<T> qualification, Function<Object[], R> mapper) throws MException {
+        reloadLock.waitWithException(MAX_LOCK);
+        List<String> select = qualification.getSelect();
+        if (select.isEmpty())
+            throw new MException(RC.ERROR, "the query has no projection", qualification);
+        qualification.doFinal();
+        Class<?> clazz = qualification.getType();
+        Table c = cIndex.get(getRegistryName(clazz));
+        if (c == null)
+            throw new MException(RC.ERROR, "class definition not found in schema", clazz);
+        String s =
+                createSqlSelect(
+                        clazz,
+                        createSelectColumns(clazz, select, false),
+                        toQualification(qualification));
+        String[] labels = new String[select.size()];
+        for (int i = 0; i < labels.length; i++)
+            labels[i] = c.getField(select.get(i)).getMappedName();
+        Map<String, Object> attributes = qualification.getAttributes();
+        log().t("getValuesByQualification", clazz, s, attributes);
+
+        try (Scope scope =
+                ITracer.get()
+                        .enter(
+                                "getValuesByQualification " + s,
+                                "query",
+                                s,
+                                "attributes",
+                                attributes)) {
+            DbConnection con = null;
+            try {
+                con = schema.getConnection(poolRo);
+            } catch (Throwable t) {
+                throw new MException(RC.STATUS.ERROR, s, attributes, t);
+            }
+            DbStatement sth = null;
+            DbResult res = null;
+            try {
+                sth = createStatement(con, s);
+                if (qualification.getFetchSize() > 0)
+                    sth.setFetchSize(qualification.getFetchSize());
+                res =
+                        sth.executeQuery(
+                                new FallbackMap<String, Object>(attributes, nameMappingRO, true));
+                LinkedList<R> out = new LinkedList<>();
+                while (res.next()) {
+                    Object[] row = new Object[labels.length];
+                    for (int i = 0; i < labels.length; i++) row[i] = res.getObject(labels[i]);
+                    out.add(mapper.apply(row));
+                }
+                return out;
+            } catch (Throwable t) {
+                throw new MException(RC.STATUS.ERROR, con, s, attributes, t);
+            } finally {
+                try {
+                    if (res != null) res.close();
+                    if (sth != null) sth.close();
+                } catch (Throwable t) {
+                    log().w(s, t);
+                }
+                schema.closeConnection(poolRo, con);
+            }
+        }
+    }
+
+    /**
+     * Create the plan to load the objects together with the fetched relations in one query.
+     *
+     * @param clazz The class of the objects
+     * @param fetches Names of the relations to fetch
+     * @return The plan
+     * @throws MException
+     */
+    protected FetchPlan createFetchPlan(Class<?> clazz, List<String> fetches) throws MException {
+        Table c = cIndex.get(getRegistryName(clazz));
+        if (c == null)
+            throw new MException(RC.ERROR, "class definition not found in schema", clazz);
+        return new FetchPlan(this, c, fetches);
+    }
+
+    /**
+     * Return a copy of the query with the offset. The offset of an existing limit is increased,
+     * otherwise an offset is added. The given query is not changed.
+     *
+     * @param qualification The query
+     * @param offset Rows to skip
+     * @return The copy
+     */
+    protected <T> AQuery<T> addOffset(AQuery<T> qualification, int offset) {
+        AQuery<T> copy = qualification.copy();
+        ALimit limit = qualification.getLimit();
+        if (limit == null) {
+            copy.limit(offset, -1);
+            copy.doFinal();
+            return copy;
+        }
+        Map<String, Object> attributes = copy.getAttributes();
+        attributes.put(limit.getOffsetName(), Math.max(0, limit.getOffset()) + offset);
+        if (limit.hasLimit())
+            attributes.put(limit.getLimitName(), Math.max(0, limit.getLimit() - offset));
+        return copy;
+    }
+
+    /**
+     * Execute the query and set the result of the collection.
+     *
+     * @param collection The collection
+     * @param query The query
+     * @param attributes The attributes
+     * @param fetchSize Rows per round trip or 0
+     * @throws MException
+     */
+    protected void executeQuery(
+            DbCollectionImpl<?> collection,
+            String query,
+            Map<String, Object> attributes,
+            int fetchSize)
+            throws MException {
+        reloadLock.waitWithException(MAX_LOCK);
+
+        try (Scope scope =
+                ITracer.get()
+                        .enter(
+                                "executeQuery " + query,
+                                "query",
+                                query,
+                                "attributes",
+                                attributes)) {
+            DbConnection con = null;
+            try {
+                con = schema.getConnection(poolRo);
+            } catch (Throwable t) {
+                throw new MException(RC.STATUS.ERROR, query, attributes, t);
+            }
+            Map<String, Object> map = null;
+            if (attributes == null) map = nameMappingRO;
+            else map = new FallbackMap<String, Object>(attributes, nameMappingRO, true);
+            try {
+                DbStatement sth = createStatement(con, query);
+                if (fetchSize > 0) sth.setFetchSize(fetchSize);
+                collection.setResult(con, true, sth.executeQuery(map));
+            } catch (Throwable t) {
+                schema.closeConnection(poolRo, con);
+                throw new MException(RC.STATUS.ERROR, con, query, attributes, t);
+            }
+        }
     }
 
+    /**
+     * Render the query to a sql qualification. The result is cached by the structural fingerprint
+     * of the query. Together with the template cache a repeated query shape will not be rendered
+     * and parsed again, only the attribute values are collected.
+     */
     @Override
     public <T> String toQualification(AQuery<T> qualification) {
+        int max = CFG_QUERY_CACHE_SIZE.value();
+        if (max <= 0) return createQualification(qualification);
+
+        qualification.doFinal(); // assign names of dynamic values
+        String fingerprint = qualification.getFingerprint();
+        // an element without structural fingerprint, e.g. a custom APrint
+        if (fingerprint == null) return createQualification(qualification);
+        String ret = queryCache.get(fingerprint);
+        if (ret != null) {
+            queryHits.incrementAndGet();
+            return ret;
+        }
+        queryMisses.incrementAndGet();
+        ret = createQualification(qualification);
+        if (queryCache.size() >= max) {
+            Iterator<String> iter = queryCache.keySet().iterator();
+            if (iter.hasNext()) {
+                iter.next();
+                iter.remove();
+            }
+        }
+        queryCache.put(fingerprint, ret);
+        return ret;
+    }
+
+    protected <T> String createQualification(AQuery<T> qualification) {
         StringBuilder buffer = new StringBuilder();
         qualification.setContext(new SqlDialectCreateContext(this, buffer));
         getPool().getDialect().createQuery(qualification, qualification);
@@ -179,12 +465,24 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             String qualification,
             Map<String, Object> attributes)
             throws MException {
+        return getByQualification(con, object, registryName, qualification, attributes, 0);
+    }
+
+    @Override
+    public <T> DbCollection<T> getByQualification(
+            DbConnection con,
+            T object,
+            String registryName,
+            String qualification,
+            Map<String, Object> attributes,
+            int fetchSize)
+            throws MException {
         reloadLock.waitWithException(MAX_LOCK);
 
         Class<?> clazz = schema.findClassForObject(object, this);
         String s = createSqlSelect(clazz, "*", qualification);
         log().t("getByQualification", registryName == null ? clazz : registryName, s, attributes);
-        return executeQuery(con, object, registryName, s, attributes);
+        return executeQuery(con, object, registryName, s, attributes, fetchSize);
     }
 
     @Override
@@ -196,18 +494,32 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                 .append(getMappingName(clazz))
                 .append("$ ");
         if (MString.isSet(qualification)) {
-            String low =
-                    qualification
-                            .trim()
-                            .substring(0, Math.min(qualification.length(), 6))
-                            .toLowerCase();
-            if (low.startsWith("order ") || low.startsWith("limit ")) sql.append(qualification);
+            if (isWithoutCondition(qualification)) sql.append(qualification);
             else sql.append("WHERE ").append(qualification);
         }
         String s = sql.toString();
         return s;
     }
 
+    /**
+     * Return true if the qualification starts with the order or paging part, in this case it's
+     * appended without WHERE.
+     *
+     * @param qualification The qualification
+     * @return true if there is no condition
+     */
+    protected boolean isWithoutCondition(String qualification) {
+        String low =
+                qualification
+                        .trim()
+                        .substring(0, Math.min(qualification.trim().length(), 7))
+                        .toLowerCase();
+        return low.startsWith("order ")
+                || low.startsWith("limit ")
+                || low.startsWith("offset ")
+                || low.startsWith("fetch ");
+    }
+
     @Override
     public <T> long getCountAll(Class<T> clazz) throws MException {
         return getCountByQualification(null, (Object) clazz, null, "", null);
@@ -263,8 +575,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT count(*) AS count FROM $db.").append(getMappingName(clazz)).append("$ ");
         if (MString.isSet(qualification)) {
-            String low = qualification.trim().toLowerCase();
-            if (low.startsWith("order ") || low.startsWith("limit ")) sql.append(qualification);
+            if (isWithoutCondition(qualification)) sql.append(qualification);
             else sql.append("WHERE ").append(qualification);
         }
 
@@ -323,8 +634,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                 .append(getMappingName(clazz))
                 .append("$ ");
         if (MString.isSet(qualification)) {
-            String low = qualification.trim().toLowerCase();
-            if (low.startsWith("order ") || low.startsWith("limit ")) sql.append(qualification);
+            if (isWithoutCondition(qualification)) sql.append(qualification);
             else sql.append("WHERE ").append(qualification);
         }
 
@@ -378,8 +688,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                 .append(getMappingName(clazz2))
                 .append("$ ");
         if (MString.isSet(qualification)) {
-            String low = qualification.trim().toLowerCase();
-            if (low.startsWith("order ") || low.startsWith("limit ")) sql.append(qualification);
+            if (isWithoutCondition(qualification)) sql.append(qualification);
             else sql.append("WHERE ").append(qualification);
         }
 
@@ -413,6 +722,30 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             String query,
             Map<String, Object> attributes)
             throws MException {
+        return executeQuery(con, clazz, registryName, query, attributes, 0);
+    }
+
+    @Override
+    public <T> DbCollection<T> executeQuery(
+            DbConnection con,
+            T clazz,
+            String registryName,
+            String query,
+            Map<String, Object> attributes,
+            int fetchSize)
+            throws MException {
+        return executeQuery(con, clazz, registryName, query, attributes, fetchSize, null);
+    }
+
+    protected <T> DbCollection<T> executeQuery(
+            DbConnection con,
+            T clazz,
+            String registryName,
+            String query,
+            Map<String, Object> attributes,
+            int fetchSize,
+            FetchPlan plan)
+            throws MException {
         reloadLock.waitWithException(MAX_LOCK);
 
         try (Scope scope =
@@ -442,15 +775,55 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             if (attributes == null) map = nameMappingRO;
             else map = new FallbackMap<String, Object>(attributes, nameMappingRO, true);
             try {
-                DbStatement sth = con.createStatement(query);
+                DbStatement sth = createStatement(con, query);
+                if (fetchSize > 0) sth.setFetchSize(fetchSize);
                 DbResult res = sth.executeQuery(map);
-                return new DbCollectionImpl<T>(this, con, myCon != null, registryName, clazz, res);
+                return new DbCollectionImpl<T>(
+                        this, con, myCon != null, registryName, clazz, res, plan);
             } catch (Throwable t) {
                 throw new MException(RC.STATUS.ERROR, con, query, attributes, t);
             }
         }
     }
 
+    /**
+     * Create a statement for the query. The compiled template is cached, so the query string is
+     * parsed only once. Queries must use $...$ placeholders for values, otherwise every call will
+     * produce a new template.
+     *
+     * @param con
+     * @param query
+     * @return The statement
+     * @throws Exception
+     */
+    protected DbStatement createStatement(DbConnection con, String query) throws Exception {
+        int max = CFG_TEMPLATE_CACHE_SIZE.value();
+        if (max <= 0) return con.createStatement(query);
+
+        String language = pool.getDialect().detectLanguage(query);
+        String key = language + ":" + query;
+        DbPrepared prepared = templateCache.get(key);
+        if (prepared != null) {
+            templateHits.incrementAndGet();
+        } else {
+            templateMisses.incrementAndGet();
+            log().t("template miss", query);
+            prepared = pool.createStatement(query, language);
+            if (templateCache.size() >= max) {
+                // not a strict lru, remove a random entry to keep the cache bounded
+                Iterator<String> iter = templateCache.keySet().iterator();
+                if (iter.hasNext()) {
+                    iter.next();
+                    iter.remove();
+                    templateEvictions.incrementAndGet();
+                }
+            }
+            DbPrepared current = templateCache.putIfAbsent(key, prepared);
+            if (current != null) prepared = current;
+        }
+        return prepared.getStatement(con);
+    }
+
     /**
      * Returns a long value out of a query.
      *
@@ -493,7 +866,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             DbStatement sth = null;
             DbResult res = null;
             try {
-                sth = con.createStatement(query);
+                sth = createStatement(con, query);
                 res = sth.executeQuery(map);
                 long count = -1;
                 while (res.next()) count = res.getLong(attributeName);
@@ -543,7 +916,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             if (attributes == null) map = nameMappingRO;
             else map = new FallbackMap<String, Object>(attributes, nameMappingRO, true);
             try {
-                DbStatement sth = con.createStatement(query);
+                DbStatement sth = createStatement(con, query);
                 DbResult res = sth.executeQuery(map);
                 LinkedList<T> out = new LinkedList<>();
                 while (res.next()) {
@@ -630,7 +1003,24 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
         try {
-            Object out = c.getObject(con, keys);
+            Object out = null;
+            // the cache holds committed data only, use it if not in a transaction
+            boolean cached = myCon != null && !isInTransaction();
+            if (cached) out = c.getCachedObject(con, keys);
+            if (out == null) {
+                long stamp = c.getCacheStamp();
+                if (cached && poolRo != pool && c.getCache() != null) {
+                    // a replica can lag behind an invalidation, fill the cache from the master
+                    DbConnection rwCon = schema.getConnection(pool);
+                    try {
+                        out = c.getObject(rwCon, keys);
+                        schema.commitConnection(pool, rwCon);
+                    } finally {
+                        schema.closeConnection(pool, rwCon);
+                    }
+                } else out = c.getObject(con, keys);
+                if (cached) c.cacheObject(keys, out, stamp);
+            }
             schema.doPostLoad(c, out, con, this);
             return out;
         } catch (AccessDeniedException e) {
@@ -734,6 +1124,13 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
     @Override
     void fillObject(String registryName, Object object, DbConnection con, DbResult res)
             throws MException {
+        fillObject(registryName, object, con, res, false);
+    }
+
+    @Override
+    void fillObject(
+            String registryName, Object object, DbConnection con, DbResult res, boolean partial)
+            throws MException {
         reloadLock.waitWithException(MAX_LOCK);
 
         if (registryName == null) {
@@ -756,7 +1153,8 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
 
                 object = schema.createObject(c.getClazz(), registryName, res, this, true);
             }
-            c.fillObject(object, con, res);
+            if (partial) c.fillPartialObject(object, con, res);
+            else c.fillObject(object, con, res);
 
             schema.doPostLoad(c, object, con, this);
 
@@ -1035,6 +1433,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
+        boolean done = false;
         try {
             // prepare object
             c.prepareCreate(object);
@@ -1045,6 +1444,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             c.createObject(con, object);
 
             schema.doPostCreate(c, object, con, this);
+            done = true;
 
         } catch (Throwable t) {
             throw new MException(RC.STATUS.ERROR, registryName, t);
@@ -1058,12 +1458,34 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                     }
                     schema.closeConnection(pool, myCon);
                 }
+                if (done) written(c, con, myCon != null, Collections.singletonList(object));
             } catch (Throwable t) {
                 log().w(t);
             }
         }
     }
 
+    @Override
+    public void createObjects(Collection<?> objects) throws MException {
+        createObjects(null, objects);
+    }
+
+    @Override
+    public void createObjects(DbConnection con, Collection<?> objects) throws MException {
+        executeObjectBatch(
+                con,
+                "create",
+                objects,
+                (c, myCon, chunk) -> {
+                    for (Object object : chunk) {
+                        c.prepareCreate(object);
+                        schema.doPreCreate(c, object, myCon, this);
+                    }
+                    c.createObjects(myCon, chunk);
+                    for (Object object : chunk) schema.doPostCreate(c, object, myCon, this);
+                });
+    }
+
     @Override
     public void saveObject(Object object) throws MException {
         saveObject(null, null, object);
@@ -1115,12 +1537,14 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
+        boolean done = false;
         try {
             // prepare object
             schema.doPreSave(c, object, con, this);
 
             // save object
             c.saveObject(con, object);
+            done = true;
         } catch (Throwable t) {
             throw new MException(RC.STATUS.ERROR, registryName, t);
         } finally {
@@ -1133,12 +1557,30 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                     }
                     schema.closeConnection(pool, myCon);
                 }
+                if (done) written(c, con, myCon != null, Collections.singletonList(object));
             } catch (Throwable t) {
                 log().w(t);
             }
         }
     }
 
+    @Override
+    public void saveObjects(Collection<?> objects) throws MException {
+        saveObjects(null, objects);
+    }
+
+    @Override
+    public void saveObjects(DbConnection con, Collection<?> objects) throws MException {
+        executeObjectBatch(
+                con,
+                "save",
+                objects,
+                (c, myCon, chunk) -> {
+                    for (Object object : chunk) schema.doPreSave(c, object, myCon, this);
+                    c.saveObjects(myCon, chunk);
+                });
+    }
+
     @Override
     public void saveObjectForce(Object object, boolean raw) throws MException {
         saveObjectForce(null, null, object, raw);
@@ -1193,12 +1635,14 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
+        boolean done = false;
         try {
             // prepare object
             if (!raw) schema.doPreSave(c, object, con, this);
 
             // save object
             c.saveObjectForce(con, object, raw);
+            done = true;
         } catch (Throwable t) {
             throw new MException(RC.STATUS.ERROR, registryName, t);
         } finally {
@@ -1211,6 +1655,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                     }
                     schema.closeConnection(pool, myCon);
                 }
+                if (done) written(c, con, myCon != null, Collections.singletonList(object));
             } catch (Throwable t) {
                 log().w(t);
             }
@@ -1271,12 +1716,14 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
+        boolean done = false;
         try {
             // prepare object
             if (!raw) schema.doPreSave(c, object, con, this);
 
             // save object
             c.updateAttributes(con, object, raw, attributeNames);
+            done = true;
         } catch (Throwable t) {
             throw new MException(RC.STATUS.ERROR, registryName, t);
         } finally {
@@ -1289,6 +1736,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                     }
                     schema.closeConnection(pool, myCon);
                 }
+                if (done) written(c, con, myCon != null, Collections.singletonList(object));
             } catch (Throwable t) {
                 log().w(t);
             }
@@ -1346,6 +1794,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         if (c == null)
             throw new MException(RC.ERROR, "class definition not found in schema", registryName);
 
+        boolean done = false;
         try {
             // prepare object
             schema.doPreDelete(c, object, con, this);
@@ -1354,6 +1803,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
             c.deleteObject(con, object);
 
             schema.doPostDelete(c, object, con, this);
+            done = true;
 
         } catch (Throwable t) {
             throw new MException(RC.STATUS.ERROR, registryName, t);
@@ -1368,12 +1818,205 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
                     }
                     schema.closeConnection(pool, myCon);
                 }
+                if (done) written(c, con, myCon != null, Collections.singletonList(object));
             } catch (Throwable t) {
                 log().w(t);
             }
         }
     }
 
+    @Override
+    public void deleteObjects(Collection<?> objects) throws MException {
+        deleteObjects(null, objects);
+    }
+
+    @Override
+    public void deleteObjects(DbConnection con, Collection<?> objects) throws MException {
+        executeObjectBatch(
+                con,
+                "delete",
+                objects,
+                (c, myCon, chunk) -> {
+                    for (Object object : chunk) schema.doPreDelete(c, object, myCon, this);
+                    c.deleteObjects(myCon, chunk);
+                    for (Object object : chunk) schema.doPostDelete(c, object, myCon, this);
+                });
+    }
+
+    /**
+     * Group the objects by table and execute the batch operation in chunks of 'batchSize' objects.
+     * If no connection is given the chunks are committed separately, a failing chunk is rolled
+     * back but already committed chunks stay in the database.
+     *
+     * @param con The connection or null
+     * @param action Name of the action for logging
+     * @param objects The objects
+     * @param batch The operation for one chunk of one table
+     * @throws MException
+     */
+    protected void executeObjectBatch(
+            DbConnection con, String action, Collection<?> objects, ObjectBatch batch)
+            throws MException {
+        if (objects == null || objects.isEmpty()) return;
+        reloadLock.waitWithException(MAX_LOCK);
+
+        // group by table in order of the first appearance
+        LinkedHashMap<Table, List<Object>> tables = new LinkedHashMap<>();
+        for (Object object : objects) {
+            Class<?> clazz = schema.findClassForObject(object, this);
+            if (clazz == null)
+                throw new MException(
+                        RC.ERROR,
+                        "class definition not found for object",
+                        object.getClass().getCanonicalName());
+            String registryName = getRegistryName(clazz);
+            Table c = cIndex.get(registryName);
+            if (c == null)
+                throw new MException(
+                        RC.ERROR, "class definition not found in schema", registryName);
+            tables.computeIfAbsent(c, k -> new ArrayList<>()).add(object);
+        }
+
+        DbConnection myCon = null;
+        if (con == null) {
+            try {
+                myCon = schema.getConnection(pool);
+                con = myCon;
+            } catch (Throwable t) {
+                throw new MException(RC.STATUS.ERROR, t);
+            }
+        }
+
+        int batchSize = Math.max(1, CFG_BATCH_SIZE.value());
+        String registryName = null;
+        try {
+            for (Map.Entry<Table, List<Object>> entry : tables.entrySet()) {
+                Table c = entry.getKey();
+                registryName = c.getRegistryName();
+                List<Object> list = entry.getValue();
+                for (int i = 0; i < list.size(); i += batchSize) {
+                    List<Object> chunk = list.subList(i, Math.min(list.size(), i + batchSize));
+                    log().t(action, registryName, chunk.size());
+                    batch.execute(c, con, chunk);
+                    if (myCon != null) schema.commitConnection(pool, myCon);
+                    written(c, con, myCon != null, chunk);
+                }
+            }
+        } catch (Throwable t) {
+            throw new MException(RC.STATUS.ERROR, action, registryName, t);
+        } finally {
+            if (myCon != null) {
+                try {
+                    schema.closeConnection(pool, myCon);
+                } catch (Throwable t) {
+                    log().w(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the current thread is in a transaction of the pools of the manager.
+     *
+     * @return true if in transaction
+     */
+    protected boolean isInTransaction() {
+        return DbTransaction.getConnection(pool) != null
+                || poolRo != null && poolRo != pool && DbTransaction.getConnection(poolRo) != null;
+    }
+
+    /**
+     * Remove the written objects from the entity cache and publish them to the cache invalidation
+     * listener after the data is committed. If the connection is committed by the manager it's
+     * done now, otherwise the keys are collected at the connection until the transaction is
+     * completed. After a rollback the keys are removed from the local cache only.
+     *
+     * @param c The table
+     * @param con The used connection
+     * @param own true if the connection was taken by the manager
+     * @param objects The written objects
+     */
+    protected void written(Table c, DbConnection con, boolean own, List<?> objects) {
+        if (c.getCache() == null) return;
+        try {
+            DbConnection instance = own && !isInTransaction() ? null : con.instance();
+            if (instance instanceof InternalDbConnection) {
+                PendingInvalidation pending =
+                        (PendingInvalidation)
+                                ((InternalDbConnection) instance)
+                                        .getCompletionListener(this, PendingInvalidation::new);
+                pending.add(c, objects);
+                return;
+            }
+            Map<Table, List<String>> keys = new HashMap<>();
+            List<String> list = new ArrayList<>(objects.size());
+            for (Object object : objects) list.add(c.getCacheKey(object));
+            keys.put(c, list);
+            invalidated(keys, true);
+        } catch (Throwable t) {
+            log().w("cache invalidation failed, clear cache", c.getRegistryName(), t);
+            c.clearCache();
+        }
+    }
+
+    /**
+     * Remove the keys from the entity caches and publish them to the listener if committed.
+     * Failures are logged, the write itself is already done.
+     *
+     * @param keys The cache keys by table
+     * @param committed false after a rollback
+     */
+    protected void invalidated(Map<Table, List<String>> keys, boolean committed) {
+        for (Map.Entry<Table, List<String>> entry : keys.entrySet())
+            for (String key : entry.getValue()) entry.getKey().invalidateCacheKey(key);
+        CacheInvalidationListener listener = cacheInvalidationListener;
+        if (!committed || listener == null) return;
+        try {
+            listener.invalidated(keys);
+        } catch (Throwable t) {
+            log().w("publish cache invalidation failed", keys.size(), t);
+        }
+    }
+
+    public CacheInvalidationListener getCacheInvalidationListener() {
+        return cacheInvalidationListener;
+    }
+
+    /**
+     * Set a listener to publish written objects of cached tables, e.g. to other nodes.
+     *
+     * @param cacheInvalidationListener The listener or null
+     */
+    public void setCacheInvalidationListener(CacheInvalidationListener cacheInvalidationListener) {
+        this.cacheInvalidationListener = cacheInvalidationListener;
+    }
+
+    /** Cache keys written in the current transaction of a connection. */
+    private class PendingInvalidation implements InternalDbConnection.CompletionListener {
+
+        private LinkedHashMap<Table, List<String>> keys = new LinkedHashMap<>();
+
+        private synchronized void add(Table c, List<?> objects) throws Exception {
+            List<String> list = keys.computeIfAbsent(c, k -> new ArrayList<>());
+            for (Object object : objects) list.add(c.getCacheKey(object));
+        }
+
+        @Override
+        public void onCompletion(boolean committed) {
+            LinkedHashMap<Table, List<String>> current;
+            synchronized (this) {
+                current = keys;
+                keys = new LinkedHashMap<>();
+            }
+            invalidated(current, committed);
+        }
+    }
+
+    /** One batch operation for a chunk of objects of the same table. */
+    protected interface ObjectBatch {
+        void execute(Table table, DbConnection con, List<Object> chunk) throws Exception;
+    }
+
     @Override
     public boolean isConnected() {
         return nameMapping != null;
@@ -1393,6 +2036,7 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         synchronized (this) {
             if (nameMapping == null) return;
             cIndex.clear();
+            queryCache.clear();
 
             nameMapping = null;
             nameMappingRO = null;
@@ -1522,6 +2166,119 @@ public class DbManagerJdbc extends DbManager implements DbObjectHandler {
         return activator;
     }
 
+    @JmxManaged(descrition = "Query templates found in the template cache")
+    public long getTemplateCacheHits() {
+        return templateHits.get();
+    }
+
+    @JmxManaged(descrition = "Query templates compiled because not found in the template cache")
+    public long getTemplateCacheMisses() {
+        return templateMisses.get();
+    }
+
+    @JmxManaged(descrition = "Query templates removed because the template cache was full")
+    public long getTemplateCacheEvictions() {
+        return templateEvictions.get();
+    }
+
+    @JmxManaged(descrition = "Current size of the template cache")
+    public int getTemplateCacheSize() {
+        return templateCache.size();
+    }
+
+    @JmxManaged(descrition = "Rendered queries found in the query cache")
+    public long getQueryCacheHits() {
+        return queryHits.get();
+    }
+
+    @JmxManaged(descrition = "Queries rendered because not found in the query cache")
+    public long getQueryCacheMisses() {
+        return queryMisses.get();
+    }
+
+    @JmxManaged(descrition = "Current size of the query cache")
+    public int getQueryCacheSize() {
+        return queryCache.size();
+    }
+
+    @JmxManaged(descrition = "Entity cache statistics of the tables")
+    public String[] getEntityCacheStatistics() {
+        LinkedList<String> out = new LinkedList<>();
+        for (Table table : cIndex.values()) {
+            TableCache cache = table.getCache();
+            if (cache == null) continue;
+            out.add(
+                    table.getRegistryName()
+                            + ": size="
+                            + cache.getSize()
+                            + "/"
+                            + cache.getMaxSize()
+                            + " hits="
+                            + cache.getHits()
+                            + " misses="
+                            + cache.getMisses()
+                            + " ratio="
+                            + String.format("%.3f", cache.getHitRatio())
+                            + " evictions="
+                            + cache.getEvictions()
+                            + " invalidations="
+                            + cache.getInvalidations());
+        }
+        return out.toArray(new String[out.size()]);
+    }
+
+    @JmxManaged(descrition = "Hit ratio of all entity caches between 0 and 1")
+    public double getEntityCacheHitRatio() {
+        long hits = 0;
+        long all = 0;
+        for (Table table : cIndex.values()) {
+            TableCache cache = table.getCache();
+            if (cache == null) continue;
+            hits += cache.getHits();
+            all += cache.getHits() + cache.getMisses();
+        }
+        return all == 0 ? 0 : (double) hits / all;
+    }
+
+    @JmxManaged(descrition = "Clear all entity caches")
+    public void clearEntityCaches() {
+        for (Table table : cIndex.values()) {
+            table.clearCache();
+            TableCache cache = table.getCache();
+            if (cache != null) cache.resetStatistics();
+        }
+    }
+
+    @JmxManaged(descrition = "Lock wait time and contention by registry name")
+    public String[] getLockStatistics() {
+        LockStrategy strategy = schema.getLockStrategy();
+        if (strategy instanceof ConcurrentLockStrategy)
+            return ((ConcurrentLockStrategy) strategy).getStatistics();
+        return new String[0];
+    }
+
+    @JmxManaged(descrition = "Reset the lock statistics")
+    public void resetLockStatistics() {
+        LockStrategy strategy = schema.getLockStrategy();
+        if (strategy instanceof ConcurrentLockStrategy)
+            ((ConcurrentLockStrategy) strategy).resetStatistics();
+    }
+
+    @JmxManaged(descrition = "Clear the query cache and reset the counters")
+    public void clearQueryCache() {
+        queryCache.clear();
+        queryHits.set(0);
+        queryMisses.set(0);
+    }
+
+    @JmxManaged(descrition = "Clear the template cache and reset the counters")
+    public void clearTemplateCache() {
+        templateCache.clear();
+        templateHits.set(0);
+        templateMisses.set(0);
+        templateEvictions.set(0);
+    }
+
     @Override
     @JmxManaged(descrition = "Current mapping of the table and column names")
     public Map<String, Object> getNameMapping() {
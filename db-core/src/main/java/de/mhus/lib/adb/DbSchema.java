@@ -31,9 +31,15 @@ import de.mhus.lib.adb.model.FieldVirtual;
 import de.mhus.lib.adb.model.Table;
 import de.mhus.lib.adb.model.TableAnnotations;
 import de.mhus.lib.adb.model.TableDynamic;
+import de.mhus.lib.adb.transaction.ConcurrentLockStrategy;
+import de.mhus.lib.adb.transaction.DatabaseLockStrategy;
+import de.mhus.lib.adb.transaction.DbLockObjectStrategy;
 import de.mhus.lib.adb.transaction.LockStrategy;
 import de.mhus.lib.adb.util.AdbUtil;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.cfg.CfgTimeInterval;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.pojo.PojoAttribute;
 import de.mhus.lib.core.pojo.PojoModel;
@@ -41,6 +47,7 @@ import de.mhus.lib.core.pojo.PojoModelFactory;
 import de.mhus.lib.core.util.MObject;
 import de.mhus.lib.errors.AccessDeniedException;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.MRuntimeException;
 import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPool;
 import de.mhus.lib.sql.DbResult;
@@ -53,6 +60,9 @@ import de.mhus.lib.sql.DbResult;
  */
 public abstract class DbSchema extends MObject implements PojoModelFactory {
 
+    private static final CfgTimeInterval CFG_CACHE_TTL =
+            new CfgTimeInterval(DbSchema.class, "cacheTtl", "1m");
+
     protected String tablePrefix = "";
     private LinkedList<Class<? extends Object>> objectTypes;
     protected LockStrategy lockStrategy; // set this object to enable locking
@@ -467,10 +477,66 @@ public abstract class DbSchema extends MObject implements PojoModelFactory {
         con.commit();
     }
 
+    /**
+     * Return the strategy used by DbTransaction.lock(), null disables locking. Set the lockStrategy
+     * attribute to select the strategy, e.g. by createLockStrategy().
+     *
+     * @return The strategy or null
+     */
     public LockStrategy getLockStrategy() {
         return lockStrategy;
     }
 
+    /**
+     * Create a lock strategy by name: 'memory' for locks inside this process, 'database' for the
+     * named locks of the database (see Dialect.acquireLock) and 'object' for locks stored as
+     * DbLockObject, the object type must be part of the schema. 'none' returns null.
+     *
+     * @param name The name of the strategy
+     * @return The new strategy or null
+     */
+    public static LockStrategy createLockStrategy(String name) {
+        if (name == null) return null;
+        switch (name.trim().toLowerCase()) {
+            case "none":
+                return null;
+            case "memory":
+                return new ConcurrentLockStrategy();
+            case "database":
+                return new DatabaseLockStrategy();
+            case "object":
+                return new DbLockObjectStrategy();
+            default:
+                throw new MRuntimeException(RC.NOT_SUPPORTED, "unknown lock strategy", name);
+        }
+    }
+
+    /**
+     * Return the size of the entity cache for the table, 0 disables the cache. By default the
+     * 'cacheSize' attribute of the DbTable annotation is used, overwrite it to configure the cache
+     * by the schema.
+     *
+     * @param table The table
+     * @return Maximum count of cached objects
+     */
+    public int getCacheSize(Table table) {
+        INode attributes = table.getAttributes();
+        return attributes == null ? 0 : attributes.getInt("cacheSize", 0);
+    }
+
+    /**
+     * Return the time to live in milliseconds for entries of the entity cache. By default the
+     * 'cacheTtl' attribute of the DbTable annotation is used, e.g. '5m'.
+     *
+     * @param table The table
+     * @return The time to live or 0 for unlimited
+     */
+    public long getCacheTtl(Table table) {
+        INode attributes = table.getAttributes();
+        String ttl = attributes == null ? null : attributes.getString("cacheTtl", null);
+        return MPeriod.toMilliseconds(ttl, CFG_CACHE_TTL.interval());
+    }
+
     public void authorizeSaveForceAllowed(DbConnection con, Table table, Object object, boolean raw)
             throws AccessDeniedException {
         throw new AccessDeniedException();
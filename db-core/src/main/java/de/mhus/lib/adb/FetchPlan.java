@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import de.mhus.lib.adb.model.Field;
+import de.mhus.lib.adb.model.FieldRelation;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.adb.query.AOperation;
+import de.mhus.lib.adb.query.AOrder;
+import de.mhus.lib.adb.relation.RelMultible;
+import de.mhus.lib.adb.relation.RelSingle;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.errors.AccessDeniedException;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbResult;
+
+/**
+ * Load objects together with their relations in one query. The query of the objects is used as a
+ * derived table and the related tables are joined to it. All columns are selected by name, so the
+ * objects are filled by the column index without name conflicts.
+ *
+ * <p>A RelMultible relation returns one row for each related object, the rows are ordered by the
+ * primary key of the object to read them in one go. Only one RelMultible relation is possible, more
+ * would multiply the rows.
+ *
+ * @author mikehummel
+ */
+public class FetchPlan {
+
+    private static final String ROOT = "t0";
+
+    private DbManager manager;
+    private Table root;
+    private int[] rootColumns;
+    private int[] rootKeys;
+    private List<Join> joins = new LinkedList<>();
+    private Join multiple;
+    private StringBuilder columns = new StringBuilder();
+    private StringBuilder from = new StringBuilder();
+    private int columnCount;
+
+    public FetchPlan(DbManager manager, Table root, List<String> relations) throws MException {
+        this.manager = manager;
+        this.root = root;
+        if (root.hasFeatures())
+            throw new MException(
+                    RC.NOT_SUPPORTED, "fetch not supported for tables with features", root);
+        rootColumns = addColumns(root, ROOT);
+        rootKeys = getKeyColumns(root, rootColumns);
+
+        for (String name : relations) {
+            FieldRelation field = root.getFieldRelation(name);
+            if (field == null) field = root.getFieldRelation(name.toLowerCase());
+            if (field == null)
+                throw new MException(
+                        RC.NOT_FOUND, "relation not found", root.getRegistryName(), name);
+            addJoin(field, "t" + (joins.size() + 1));
+        }
+    }
+
+    private void addJoin(FieldRelation field, String alias) throws MException {
+        boolean isMultiple = RelMultible.class.isAssignableFrom(field.getType());
+        if (!isMultiple && !RelSingle.class.isAssignableFrom(field.getType()))
+            throw new MException(
+                    RC.NOT_SUPPORTED, "relation type can't be fetched", field.getName());
+        if (isMultiple && root.getPrimaryKeys().isEmpty())
+            throw new MException(
+                    RC.NOT_SUPPORTED, "multiple relation needs a primary key", root);
+        if (isMultiple && multiple != null)
+            throw new MException(
+                    RC.NOT_SUPPORTED,
+                    "only one multiple relation can be fetched",
+                    multiple.field.getName(),
+                    field.getName());
+
+        Class<?> target = field.getConfig().target();
+        Table table = manager.getTable(manager.getRegistryName(target));
+        if (table == null)
+            throw new MException(RC.ERROR, "class definition not found in schema", target);
+        if (table.hasFeatures())
+            throw new MException(
+                    RC.NOT_SUPPORTED, "fetch not supported for tables with features", table);
+
+        String src = field.getConfig().sourceAttribute();
+        if ("".equals(src)) src = isMultiple ? "id" : field.getName() + "id";
+        String tar = field.getConfig().targetAttribute();
+        if ("".equals(tar)) tar = isMultiple ? field.getName() + "id" : "id";
+        Field srcField = root.getField(src.toLowerCase());
+        Field tarField = table.getField(tar.toLowerCase());
+        if (srcField == null || tarField == null)
+            throw new MException(
+                    RC.ERROR, "relation attributes not found", field.getName(), src, tar);
+
+        Join join = new Join();
+        join.field = field;
+        join.table = table;
+        join.columns = addColumns(table, alias);
+        int[] keys = getKeyColumns(table, join.columns);
+        join.nullColumn = keys.length > 0 ? keys[0] : getColumn(table, tarField, join.columns);
+        from.append(" LEFT OUTER JOIN $db.")
+                .append(manager.getMappingName(target))
+                .append("$ ")
+                .append(alias)
+                .append(" ON ")
+                .append(alias)
+                .append('.')
+                .append(tarField.getMappedName())
+                .append('=')
+                .append(ROOT)
+                .append('.')
+                .append(srcField.getMappedName());
+        if (isMultiple) {
+            multiple = join;
+            String orderBy = field.getConfig().orderBy();
+            Field orderField = "".equals(orderBy) ? null : table.getField(orderBy.toLowerCase());
+            if (orderField != null) join.orderBy = alias + "." + orderField.getMappedName();
+        } else {
+            joins.add(join);
+        }
+    }
+
+    private int[] addColumns(Table table, String alias) {
+        Field[] fields = table.getFields();
+        int[] out = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (!fields[i].isPersistent()) continue;
+            if (columnCount > 0) columns.append(',');
+            columns.append(alias).append('.').append(fields[i].getMappedName());
+            out[i] = ++columnCount;
+        }
+        return out;
+    }
+
+    private int[] getKeyColumns(Table table, int[] tableColumns) {
+        List<Field> pk = table.getPrimaryKeys();
+        int[] out = new int[pk.size()];
+        int i = 0;
+        for (Field f : pk) out[i++] = getColumn(table, f, tableColumns);
+        return out;
+    }
+
+    private int getColumn(Table table, Field field, int[] tableColumns) {
+        Field[] fields = table.getFields();
+        for (int i = 0; i < fields.length; i++) if (fields[i] == field) return tableColumns[i];
+        return 0;
+    }
+
+    /**
+     * Create the select statement around the query of the objects.
+     *
+     * @param rootSelect The select of the objects
+     * @param operations The operations of the query, the order is repeated for the join
+     * @return The sql statement
+     */
+    public String createSql(String rootSelect, List<AOperation> operations) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        sql.append(columns).append(" FROM (").append(rootSelect).append(") ").append(ROOT);
+        sql.append(from);
+
+        boolean first = true;
+        for (AOperation operation : operations) {
+            if (!(operation instanceof AOrder)) continue;
+            AOrder order = (AOrder) operation;
+            if (order.getClazz() != null && !order.getClazz().isAssignableFrom(root.getClazz()))
+                continue;
+            Field f = root.getField(order.getAttribute());
+            if (f == null || !f.isPersistent()) continue;
+            sql.append(first ? " ORDER BY " : ",");
+            first = false;
+            sql.append(ROOT).append('.').append(f.getMappedName());
+            sql.append(order.isAsc() ? " ASC" : " DESC");
+        }
+        if (multiple != null) {
+            // keep the rows of one object together
+            for (Field f : root.getPrimaryKeys()) {
+                sql.append(first ? " ORDER BY " : ",");
+                first = false;
+                sql.append(ROOT).append('.').append(f.getMappedName());
+            }
+            if (multiple.orderBy != null) sql.append(',').append(multiple.orderBy);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Fill the object and the fetched relations from the current row. For a multiple relation the
+     * following rows of the same object are read also.
+     *
+     * @param obj The new object
+     * @param con The connection
+     * @param res The result, positioned at the first row of the object
+     * @return true if the result is positioned at an unread row of the next object
+     * @throws Throwable
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public boolean fill(Object obj, DbConnection con, DbResult res) throws Throwable {
+        DbSchema schema = manager.getSchema();
+        root.fillObject(obj, con, res, rootColumns);
+        schema.doPostLoad(root, obj, con, manager);
+
+        for (Join join : joins) {
+            IRelationObject rel = join.field.getRelationObject(obj);
+            if (rel != null) ((RelSingle<?>) rel).setFetched(loadChild(join, con, res));
+        }
+        if (multiple == null) return false;
+
+        String key = getRootKey(res);
+        ArrayList<Object> list = new ArrayList<>();
+        boolean pending = false;
+        do {
+            if (!key.equals(getRootKey(res))) {
+                pending = true;
+                break;
+            }
+            Object child = loadChild(multiple, con, res);
+            if (child != null) list.add(child);
+        } while (res.next());
+        IRelationObject rel = multiple.field.getRelationObject(obj);
+        if (rel != null) ((RelMultible) rel).setFetched(list);
+        return pending;
+    }
+
+    private Object loadChild(Join join, DbConnection con, DbResult res) throws Throwable {
+        if (res.getString(join.nullColumn) == null) return null;
+        DbSchema schema = manager.getSchema();
+        Object child =
+                schema.createObject(
+                        join.table.getClazz(), join.table.getRegistryName(), res, manager, true);
+        join.table.fillObject(child, con, res, join.columns);
+        try {
+            schema.doPostLoad(join.table, child, con, manager);
+        } catch (AccessDeniedException e) {
+            return null;
+        }
+        return child;
+    }
+
+    private String getRootKey(DbResult res) throws Exception {
+        if (rootKeys.length == 1) return String.valueOf(res.getString(rootKeys[0]));
+        StringBuilder out = new StringBuilder();
+        for (int column : rootKeys) out.append(res.getString(column)).append('\0');
+        return out.toString();
+    }
+
+    /**
+     * Returns true if the relation is loaded by the plan.
+     *
+     * @param relation The name of the relation
+     * @return true if fetched
+     */
+    public boolean isFetched(String relation) {
+        if (multiple != null && multiple.field.getName().equals(relation)) return true;
+        for (Join join : joins) if (join.field.getName().equals(relation)) return true;
+        return false;
+    }
+
+    private static class Join {
+        private FieldRelation field;
+        private Table table;
+        private int[] columns;
+        private int nullColumn;
+        private String orderBy;
+    }
+}
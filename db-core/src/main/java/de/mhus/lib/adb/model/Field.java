@@ -15,6 +15,9 @@
  */
 package de.mhus.lib.adb.model;
 
+import java.lang.reflect.Array;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 
@@ -48,6 +51,9 @@ public abstract class Field extends MObject {
     protected INode attr;
     protected DbDynamic.Field dynamicField;
     protected PojoAttribute<Object> attribute;
+    // direct access to the attribute, null if the attribute must be used
+    protected FieldAccessor accessor;
+    private boolean enumType;
     private LinkedList<AttributeFeature> features = new LinkedList<>();
     protected boolean readOnly = false;
 
@@ -59,11 +65,25 @@ public abstract class Field extends MObject {
 
     public abstract void setToTarget(DbResult res, Object obj) throws Exception;
 
+    /**
+     * Set the value of the column to the object. The column index is resolved once per result by
+     * the table.
+     *
+     * @param res The result
+     * @param columnIndex The index of the column or 0 if the name should be used
+     * @param obj The object
+     * @throws Exception
+     */
+    public void setToTarget(DbResult res, int columnIndex, Object obj) throws Exception {
+        setToTarget(res, obj);
+    }
+
     public abstract boolean changed(DbResult res, Object obj) throws Exception;
 
     public abstract void fillNameMapping(HashMap<String, Object> nameMapping);
 
     protected void init(String[] features) throws MException {
+        enumType = attribute != null && attribute.getType().isEnum();
         if (features != null) {
             for (String featureName : features) {
                 AttributeFeature f =
@@ -75,7 +95,7 @@ public abstract class Field extends MObject {
 
     public void set(Object obj, Object value) throws Exception {
 
-        if (attribute.getType().isEnum()) {
+        if (enumType) {
             int index = -1;
             if (value == null) index = MCast.toint(defValue, -1);
             else if (value instanceof Number) index = ((Number) value).intValue();
@@ -94,18 +114,59 @@ public abstract class Field extends MObject {
             value = values[index];
         }
 
-        for (Feature f : table.getFeatures()) value = f.setValue(obj, this, value);
+        if (!table.getFeatures().isEmpty())
+            for (Feature f : table.getFeatures()) value = f.setValue(obj, this, value);
 
-        for (AttributeFeature f : features) value = f.set(obj, value);
+        if (!features.isEmpty()) for (AttributeFeature f : features) value = f.set(obj, value);
 
         if (dynamicField != null && obj instanceof DbDynamic)
             ((DbDynamic) obj).setValue(dynamicField, value);
-        else attribute.set(obj, value, false);
+        else if (accessor != null) {
+            try {
+                accessor.set(obj, value);
+            } catch (ClassCastException e) {
+                // the accessor is strict, the attribute will convert compatible types
+                attribute.set(obj, value, false);
+            }
+        } else attribute.set(obj, value, false);
+    }
+
+    /**
+     * Returns true if the value can be set directly without conversion or features.
+     *
+     * @return true if the primitive setters can be used
+     */
+    protected boolean isDirect() {
+        return accessor != null
+                && dynamicField == null
+                && !enumType
+                && features.isEmpty()
+                && table.getFeatures().isEmpty();
+    }
+
+    public void setInt(Object obj, int value) throws Exception {
+        if (isDirect()) accessor.setInt(obj, value);
+        else set(obj, value);
+    }
+
+    public void setLong(Object obj, long value) throws Exception {
+        if (isDirect()) accessor.setLong(obj, value);
+        else set(obj, value);
+    }
+
+    public void setDouble(Object obj, double value) throws Exception {
+        if (isDirect()) accessor.setDouble(obj, value);
+        else set(obj, value);
+    }
+
+    public void setBoolean(Object obj, boolean value) throws Exception {
+        if (isDirect()) accessor.setBoolean(obj, value);
+        else set(obj, value);
     }
 
     public boolean different(Object obj, Object value) throws Exception {
 
-        if (attribute.getType().isEnum()) {
+        if (enumType) {
             int index = -1;
             if (value == null) index = MCast.toint(defValue, -1);
             else if (value instanceof Number) index = ((Number) value).intValue();
@@ -121,19 +182,22 @@ public abstract class Field extends MObject {
 
             if (dynamicField != null && obj instanceof DbDynamic)
                 objValue = ((DbDynamic) obj).getValue(dynamicField);
+            else if (accessor != null) objValue = accessor.get(obj);
             else objValue = attribute.get(obj);
 
             return !MSystem.equals(String.valueOf(value), String.valueOf(objValue));
         }
 
-        for (Feature f : table.getFeatures()) value = f.setValue(obj, this, value);
+        if (!table.getFeatures().isEmpty())
+            for (Feature f : table.getFeatures()) value = f.setValue(obj, this, value);
 
-        for (AttributeFeature f : features) value = f.set(obj, value);
+        if (!features.isEmpty()) for (AttributeFeature f : features) value = f.set(obj, value);
 
         Object objValue = null;
 
         if (dynamicField != null && obj instanceof DbDynamic)
             objValue = ((DbDynamic) obj).getValue(dynamicField);
+        else if (accessor != null) objValue = accessor.get(obj);
         else objValue = attribute.get(obj);
 
         //		for (AttributeFeature f : features)
@@ -149,15 +213,60 @@ public abstract class Field extends MObject {
         Object val = null;
         if (dynamicField != null && obj instanceof DbDynamic)
             val = ((DbDynamic) obj).getValue(dynamicField);
+        else if (accessor != null) val = accessor.get(obj);
         else val = attribute.get(obj);
 
-        for (AttributeFeature f : features) val = f.get(obj, val);
+        if (!features.isEmpty()) for (AttributeFeature f : features) val = f.get(obj, val);
 
-        for (Feature f : table.getFeatures()) val = f.getValue(obj, this, val);
+        if (!table.getFeatures().isEmpty())
+            for (Feature f : table.getFeatures()) val = f.getValue(obj, this, val);
 
         return val;
     }
 
+    /**
+     * Copy the value from one object to the other without features. Mutable values are copied with
+     * copyValue(), the objects do not share them.
+     *
+     * @param from Source object
+     * @param to Target object
+     * @throws Exception
+     */
+    public void copy(Object from, Object to) throws Exception {
+        Object value;
+        if (dynamicField != null && from instanceof DbDynamic)
+            value = ((DbDynamic) from).getValue(dynamicField);
+        else if (accessor != null) value = accessor.get(from);
+        else value = attribute.get(from);
+
+        value = copyValue(value);
+
+        if (dynamicField != null && to instanceof DbDynamic)
+            ((DbDynamic) to).setValue(dynamicField, value);
+        else if (accessor != null) accessor.set(to, value);
+        else attribute.set(to, value, false);
+    }
+
+    /**
+     * Return a copy of a mutable value. Date and Calendar values are cloned, arrays are copied,
+     * other values are returned as they are.
+     *
+     * @param value The value
+     * @return The copy
+     * @throws Exception
+     */
+    protected Object copyValue(Object value) throws Exception {
+        if (value instanceof Date) return ((Date) value).clone();
+        if (value instanceof Calendar) return ((Calendar) value).clone();
+        if (value != null && value.getClass().isArray()) {
+            int len = Array.getLength(value);
+            Object out = Array.newInstance(value.getClass().getComponentType(), len);
+            System.arraycopy(value, 0, out, 0, len);
+            return out;
+        }
+        return value;
+    }
+
     public INode getAttributes() {
         return attr;
     }
@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.model;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.lib.core.pojo.PojoAttribute;
+
+/**
+ * Direct access to the value of an attribute. The getter and setter methods of the class are bound
+ * with the LambdaMetafactory once when the table is initialized, so reading and writing the
+ * attribute is a plain interface call instead of reflection. Setters of the primitive types int,
+ * long, double and boolean get a variant without boxing. If no methods are found the field itself
+ * is accessed by method handles.
+ *
+ * @author mikehummel
+ */
+public abstract class FieldAccessor {
+
+    public abstract Object get(Object obj);
+
+    public abstract void set(Object obj, Object value);
+
+    public void setInt(Object obj, int value) {
+        set(obj, value);
+    }
+
+    public void setLong(Object obj, long value) {
+        set(obj, value);
+    }
+
+    public void setDouble(Object obj, double value) {
+        set(obj, value);
+    }
+
+    public void setBoolean(Object obj, boolean value) {
+        set(obj, value);
+    }
+
+    /**
+     * Create a direct accessor for the attribute or return null if not possible. In this case the
+     * reflection based access of the attribute must be used.
+     *
+     * @param clazz The managed class
+     * @param attribute The attribute
+     * @return The accessor or null
+     */
+    public static FieldAccessor create(Class<?> clazz, PojoAttribute<?> attribute) {
+        if (clazz == null || attribute == null || attribute.getType() == null) return null;
+        try {
+            MethodHandles.Lookup lookup =
+                    MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+            MethodType getType = MethodType.methodType(Object.class, Object.class);
+            MethodType setType = MethodType.methodType(void.class, Object.class, Object.class);
+            Method getter = findGetter(clazz, attribute);
+            Method setter = findSetter(clazz, attribute);
+            if (getter != null && setter != null) {
+                try {
+                    return new LambdaAccessor(lookup, clazz, getter, setter);
+                } catch (Throwable t) {
+                    // e.g. the lookup has no full privilege access in a different module
+                    MLogUtil.log().t("lambda accessor failed", clazz, attribute.getName(), t);
+                }
+                return new HandleAccessor(
+                        lookup.unreflect(getter).asType(getType),
+                        lookup.unreflect(setter).asType(setType));
+            }
+            java.lang.reflect.Field field = findField(clazz, attribute);
+            if (field != null) {
+                return new HandleAccessor(
+                        lookup.unreflectGetter(field).asType(getType),
+                        lookup.unreflectSetter(field).asType(setType));
+            }
+        } catch (Throwable t) {
+            MLogUtil.log().t("can't create accessor", clazz, attribute.getName(), t);
+        }
+        return null;
+    }
+
+    private static Method findGetter(Class<?> clazz, PojoAttribute<?> attribute) {
+        String name = normalize(attribute.getName());
+        Method found = null;
+        for (Method m : clazz.getMethods()) {
+            if (m.getParameterCount() != 0 || Modifier.isStatic(m.getModifiers())) continue;
+            if (m.getReturnType() != attribute.getType()) continue;
+            String n = m.getName();
+            if (n.startsWith("get")) n = n.substring(3);
+            else if (n.startsWith("is")) n = n.substring(2);
+            else continue;
+            if (!normalize(n).equals(name)) continue;
+            if (found != null) return null; // ambiguous
+            found = m;
+        }
+        return found;
+    }
+
+    private static Method findSetter(Class<?> clazz, PojoAttribute<?> attribute) {
+        String name = normalize(attribute.getName());
+        Method found = null;
+        for (Method m : clazz.getMethods()) {
+            if (m.getParameterCount() != 1 || Modifier.isStatic(m.getModifiers())) continue;
+            if (m.getParameterTypes()[0] != attribute.getType()) continue;
+            String n = m.getName();
+            if (!n.startsWith("set") || !normalize(n.substring(3)).equals(name)) continue;
+            if (found != null) return null; // ambiguous
+            found = m;
+        }
+        return found;
+    }
+
+    private static java.lang.reflect.Field findField(Class<?> clazz, PojoAttribute<?> attribute) {
+        String name = normalize(attribute.getName());
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (java.lang.reflect.Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers()) || Modifier.isFinal(f.getModifiers()))
+                    continue;
+                if (f.getType() == attribute.getType() && normalize(f.getName()).equals(name))
+                    return f;
+            }
+        }
+        return null;
+    }
+
+    private static String normalize(String name) {
+        return name.replace("_", "").toLowerCase();
+    }
+
+    /** Setter for primitive boolean values without boxing. */
+    @FunctionalInterface
+    public interface ObjBooleanConsumer<T> {
+        void accept(T obj, boolean value);
+    }
+
+    private static class LambdaAccessor extends FieldAccessor {
+
+        private Function<Object, Object> getter;
+        private BiConsumer<Object, Object> setter;
+        private ObjIntConsumer<Object> intSetter;
+        private ObjLongConsumer<Object> longSetter;
+        private ObjDoubleConsumer<Object> doubleSetter;
+        private ObjBooleanConsumer<Object> booleanSetter;
+
+        @SuppressWarnings("unchecked")
+        LambdaAccessor(MethodHandles.Lookup lookup, Class<?> clazz, Method getter, Method setter)
+                throws Throwable {
+            Class<?> type = getter.getReturnType();
+            Class<?> boxed = MethodType.methodType(type).wrap().returnType();
+            MethodHandle get = lookup.unreflect(getter);
+            MethodHandle set = lookup.unreflect(setter);
+
+            this.getter =
+                    (Function<Object, Object>)
+                            spin(
+                                    lookup,
+                                    get,
+                                    "apply",
+                                    Function.class,
+                                    MethodType.methodType(Object.class, Object.class),
+                                    MethodType.methodType(boxed, clazz));
+            this.setter =
+                    (BiConsumer<Object, Object>)
+                            spin(
+                                    lookup,
+                                    set,
+                                    "accept",
+                                    BiConsumer.class,
+                                    MethodType.methodType(void.class, Object.class, Object.class),
+                                    MethodType.methodType(void.class, clazz, boxed));
+            if (type == int.class)
+                intSetter =
+                        (ObjIntConsumer<Object>)
+                                spinSetter(lookup, set, ObjIntConsumer.class, clazz, type);
+            else if (type == long.class)
+                longSetter =
+                        (ObjLongConsumer<Object>)
+                                spinSetter(lookup, set, ObjLongConsumer.class, clazz, type);
+            else if (type == double.class)
+                doubleSetter =
+                        (ObjDoubleConsumer<Object>)
+                                spinSetter(lookup, set, ObjDoubleConsumer.class, clazz, type);
+            else if (type == boolean.class)
+                booleanSetter =
+                        (ObjBooleanConsumer<Object>)
+                                spinSetter(lookup, set, ObjBooleanConsumer.class, clazz, type);
+        }
+
+        private static Object spinSetter(
+                MethodHandles.Lookup lookup,
+                MethodHandle set,
+                Class<?> iface,
+                Class<?> clazz,
+                Class<?> type)
+                throws Throwable {
+            return spin(
+                    lookup,
+                    set,
+                    "accept",
+                    iface,
+                    MethodType.methodType(void.class, Object.class, type),
+                    MethodType.methodType(void.class, clazz, type));
+        }
+
+        private static Object spin(
+                MethodHandles.Lookup lookup,
+                MethodHandle impl,
+                String method,
+                Class<?> iface,
+                MethodType erased,
+                MethodType instantiated)
+                throws Throwable {
+            CallSite site =
+                    LambdaMetafactory.metafactory(
+                            lookup,
+                            method,
+                            MethodType.methodType(iface),
+                            erased,
+                            impl,
+                            instantiated);
+            return site.getTarget().invoke();
+        }
+
+        @Override
+        public Object get(Object obj) {
+            return getter.apply(obj);
+        }
+
+        @Override
+        public void set(Object obj, Object value) {
+            setter.accept(obj, value);
+        }
+
+        @Override
+        public void setInt(Object obj, int value) {
+            if (intSetter != null) intSetter.accept(obj, value);
+            else set(obj, value);
+        }
+
+        @Override
+        public void setLong(Object obj, long value) {
+            if (longSetter != null) longSetter.accept(obj, value);
+            else set(obj, value);
+        }
+
+        @Override
+        public void setDouble(Object obj, double value) {
+            if (doubleSetter != null) doubleSetter.accept(obj, value);
+            else set(obj, value);
+        }
+
+        @Override
+        public void setBoolean(Object obj, boolean value) {
+            if (booleanSetter != null) booleanSetter.accept(obj, value);
+            else set(obj, value);
+        }
+    }
+
+    private static class HandleAccessor extends FieldAccessor {
+
+        private MethodHandle getter;
+        private MethodHandle setter;
+
+        HandleAccessor(MethodHandle getter, MethodHandle setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public Object get(Object obj) {
+            try {
+                return (Object) getter.invokeExact(obj);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        public void set(Object obj, Object value) {
+            try {
+                setter.invokeExact(obj, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
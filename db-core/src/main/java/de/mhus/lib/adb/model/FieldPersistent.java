@@ -46,6 +46,13 @@ import de.mhus.lib.sql.DbResult;
 public class FieldPersistent extends Field {
 
     private String autoPrefix;
+    // resolved type of retDbType, null if unknown
+    private DbType.TYPE dbType;
+    // the attribute is a primitive, the value can be set without boxing
+    private boolean intType;
+    private boolean longType;
+    private boolean doubleType;
+    private boolean booleanType;
 
     /**
      * Constructor for FieldPersistent.
@@ -107,6 +114,15 @@ public class FieldPersistent extends Field {
                 attr.getExtracted("type", table.getDbRetType(attribute.getType())).toUpperCase();
         //		if (this.retDbType.equals("DATE"))
         //			this.retDbType = "DATETIME";
+        try {
+            dbType = DbType.TYPE.valueOf(retDbType);
+        } catch (IllegalArgumentException e) {
+            dbType = null;
+        }
+        intType = attribute.getType() == int.class;
+        longType = attribute.getType() == long.class;
+        doubleType = attribute.getType() == double.class;
+        booleanType = attribute.getType() == boolean.class;
         this.autoId = attr.getBoolean("auto_id", false);
         this.autoPrefix = attr.getString("auto_prefix", null);
         size = attr.getInt("size", size);
@@ -170,7 +186,7 @@ public class FieldPersistent extends Field {
     @Override
     public Object getFromTarget(Object obj) throws Exception {
         Object out = get(obj);
-        if (retDbType.equals(DbType.TYPE.BLOB.name())) {
+        if (dbType == DbType.TYPE.BLOB) {
             ByteArrayOutputStream os = new ByteArrayOutputStream();
             ObjectOutputStream oos = new ObjectOutputStream(os);
             oos.writeObject(out);
@@ -180,93 +196,163 @@ public class FieldPersistent extends Field {
         return out;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>BLOB values can be any serialized object, they are copied with the same serialization
+     * used to write and read them.
+     */
+    @Override
+    protected Object copyValue(Object value) throws Exception {
+        if (dbType != DbType.TYPE.BLOB || value == null) return super.copyValue(value);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(os);
+        oos.writeObject(value);
+        oos.close();
+        MObjectInputStream ois = new MObjectInputStream(new ByteArrayInputStream(os.toByteArray()));
+        ois.setActivator(manager.getActivator());
+        Object out = ois.readObject();
+        ois.close();
+        return out;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void setToTarget(DbResult res, Object obj) throws Exception {
+        setToTarget(res, 0, obj);
+    }
 
-        if (retDbType.equals(DbType.TYPE.INT.name())) set(obj, res.getInt(name));
-        else if (retDbType.equals(DbType.TYPE.LONG.name())) set(obj, res.getLong(name));
-        else if (retDbType.equals(DbType.TYPE.BOOL.name())) set(obj, res.getBoolean(name));
-        else if (retDbType.equals(DbType.TYPE.DATETIME.name())) {
-            try {
-                if (attribute.getType() == Date.class) set(obj, res.getTimestamp(name));
-                else if (attribute.getType() == java.sql.Date.class) {
-                    Timestamp time = res.getTimestamp(name);
-                    set(obj, time == null ? null : new java.sql.Date(time.getTime()));
-                } else set(obj, new MDate(res.getTimestamp(name)).toCalendar());
-            } catch (java.sql.SQLException sqle) {
-                // Caused by: java.sql.SQLException: Value '0000-00-00 00:00:00' can not be
-                // represented as java.sql.Timestamp
-                set(obj, null);
-            }
-        } else if (retDbType.equals(DbType.TYPE.DOUBLE.name())) set(obj, res.getDouble(name));
-        else if (retDbType.equals(DbType.TYPE.BIGDECIMAL.name())) set(obj, res.getBigDecimal(name));
-        else if (retDbType.equals(DbType.TYPE.FLOAT.name())) set(obj, res.getFloat(name));
-        else if (retDbType.equals(DbType.TYPE.STRING.name())) set(obj, res.getString(name));
-        else if (retDbType.equals(DbType.TYPE.UUID.name())) {
-            String o = res.getString(name);
-            if (o == null) set(obj, (UUID) null);
-            else
+    /** {@inheritDoc} */
+    @Override
+    public void setToTarget(DbResult res, int index, Object obj) throws Exception {
+        if (dbType == null) {
+            log().d("can't set to target ", name, retDbType);
+            return;
+        }
+        switch (dbType) {
+            case INT:
+                if (intType) setInt(obj, index > 0 ? res.getInt(index) : res.getInt(name));
+                else set(obj, index > 0 ? res.getInt(index) : res.getInt(name));
+                break;
+            case LONG:
+                if (longType) setLong(obj, index > 0 ? res.getLong(index) : res.getLong(name));
+                else set(obj, index > 0 ? res.getLong(index) : res.getLong(name));
+                break;
+            case BOOL:
+                if (booleanType)
+                    setBoolean(obj, index > 0 ? res.getBoolean(index) : res.getBoolean(name));
+                else set(obj, index > 0 ? res.getBoolean(index) : res.getBoolean(name));
+                break;
+            case DATETIME:
                 try {
-                    set(obj, UUID.fromString(o));
-                } catch (Throwable t) {
-                    log().d("uuid", name, o, t);
-                    set(obj, (UUID) null);
+                    Timestamp time = index > 0 ? res.getTimestamp(index) : res.getTimestamp(name);
+                    if (attribute.getType() == Date.class) set(obj, time);
+                    else if (attribute.getType() == java.sql.Date.class)
+                        set(obj, time == null ? null : new java.sql.Date(time.getTime()));
+                    else set(obj, new MDate(time).toCalendar());
+                } catch (java.sql.SQLException sqle) {
+                    // Caused by: java.sql.SQLException: Value '0000-00-00 00:00:00' can not be
+                    // represented as java.sql.Timestamp
+                    set(obj, null);
                 }
-        } else if (retDbType.equals(DbType.TYPE.BLOB.name())) {
-            InputStream st = res.getBinaryStream(name);
-            if (st != null) {
-                @SuppressWarnings("resource")
-                MObjectInputStream ois = new MObjectInputStream(st);
-                ois.setActivator(manager.getActivator());
-                //												ois.setClassLoader(manager.getActivator());
-
-                Object o = ois.readObject();
-                set(obj, o);
-            } else set(obj, null);
-        } else log().d("can't set to target ", name, retDbType);
+                break;
+            case DOUBLE:
+                if (doubleType)
+                    setDouble(obj, index > 0 ? res.getDouble(index) : res.getDouble(name));
+                else set(obj, index > 0 ? res.getDouble(index) : res.getDouble(name));
+                break;
+            case BIGDECIMAL:
+                set(obj, index > 0 ? res.getBigDecimal(index) : res.getBigDecimal(name));
+                break;
+            case FLOAT:
+                set(obj, index > 0 ? res.getFloat(index) : res.getFloat(name));
+                break;
+            case STRING:
+                set(obj, index > 0 ? res.getString(index) : res.getString(name));
+                break;
+            case UUID:
+                {
+                    String o = index > 0 ? res.getString(index) : res.getString(name);
+                    if (o == null) set(obj, (UUID) null);
+                    else
+                        try {
+                            set(obj, UUID.fromString(o));
+                        } catch (Throwable t) {
+                            log().d("uuid", name, o, t);
+                            set(obj, (UUID) null);
+                        }
+                }
+                break;
+            case BLOB:
+                {
+                    InputStream st =
+                            index > 0 ? res.getBinaryStream(index) : res.getBinaryStream(name);
+                    if (st != null) {
+                        @SuppressWarnings("resource")
+                        MObjectInputStream ois = new MObjectInputStream(st);
+                        ois.setActivator(manager.getActivator());
+                        Object o = ois.readObject();
+                        set(obj, o);
+                    } else set(obj, null);
+                }
+                break;
+            default:
+                log().d("can't set to target ", name, retDbType);
+        }
     }
 
     /** {@inheritDoc} */
     @Override
     public boolean changed(DbResult res, Object obj) throws Exception {
-
-        if (retDbType.equals(DbType.TYPE.INT.name())) return different(obj, res.getInt(name));
-        else if (retDbType.equals(DbType.TYPE.LONG.name()))
-            return different(obj, res.getLong(name));
-        else if (retDbType.equals(DbType.TYPE.BOOL.name()))
-            return different(obj, res.getBoolean(name));
-        else if (retDbType.equals(DbType.TYPE.DATETIME.name())) {
-            if (attribute.getType() == Date.class) return different(obj, res.getTimestamp(name));
-            else return different(obj, new MDate(res.getTimestamp(name)).toCalendar());
-        } else if (retDbType.equals(DbType.TYPE.DOUBLE.name()))
-            return different(obj, res.getDouble(name));
-        else if (retDbType.equals(DbType.TYPE.FLOAT.name()))
-            return different(obj, res.getFloat(name));
-        else if (retDbType.equals(DbType.TYPE.STRING.name()))
-            return different(obj, res.getString(name));
-        else if (retDbType.equals(DbType.TYPE.UUID.name())) {
-            String o = res.getString(name);
-            if (o == null) return different(obj, (UUID) null);
-            else
-                try {
-                    return different(obj, UUID.fromString(o));
-                } catch (Throwable t) {
-                    log().d("uuid", name, o, t);
-                    return different(obj, (UUID) null);
+        if (dbType == null) {
+            log().d("can't test", name, retDbType);
+            return false;
+        }
+        switch (dbType) {
+            case INT:
+                return different(obj, res.getInt(name));
+            case LONG:
+                return different(obj, res.getLong(name));
+            case BOOL:
+                return different(obj, res.getBoolean(name));
+            case DATETIME:
+                if (attribute.getType() == Date.class)
+                    return different(obj, res.getTimestamp(name));
+                else return different(obj, new MDate(res.getTimestamp(name)).toCalendar());
+            case DOUBLE:
+                return different(obj, res.getDouble(name));
+            case FLOAT:
+                return different(obj, res.getFloat(name));
+            case STRING:
+                return different(obj, res.getString(name));
+            case UUID:
+                {
+                    String o = res.getString(name);
+                    if (o == null) return different(obj, (UUID) null);
+                    else
+                        try {
+                            return different(obj, UUID.fromString(o));
+                        } catch (Throwable t) {
+                            log().d("uuid", name, o, t);
+                            return different(obj, (UUID) null);
+                        }
                 }
-        } else if (retDbType.equals(DbType.TYPE.BLOB.name())) {
-            InputStream st = res.getBinaryStream(name);
-            if (st != null) {
-                @SuppressWarnings("resource")
-                MObjectInputStream ois = new MObjectInputStream(st);
-                ois.setClassLoader(manager.getActivator());
-                Object o = ois.readObject();
-                return different(obj, o);
-            } else return different(obj, null);
-        } else if (retDbType.equals(DbType.TYPE.BIGDECIMAL.name())) {
-            return different(obj, res.getBigDecimal(name));
-        } else log().d("can't test", name, retDbType);
+            case BLOB:
+                {
+                    InputStream st = res.getBinaryStream(name);
+                    if (st != null) {
+                        @SuppressWarnings("resource")
+                        MObjectInputStream ois = new MObjectInputStream(st);
+                        ois.setClassLoader(manager.getActivator());
+                        Object o = ois.readObject();
+                        return different(obj, o);
+                    } else return different(obj, null);
+                }
+            case BIGDECIMAL:
+                return different(obj, res.getBigDecimal(name));
+            default:
+                log().d("can't test", name, retDbType);
+        }
         return false;
     }
 
@@ -61,6 +61,15 @@ public class FieldRelation extends MObject {
         return attribute.getName();
     }
 
+    /**
+     * Returns the type of the relation object, e.g. RelSingle.
+     *
+     * @return The class of the attribute
+     */
+    public Class<?> getType() {
+        return attribute.getType();
+    }
+
     /**
      * getRelationObject.
      *
@@ -15,7 +15,11 @@
  */
 package de.mhus.lib.adb.model;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
+import java.sql.Statement;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
@@ -24,6 +28,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.adb.DbSchema;
@@ -47,6 +52,7 @@ import de.mhus.lib.errors.NotFoundException;
 import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPrepared;
 import de.mhus.lib.sql.DbResult;
+import de.mhus.lib.sql.DbStatement;
 import de.mhus.lib.sql.Dialect;
 
 /**
@@ -76,7 +82,12 @@ public abstract class Table extends MObject {
     private DbPrepared sqlUpdateForce;
     private DbPrepared sqlDelete;
     private LinkedList<Feature> features = new LinkedList<Feature>();
+    private TableCache cache;
     protected INode attributes;
+    // partially loaded objects by identity and the update statements by written fields
+    private HashMap<PartialKey, Partial> partials = new HashMap<>();
+    private ReferenceQueue<Object> partialsQueue = new ReferenceQueue<>();
+    private ConcurrentHashMap<String, DbPrepared> sqlUpdatePartial = new ConcurrentHashMap<>();
 
     /**
      * init.
@@ -135,6 +146,158 @@ public abstract class Table extends MObject {
 
         createTable(con, cleanup);
         postInit();
+        initCache();
+    }
+
+    /**
+     * Create the entity cache if it's configured for the table. The cache is not used if the table
+     * has features, they could depend on the loading from the database.
+     */
+    protected void initCache() {
+        cache = null;
+        int size = schema.getCacheSize(this);
+        if (size <= 0) return;
+        if (!features.isEmpty()) {
+            log().w("entity cache disabled, table has features", name);
+            return;
+        }
+        cache = new TableCache(size, schema.getCacheTtl(this));
+        log().d("entity cache", name, cache);
+    }
+
+    /**
+     * Returns the entity cache or null if not enabled.
+     *
+     * @return The cache or null
+     */
+    public TableCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the stamp of the cache, take it before loading an object from the database.
+     *
+     * @return The current stamp
+     */
+    public long getCacheStamp() {
+        return cache == null ? 0 : cache.getStamp();
+    }
+
+    /**
+     * Return a copy of the cached object or null.
+     *
+     * @param con The connection
+     * @param keys The primary keys
+     * @return A new object or null if not cached
+     */
+    public Object getCachedObject(DbConnection con, Object[] keys) {
+        if (cache == null) return null;
+        Object obj = cache.get(toCacheKey(keys));
+        if (obj == null) return null;
+        try {
+            Object out = copyObject(obj);
+            for (FieldRelation f : relationList) {
+                f.loaded(con, out);
+            }
+            return out;
+        } catch (Throwable t) {
+            log().d("copy cached object failed", name, t);
+            return null;
+        }
+    }
+
+    /**
+     * Store a copy of the loaded object in the cache. It's not stored if the cache was
+     * invalidated since the stamp was taken.
+     *
+     * @param keys The primary keys
+     * @param obj The loaded object
+     * @param stamp The stamp taken before loading
+     */
+    public void cacheObject(Object[] keys, Object obj, long stamp) {
+        if (cache == null || obj == null) return;
+        try {
+            cache.put(toCacheKey(keys), copyObject(obj), stamp);
+        } catch (Throwable t) {
+            log().d("copy object for cache failed", name, t);
+        }
+    }
+
+    /**
+     * Remove the object from the entity cache.
+     *
+     * @param obj The object
+     */
+    public void invalidateCache(Object obj) {
+        if (cache == null) return;
+        try {
+            cache.remove(getCacheKey(obj));
+        } catch (Throwable t) {
+            log().d("invalidate failed, clear cache", name, t);
+            cache.clear();
+        }
+    }
+
+    /**
+     * Remove the object from the entity cache by primary key.
+     *
+     * @param keys The primary keys
+     */
+    public void invalidateCache(Object[] keys) {
+        if (cache == null) return;
+        cache.remove(toCacheKey(keys));
+    }
+
+    /**
+     * Remove the object from the entity cache by the cache key.
+     *
+     * @param cacheKey The key created by getCacheKey()
+     */
+    public void invalidateCacheKey(String cacheKey) {
+        if (cache == null) return;
+        cache.remove(cacheKey);
+    }
+
+    public void clearCache() {
+        if (cache != null) cache.clear();
+    }
+
+    /**
+     * Return the key of the object in the entity cache.
+     *
+     * @param obj The object
+     * @return The primary keys as string
+     * @throws Exception
+     */
+    public String getCacheKey(Object obj) throws Exception {
+        Object[] keys = new Object[pk.size()];
+        int i = 0;
+        for (Field f : pk) keys[i++] = f.get(obj);
+        return toCacheKey(keys);
+    }
+
+    protected String toCacheKey(Object[] keys) {
+        if (keys.length == 1) return String.valueOf(keys[0]);
+        StringBuilder out = new StringBuilder();
+        for (Object key : keys) {
+            if (out.length() > 0) out.append(',');
+            out.append(key);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Create a copy of the object. The values are copied without features, Date and Calendar
+     * values are cloned.
+     *
+     * @param obj The object
+     * @return The copy
+     * @throws Exception
+     */
+    protected Object copyObject(Object obj) throws Exception {
+        Object out = schema.createObject(obj.getClass(), registryName, null, manager, true);
+        for (Field f : fList) f.copy(obj, out);
+        return out;
     }
 
     /**
@@ -184,6 +347,14 @@ public abstract class Table extends MObject {
         return relationIndex.get(name);
     }
 
+    public List<FieldRelation> getFieldRelations() {
+        return relationList;
+    }
+
+    public boolean hasFeatures() {
+        return !features.isEmpty();
+    }
+
     /**
      * addField.
      *
@@ -191,6 +362,8 @@ public abstract class Table extends MObject {
      */
     protected void addField(Field field) {
         field.table = this;
+        if (field.dynamicField == null)
+            field.accessor = FieldAccessor.create(clazz, field.attribute);
         fIndex.put(field.createName, field);
         fList.add(field);
         if (field.isPrimary && field.isPersistent()) pk.add(field);
@@ -242,7 +415,12 @@ public abstract class Table extends MObject {
 
         schema.internalCreateObject(con, name, object, attributes);
 
-        sqlInsert.getStatement(con).execute(attributes);
+        DbStatement sth = sqlInsert.getStatement(con);
+        try {
+            sth.execute(attributes);
+        } finally {
+            sth.close();
+        }
 
         for (Feature f : features) f.postCreateObject(con, object);
 
@@ -251,6 +429,140 @@ public abstract class Table extends MObject {
         }
     }
 
+    /**
+     * Create the objects using a batch of inserts. The features and relations are called for every
+     * object like in createObject().
+     *
+     * @param con The connection
+     * @param objects The objects of this table
+     * @throws Exception
+     */
+    public void createObjects(DbConnection con, List<?> objects) throws Exception {
+
+        DbStatement sth = sqlInsert.getStatement(con);
+        try {
+            for (Object object : objects) {
+                for (Feature f : features) f.preCreateObject(con, object);
+
+                HashMap<String, Object> attributes = new HashMap<String, Object>();
+                for (Field f : fList) {
+                    attributes.put(f.name, f.getFromTarget(object));
+                }
+
+                schema.internalCreateObject(con, name, object, attributes);
+
+                sth.addBatch(attributes);
+            }
+            sth.executeBatch();
+        } finally {
+            sth.close();
+        }
+
+        for (Object object : objects) {
+            for (Feature f : features) f.postCreateObject(con, object);
+
+            for (FieldRelation f : relationList) {
+                f.created(con, object);
+            }
+        }
+    }
+
+    /**
+     * Save the objects using a batch of updates. The features and relations are called for every
+     * object like in saveObject().
+     *
+     * @param con The connection
+     * @param objects The objects of this table
+     * @throws Exception
+     */
+    public void saveObjects(DbConnection con, List<?> objects) throws Exception {
+
+        if (hasPartials()) {
+            // partially loaded objects are saved one by one
+            LinkedList<Object> full = new LinkedList<>();
+            for (Object object : objects) {
+                Partial partial = getPartial(object);
+                if (partial == null) {
+                    full.add(object);
+                    continue;
+                }
+                invalidateCache(object);
+                savePartialObject(con, object, partial, false, false);
+            }
+            if (full.size() != objects.size()) objects = full;
+            if (objects.isEmpty()) return;
+        }
+
+        DbStatement sth = sqlUpdate.getStatement(con);
+        try {
+            for (Object object : objects) {
+                invalidateCache(object);
+                for (Feature f : features) f.preSaveObject(con, object);
+
+                HashMap<String, Object> attributes = new HashMap<String, Object>();
+                for (Field f : fList) {
+                    attributes.put(f.name, f.getFromTarget(object));
+                }
+
+                for (FieldRelation f : relationList) {
+                    f.prepareSave(con, object);
+                }
+
+                schema.internalSaveObject(con, name, object, attributes);
+
+                sth.addBatch(attributes);
+            }
+            checkBatchResult(sth.executeBatch());
+        } finally {
+            sth.close();
+        }
+
+        for (Object object : objects) {
+            for (Feature f : features) f.postSaveObject(con, object);
+
+            for (FieldRelation f : relationList) {
+                f.saved(con, object);
+            }
+        }
+    }
+
+    /**
+     * Delete the objects using a batch of deletes.
+     *
+     * @param con The connection
+     * @param objects The objects of this table
+     * @throws Exception
+     */
+    public void deleteObjects(DbConnection con, List<?> objects) throws Exception {
+
+        DbStatement sth = sqlDelete.getStatement(con);
+        try {
+            for (Object object : objects) {
+                invalidateCache(object);
+                for (Feature f : features) f.deleteObject(con, object);
+
+                HashMap<String, Object> attributes = new HashMap<String, Object>();
+                for (Field f : pk) {
+                    attributes.put(f.name, f.getFromTarget(object));
+                }
+
+                schema.internalDeleteObject(con, name, object, attributes);
+
+                sth.addBatch(attributes);
+            }
+            sth.executeBatch();
+        } finally {
+            sth.close();
+        }
+    }
+
+    private void checkBatchResult(int[] result) throws MException {
+        for (int i = 0; i < result.length; i++)
+            if (result[i] != 1 && result[i] != Statement.SUCCESS_NO_INFO)
+                throw new MException(
+                        RC.ERROR, "update failed, updated objects {1} at {2}", result[i], i);
+    }
+
     /**
      * saveObject.
      *
@@ -260,6 +572,14 @@ public abstract class Table extends MObject {
      */
     public void saveObject(DbConnection con, Object object) throws Exception {
 
+        invalidateCache(object);
+
+        Partial partial = getPartial(object);
+        if (partial != null) {
+            savePartialObject(con, object, partial, false, false);
+            return;
+        }
+
         for (Feature f : features) f.preSaveObject(con, object);
 
         HashMap<String, Object> attributes = new HashMap<String, Object>();
@@ -293,8 +613,16 @@ public abstract class Table extends MObject {
      */
     public void saveObjectForce(DbConnection con, Object object, boolean raw) throws Exception {
 
+        invalidateCache(object);
+
         manager.getSchema().authorizeSaveForceAllowed(con, this, object, raw);
 
+        Partial partial = getPartial(object);
+        if (partial != null) {
+            savePartialObject(con, object, partial, raw, true);
+            return;
+        }
+
         if (!raw) for (Feature f : features) f.preSaveObject(con, object);
 
         HashMap<String, Object> attributes = new HashMap<String, Object>();
@@ -318,6 +646,192 @@ public abstract class Table extends MObject {
         }
     }
 
+    /**
+     * Save a partially loaded object. Only the loaded fields and the not loaded fields marked as
+     * modified are written, the other columns keep their values in the database.
+     *
+     * @param con The connection
+     * @param object The object
+     * @param partial The state of the object
+     * @param raw Do not call the features
+     * @param force Write read only fields also
+     * @throws Exception
+     */
+    protected void savePartialObject(
+            DbConnection con, Object object, Partial partial, boolean raw, boolean force)
+            throws Exception {
+
+        if (!raw) for (Feature f : features) f.preSaveObject(con, object);
+
+        BitSet write = (BitSet) partial.loaded.clone();
+        write.or(partial.modified);
+        HashMap<String, Object> attributes = new HashMap<String, Object>();
+        int i = 0;
+        for (Field f : fList) {
+            if (write.get(i) || f.isPrimary) attributes.put(f.name, f.getFromTarget(object));
+            i++;
+        }
+
+        for (FieldRelation f : relationList) {
+            f.prepareSave(con, object);
+        }
+
+        schema.internalSaveObject(con, name, object, attributes);
+
+        DbPrepared sql = getPartialUpdate(write, force);
+        if (sql != null) {
+            int c = sql.getStatement(con).executeUpdate(attributes);
+            if (c != 1) throw new MException(RC.ERROR, "update failed, updated objects {1}", c);
+        }
+        partial.loaded.or(write);
+        partial.modified.clear();
+
+        if (!raw) for (Feature f : features) f.postSaveObject(con, object);
+
+        for (FieldRelation f : relationList) {
+            f.saved(con, object);
+        }
+    }
+
+    private DbPrepared getPartialUpdate(BitSet write, boolean force) throws MException {
+        String key = (force ? "f" : "u") + write;
+        DbPrepared sql = sqlUpdatePartial.get(key);
+        if (sql != null) return sql;
+        StringBuilder out = new StringBuilder().append("UPDATE ").append(tableName).append(" SET ");
+        int nr = 0;
+        int i = 0;
+        for (Field f : fList) {
+            if (write.get(i)
+                    && !f.isPrimary
+                    && f.isPersistent()
+                    && (force || !f.isReadOnly())) {
+                if (nr > 0) out.append(",");
+                out.append(f.name).append("=$").append(f.name).append("$");
+                nr++;
+            }
+            i++;
+        }
+        if (nr == 0) return null;
+        out.append(" WHERE ");
+        nr = 0;
+        for (Field f : pk) {
+            out.append(nr > 0 ? " AND " : "")
+                    .append(f.name)
+                    .append("=$")
+                    .append(f.name)
+                    .append("$");
+            nr++;
+        }
+        sql = manager.getPool().createStatement(out.toString());
+        sqlUpdatePartial.put(key, sql);
+        return sql;
+    }
+
+    /**
+     * Return the state of a partially loaded object or null if the object is fully loaded.
+     *
+     * @param obj The object
+     * @return The state or null
+     */
+    protected Partial getPartial(Object obj) {
+        synchronized (partials) {
+            if (partials.isEmpty()) return null;
+            purgePartials();
+            return partials.get(new PartialKey(obj, null));
+        }
+    }
+
+    private boolean hasPartials() {
+        synchronized (partials) {
+            return !partials.isEmpty();
+        }
+    }
+
+    private void putPartial(Object obj, Partial partial) {
+        synchronized (partials) {
+            purgePartials();
+            partials.put(new PartialKey(obj, partialsQueue), partial);
+        }
+    }
+
+    private void removePartial(Object obj) {
+        synchronized (partials) {
+            if (!partials.isEmpty()) partials.remove(new PartialKey(obj, null));
+        }
+    }
+
+    // remove the state of collected objects, must be called with the lock of partials
+    private void purgePartials() {
+        Object key;
+        while ((key = partialsQueue.poll()) != null) partials.remove(key);
+    }
+
+    /**
+     * Return true if the object was loaded by a projection and not all fields are loaded.
+     *
+     * @param obj The object
+     * @return true if partially loaded
+     */
+    public boolean isPartial(Object obj) {
+        return getPartial(obj) != null;
+    }
+
+    /**
+     * Return true if the attribute of the object is loaded. Attributes of fully loaded objects are
+     * always loaded.
+     *
+     * @param obj The object
+     * @param attribute Name of the attribute
+     * @return true if loaded
+     */
+    public boolean isLoaded(Object obj, String attribute) {
+        Partial partial = getPartial(obj);
+        if (partial == null) return true;
+        int i = getFieldIndex(attribute);
+        return i >= 0 && partial.loaded.get(i);
+    }
+
+    /**
+     * Mark the attribute of a partially loaded object as modified. A not loaded attribute is only
+     * written by the next save if it is marked, set the attribute with setValue() or call this
+     * after using the setter of the object. Nothing happens for fully loaded objects.
+     *
+     * @param obj The object
+     * @param attribute Name of the attribute
+     * @throws MException If the attribute is not part of the table
+     */
+    public void markModified(Object obj, String attribute) throws MException {
+        int i = getFieldIndex(attribute);
+        if (i < 0) throw new MException(RC.NOT_FOUND, "attribute not found", name, attribute);
+        Partial partial = getPartial(obj);
+        if (partial != null) partial.modified.set(i);
+    }
+
+    /**
+     * Set the attribute of the object and mark it as modified if the object is partially loaded.
+     *
+     * @param obj The object
+     * @param attribute Name of the attribute
+     * @param value The new value
+     * @throws Exception
+     */
+    public void setValue(Object obj, String attribute, Object value) throws Exception {
+        int i = getFieldIndex(attribute);
+        if (i < 0) throw new MException(RC.NOT_FOUND, "attribute not found", name, attribute);
+        fList.get(i).set(obj, value);
+        Partial partial = getPartial(obj);
+        if (partial != null) partial.modified.set(i);
+    }
+
+    private int getFieldIndex(String attribute) {
+        int i = 0;
+        for (Field f : fList) {
+            if (f.getName().equalsIgnoreCase(attribute)) return i;
+            i++;
+        }
+        return -1;
+    }
+
     /**
      * updateAttributes.
      *
@@ -333,6 +847,8 @@ public abstract class Table extends MObject {
 
         manager.getSchema().authorizeUpdateAttributes(con, this, object, raw, attributeNames);
 
+        invalidateCache(object);
+
         HashMap<String, Object> attributes = new HashMap<String, Object>();
 
         // prepare object
@@ -520,8 +1036,10 @@ public abstract class Table extends MObject {
         Object obj = schema.createObject(clazz, registryName, ret, manager, true);
 
         // fill object
+        int[] columns = getColumnIndexes(ret);
+        int i = 0;
         for (Field f : fList) {
-            f.setToTarget(ret, obj);
+            f.setToTarget(ret, columns[i++], obj);
         }
 
         for (Feature f : features) f.postGetObject(con, obj);
@@ -570,6 +1088,33 @@ public abstract class Table extends MObject {
         }
     }
 
+    /**
+     * Returns the column index for every field in the order of the field list. The indexes are
+     * resolved once per result and attached to it, the following rows are read by index. A field
+     * without column gets 0 and is read by name.
+     *
+     * @param res The result
+     * @return The column indexes
+     */
+    protected int[] getColumnIndexes(DbResult res) {
+        int[] columns = (int[]) res.getMapping(this);
+        if (columns != null) return columns;
+        columns = new int[fList.size()];
+        int i = 0;
+        for (Field f : fList) {
+            if (f.isPersistent()) {
+                try {
+                    columns[i] = res.findColumn(f.name);
+                } catch (Throwable t) {
+                    log().t("column not found", name, f.name, t);
+                }
+            }
+            i++;
+        }
+        res.setMapping(this, columns);
+        return columns;
+    }
+
     /**
      * fillObject.
      *
@@ -579,16 +1124,75 @@ public abstract class Table extends MObject {
      * @throws java.lang.Throwable if any.
      */
     public void fillObject(Object obj, DbConnection con, DbResult res) throws Throwable {
+        fillObject(obj, con, res, getColumnIndexes(res));
+    }
+
+    /**
+     * Fill the object from the given columns of the result. The indexes are in the order of the
+     * fields, 0 for fields not in the result.
+     *
+     * @param obj The object
+     * @param con The connection
+     * @param res The result
+     * @param columns The column indexes
+     * @throws Throwable
+     */
+    public void fillObject(Object obj, DbConnection con, DbResult res, int[] columns)
+            throws Throwable {
+
+        removePartial(obj);
 
         for (Feature f : features) f.preFillObject(obj, con, res);
 
+        int i = 0;
         for (Field f : fList) {
             try {
-                f.setToTarget(res, obj);
+                f.setToTarget(res, columns[i], obj);
             } catch (Throwable t) {
                 manager.getSchema().onFillObjectException(Table.this, obj, res, f, t);
             }
+            i++;
+        }
+
+        for (Feature f : features) f.postFillObject(obj, con);
+
+        for (FieldRelation f : relationList) {
+            f.loaded(con, obj);
+        }
+    }
+
+    /**
+     * Fill the object from a result with a part of the columns. Fields without column are not
+     * touched and marked as not loaded, a later save of the object will not overwrite them.
+     *
+     * @param obj The object
+     * @param con The connection
+     * @param res The result
+     * @throws Throwable
+     */
+    public void fillPartialObject(Object obj, DbConnection con, DbResult res) throws Throwable {
+
+        for (Feature f : features) f.preFillObject(obj, con, res);
+
+        int[] columns = getColumnIndexes(res);
+        BitSet loaded = new BitSet(fList.size());
+        boolean complete = true;
+        int i = 0;
+        for (Field f : fList) {
+            if (columns[i] > 0) {
+                try {
+                    f.setToTarget(res, columns[i], obj);
+                } catch (Throwable t) {
+                    manager.getSchema().onFillObjectException(Table.this, obj, res, f, t);
+                }
+                loaded.set(i);
+            } else if (f.isPersistent()) {
+                complete = false;
+            }
+            i++;
         }
+        if (complete) removePartial(obj);
+        else putPartial(obj, new Partial(loaded));
 
         for (Feature f : features) f.postFillObject(obj, con);
 
@@ -620,15 +1224,20 @@ public abstract class Table extends MObject {
             return null;
         }
 
+        removePartial(obj);
+
         for (Feature f : features) f.preFillObject(obj, con, ret);
 
         // fill object
+        int[] columns = getColumnIndexes(ret);
+        int i = 0;
         for (Field f : fList) {
             try {
-                f.setToTarget(ret, obj);
+                f.setToTarget(ret, columns[i], obj);
             } catch (Throwable t) {
                 manager.getSchema().onFillObjectException(Table.this, obj, ret, f, t);
             }
+            i++;
         }
         ret.close();
 
@@ -758,6 +1367,8 @@ public abstract class Table extends MObject {
      */
     public void deleteObject(DbConnection con, Object object) throws Exception {
 
+        invalidateCache(object);
+
         for (Feature f : features) f.deleteObject(con, object);
 
         HashMap<String, Object> attributes = new HashMap<String, Object>();
@@ -767,7 +1378,12 @@ public abstract class Table extends MObject {
 
         schema.internalDeleteObject(con, name, object, attributes);
 
-        sqlDelete.getStatement(con).execute(attributes);
+        DbStatement sth = sqlDelete.getStatement(con);
+        try {
+            sth.execute(attributes);
+        } finally {
+            sth.close();
+        }
     }
 
     /**
@@ -938,4 +1554,39 @@ public abstract class Table extends MObject {
             return name;
         }
     }
+
+    /** State of a partially loaded object. */
+    protected static class Partial {
+        // loaded fields by index of the field list
+        private final BitSet loaded;
+        // not loaded fields marked as modified since loading or the last save
+        private final BitSet modified = new BitSet();
+
+        private Partial(BitSet loaded) {
+            this.loaded = loaded;
+        }
+    }
+
+    // weak key comparing the object by identity, equals() of the entity is not used
+    private static class PartialKey extends WeakReference<Object> {
+        private final int hash;
+
+        private PartialKey(Object object, ReferenceQueue<Object> queue) {
+            super(object, queue);
+            hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof PartialKey)) return false;
+            Object object = get();
+            return object != null && object == ((PartialKey) o).get();
+        }
+    }
 }
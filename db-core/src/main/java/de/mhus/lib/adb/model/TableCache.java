@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.mhus.lib.core.MSystem;
+
+/**
+ * Entity cache of a table. The cache holds a private copy of the loaded objects by primary key, it
+ * is bounded by size (least recently used entries are removed) and time to live.
+ *
+ * <p>Every invalidation increments the stamp of the cache. A loader takes the stamp before it reads
+ * from the database and the result is only stored if no invalidation happened in the meantime. So
+ * a value read before a concurrent update was committed will not be cached.
+ *
+ * @author mikehummel
+ */
+public class TableCache {
+
+    private final int maxSize;
+    private final long ttl;
+    private long stamp;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize Maximum number of entries
+     * @param ttl Time to live in milliseconds, 0 or less for unlimited
+     */
+    public TableCache(int maxSize, long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        entries =
+                new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                        if (size() <= TableCache.this.maxSize) return false;
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                };
+    }
+
+    /**
+     * Return the cached object or null.
+     *
+     * @param key The primary key
+     * @return The cached object, don't give it out, it's the private copy
+     */
+    public synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (ttl > 0 && System.currentTimeMillis() - entry.created > ttl) {
+            entries.remove(key);
+            evictions.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Store the object if the cache was not invalidated since the stamp was taken.
+     *
+     * @param key The primary key
+     * @param value The private copy of the object
+     * @param stamp The stamp taken before loading
+     * @return true if the object was stored
+     */
+    public synchronized boolean put(String key, Object value, long stamp) {
+        if (stamp != this.stamp) return false;
+        entries.put(key, new Entry(value));
+        return true;
+    }
+
+    public synchronized long getStamp() {
+        return stamp;
+    }
+
+    public synchronized void remove(String key) {
+        stamp++;
+        invalidations.incrementAndGet();
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        stamp++;
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Return the hit ratio between 0 and 1.
+     *
+     * @return The ratio or 0 if the cache was not used
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long all = h + misses.get();
+        return all == 0 ? 0 : (double) h / all;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return MSystem.toString(
+                this, getSize(), maxSize, ttl, hits.get(), misses.get(), getHitRatio());
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long created = System.currentTimeMillis();
+
+        private Entry(Object value) {
+            this.value = value;
+        }
+    }
+}
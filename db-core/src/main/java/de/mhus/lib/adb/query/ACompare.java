@@ -49,6 +49,15 @@ public class ACompare extends APart {
         right.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append(eq).append('(');
+        left.appendFingerprint(fp);
+        fp.append(',');
+        right.appendFingerprint(fp);
+        fp.append(')');
+    }
+
     public TYPE getEq() {
         return eq;
     }
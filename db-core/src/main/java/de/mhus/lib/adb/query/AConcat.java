@@ -42,6 +42,16 @@ public class AConcat extends AAttribute {
         for (AAttribute part : parts) part.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("concat(");
+        for (AAttribute part : parts) {
+            part.appendFingerprint(fp);
+            fp.append(',');
+        }
+        fp.append(')');
+    }
+
     public AAttribute[] getParts() {
         return parts;
     }
@@ -44,6 +44,15 @@ public class ADbAttribute extends AAttribute {
     @Override
     public void getAttributes(AQuery<?> query, AttributeMap map) {}
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("attr(")
+                .append(clazz == null ? null : clazz.getName())
+                .append('.')
+                .append(attribute)
+                .append(')');
+    }
+
     public String getAttribute() {
         return attribute;
     }
@@ -67,6 +67,18 @@ public class ADynValue extends AAttribute {
         map.put(name, value);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        // the value itself is not part of the structure
+        fp.append("dyn(")
+                .append(name)
+                .append(',')
+                .append(type == null ? null : type.getName())
+                .append('.')
+                .append(field)
+                .append(')');
+    }
+
     /**
      * Getter for the field <code>value</code>.
      *
@@ -28,6 +28,11 @@ public class AEnumFix extends AAttribute {
     @Override
     public void getAttributes(AQuery<?> query, AttributeMap map) {}
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("enum(").append(value.ordinal()).append(')');
+    }
+
     public Enum<?> getValue() {
         return value;
     }
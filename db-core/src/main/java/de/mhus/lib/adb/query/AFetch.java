@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.query;
+
+import de.mhus.lib.core.parser.AttributeMap;
+
+/**
+ * Load the relation together with the objects by a join. It's not part of the qualification, the
+ * manager creates the join around the query.
+ */
+public class AFetch extends AOperation {
+
+    private String relation;
+
+    public AFetch(String relation) {
+        this.relation = relation;
+    }
+
+    @Override
+    public void getAttributes(AQuery<?> query, AttributeMap map) {}
+
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("fetch(").append(relation).append(')');
+    }
+
+    public String getRelation() {
+        return relation;
+    }
+}
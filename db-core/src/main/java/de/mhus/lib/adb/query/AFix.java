@@ -28,6 +28,11 @@ public class AFix extends AAttribute {
     @Override
     public void getAttributes(AQuery<?> query, AttributeMap map) {}
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("fix(").append(value).append(')');
+    }
+
     public String getValue() {
         return value;
     }
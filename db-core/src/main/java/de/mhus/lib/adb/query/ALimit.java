@@ -17,10 +17,16 @@ package de.mhus.lib.adb.query;
 
 import de.mhus.lib.core.parser.AttributeMap;
 
+/**
+ * Paging of the result. The offset and limit are query attributes, so queries with different pages
+ * share the same sql template. A negative limit means no limit.
+ */
 public class ALimit extends AOperation {
 
     private int limit;
     private int offset;
+    private String offsetName;
+    private String limitName;
 
     public ALimit(int limit) {
         this(0, limit);
@@ -32,7 +38,20 @@ public class ALimit extends AOperation {
     }
 
     @Override
-    public void getAttributes(AQuery<?> query, AttributeMap map) {}
+    public void getAttributes(AQuery<?> query, AttributeMap map) {
+        if (offsetName == null) offsetName = "v" + query.nextUnique();
+        map.put(offsetName, Math.max(0, offset));
+        if (limit >= 0) {
+            if (limitName == null) limitName = "v" + query.nextUnique();
+            map.put(limitName, limit);
+        }
+    }
+
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        // the values are not part of the structure
+        fp.append("limit(").append(offsetName).append(',').append(limitName).append(')');
+    }
 
     public int getLimit() {
         return limit;
@@ -41,4 +60,26 @@ public class ALimit extends AOperation {
     public int getOffset() {
         return offset;
     }
+
+    public boolean hasLimit() {
+        return limit >= 0;
+    }
+
+    /**
+     * Name of the offset attribute, assigned while collecting the attributes.
+     *
+     * @return The name
+     */
+    public String getOffsetName() {
+        return offsetName;
+    }
+
+    /**
+     * Name of the limit attribute, assigned while collecting the attributes.
+     *
+     * @return The name or null if there is no limit
+     */
+    public String getLimitName() {
+        return limitName;
+    }
 }
@@ -30,6 +30,16 @@ public class AList extends AAttribute {
         for (AAttribute part : operations) part.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("list(");
+        for (AAttribute part : operations) {
+            part.appendFingerprint(fp);
+            fp.append(',');
+        }
+        fp.append(')');
+    }
+
     public AAttribute[] getOperations() {
         return operations;
     }
@@ -29,6 +29,11 @@ public class ALiteral extends APart {
     @Override
     public void getAttributes(AQuery<?> query, AttributeMap map) {}
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("lit(").append(literal).append(')');
+    }
+
     public String getLiteral() {
         return literal;
     }
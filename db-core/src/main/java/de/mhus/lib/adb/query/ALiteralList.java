@@ -43,6 +43,16 @@ public class ALiteralList extends APart {
         for (APart part : operations) part.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("lits(");
+        for (APart part : operations) {
+            part.appendFingerprint(fp);
+            fp.append(',');
+        }
+        fp.append(')');
+    }
+
     public APart[] getOperations() {
         return operations;
     }
@@ -31,6 +31,13 @@ public class ANot extends APart {
         operation.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("not(");
+        operation.appendFingerprint(fp);
+        fp.append(')');
+    }
+
     public APart getOperation() {
         return operation;
     }
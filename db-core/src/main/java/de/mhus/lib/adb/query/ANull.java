@@ -46,6 +46,13 @@ public class ANull extends APart {
         attr.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append(is ? "null(" : "notnull(");
+        attr.appendFingerprint(fp);
+        fp.append(')');
+    }
+
     public AAttribute getAttr() {
         return attr;
     }
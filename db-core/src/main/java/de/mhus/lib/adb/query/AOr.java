@@ -31,6 +31,16 @@ public class AOr extends APart {
         for (APart part : operations) part.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("or(");
+        for (APart part : operations) {
+            part.appendFingerprint(fp);
+            fp.append(',');
+        }
+        fp.append(')');
+    }
+
     public APart[] getOperations() {
         return operations;
     }
@@ -32,6 +32,15 @@ public class AOrder extends AOperation {
     @Override
     public void getAttributes(AQuery<?> query, AttributeMap map) {}
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("order(")
+                .append(clazz == null ? null : clazz.getName())
+                .append('.')
+                .append(attribute)
+                .append(asc ? " asc)" : " desc)");
+    }
+
     public String getAttribute() {
         return attribute;
     }
@@ -19,5 +19,20 @@ import de.mhus.lib.core.parser.AttributeMap;
 
 public abstract class APrint {
 
+    /** Marks a fingerprint of an element without structural fingerprint, it's not cached. */
+    public static final char NOT_CACHEABLE = '\u0000';
+
     public abstract void getAttributes(AQuery<?> query, AttributeMap map);
+
+    /**
+     * Append the structure of the element to the fingerprint. Values of dynamic attributes are not
+     * part of the fingerprint, everything that will be rendered into the sql query is. The default
+     * implementation appends the NOT_CACHEABLE marker, a query with unknown elements is never
+     * cached.
+     *
+     * @param fp The fingerprint buffer
+     */
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append(NOT_CACHEABLE);
+    }
 }
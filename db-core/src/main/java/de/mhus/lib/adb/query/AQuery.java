@@ -32,11 +32,15 @@ import de.mhus.lib.core.pojo.MPojo;
  */
 public class AQuery<T> extends APrint {
 
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
     private LinkedList<AOperation> operations;
     private Class<? extends T> type;
     private ACreateContext context;
     private int unique = 0;
     private AttributeMap map;
+    private String fingerprint;
+    private int fetchSize;
 
     /**
      * Constructor for AQuery.
@@ -62,6 +66,12 @@ public class AQuery<T> extends APrint {
         for (AOperation o : operations) this.operations.add(o);
     }
 
+    // used by copy()
+    private AQuery(AQuery<T> query) {
+        this.type = query.type;
+        this.operations = new LinkedList<>();
+    }
+
     /**
      * Getter for the field <code>type</code>.
      *
@@ -90,6 +100,16 @@ public class AQuery<T> extends APrint {
         for (AOperation operation : operations) operation.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("query(").append(type == null ? null : type.getName()).append(':');
+        for (AOperation operation : operations) {
+            operation.appendFingerprint(fp);
+            fp.append(',');
+        }
+        fp.append(')');
+    }
+
     /**
      * eq.
      *
@@ -608,6 +628,177 @@ public class AQuery<T> extends APrint {
         return this;
     }
 
+    /**
+     * limit.
+     *
+     * @param offset Rows to skip
+     * @param limit Maximum number of rows, negative for no limit
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> limit(int offset, int limit) {
+        operations.add(Db.limit(offset, limit));
+        return this;
+    }
+
+    /**
+     * Return the paging of the query.
+     *
+     * @return The limit or null
+     */
+    public ALimit getLimit() {
+        ALimit out = null;
+        for (AOperation operation : operations)
+            if (operation instanceof ALimit) out = (ALimit) operation;
+        return out;
+    }
+
+    /**
+     * Load only the given attributes. The objects are partially loaded, the primary key is always
+     * loaded and not loaded attributes are not overwritten if the object is saved. Use
+     * DbManager.getValuesByQualification() to read the values without creating objects.
+     *
+     * @param attributes Names of the attributes
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> select(String... attributes) {
+        operations.add(new ASelect(attributes));
+        return this;
+    }
+
+    /**
+     * Load only the given attributes.
+     *
+     * @param getters Getters of the attributes
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> select(Identifier... getters) {
+        String[] attributes = new String[getters.length];
+        for (int i = 0; i < getters.length; i++)
+            attributes[i] = MPojo.toAttributeName(getters[i]);
+        return select(attributes);
+    }
+
+    /**
+     * Return the projection of the query.
+     *
+     * @return List of attribute names, empty if all attributes are loaded
+     */
+    public List<String> getSelect() {
+        LinkedList<String> out = new LinkedList<>();
+        for (AOperation operation : operations)
+            if (operation instanceof ASelect) out.addAll(((ASelect) operation).getNames());
+        return out;
+    }
+
+    /**
+     * Keyset pagination, select the rows after the given values of the orders. Define the orders
+     * with asc() and desc() before, the values are in the same sequence. The orders must be unique
+     * in combination, e.g. add the primary key as last order.
+     *
+     * @param values The values of the order attributes of the last row
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> after(Object... values) {
+        operations.add(new ASeek(getOrders(), values));
+        return this;
+    }
+
+    /**
+     * Keyset pagination with a continuation token returned by
+     * DbCollection.getContinuationToken(). A null token selects the first page.
+     *
+     * @param token The continuation token or null
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> seek(String token) {
+        if (token == null) return this;
+        return after(ASeek.fromToken(token));
+    }
+
+    /**
+     * Return the orders of the query.
+     *
+     * @return List of orders, empty if not ordered
+     */
+    public List<AOrder> getOrders() {
+        LinkedList<AOrder> out = new LinkedList<>();
+        for (AOperation operation : operations)
+            if (operation instanceof AOrder) out.add((AOrder) operation);
+        return out;
+    }
+
+    /**
+     * Load the RelSingle or RelMultible relation together with the objects in one query. The
+     * relation is joined to the result and the related objects are filled from the same rows.
+     * Only one RelMultible relation can be fetched per query.
+     *
+     * @param relation Name of the relation attribute
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> fetch(String relation) {
+        operations.add(new AFetch(relation));
+        return this;
+    }
+
+    /**
+     * Load the relation together with the objects in one query.
+     *
+     * @param getter Getter of the relation attribute
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> fetch(Identifier getter) {
+        return fetch(MPojo.toAttributeName(getter));
+    }
+
+    /**
+     * Same as fetch().
+     *
+     * @param relation Name of the relation attribute
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> join(String relation) {
+        return fetch(relation);
+    }
+
+    /**
+     * Return the names of the relations to fetch.
+     *
+     * @return List of relation names, empty if nothing to fetch
+     */
+    public List<String> getFetches() {
+        LinkedList<String> out = new LinkedList<>();
+        for (AOperation operation : operations)
+            if (operation instanceof AFetch) out.add(((AFetch) operation).getRelation());
+        return out;
+    }
+
+    /**
+     * Stream the result with the given fetch size. The rows are read with a forward-only cursor
+     * and are not buffered by the driver, use it for large results. Close the collection after
+     * use. Depending on the database no other query can be executed on the same connection while
+     * the collection is open.
+     *
+     * @param fetchSize Rows per round trip, 0 disables streaming
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Stream the result with the default fetch size.
+     *
+     * @return a {@link de.mhus.lib.adb.query.AQuery} object.
+     */
+    public AQuery<T> stream() {
+        return fetchSize(DEFAULT_FETCH_SIZE);
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
     /**
      * isNull.
      *
@@ -696,6 +887,40 @@ public class AQuery<T> extends APrint {
         return ++unique;
     }
 
+    /**
+     * Return a copy of the query. The operations are shared, the copy continues the unique names
+     * and collects its own attributes, so operations can be added without changing this query.
+     *
+     * @return The copy
+     */
+    public synchronized AQuery<T> copy() {
+        AQuery<T> out = new AQuery<>(this);
+        out.operations.addAll(operations);
+        out.unique = unique;
+        out.fetchSize = fetchSize;
+        return out;
+    }
+
+    /**
+     * Returns the structural fingerprint of the query. Queries with the same fingerprint will be
+     * rendered to the same sql template, only the attribute values differ. Call doFinal() before,
+     * names of dynamic values are assigned while collecting the attributes.
+     *
+     * <p>The fingerprint is the exact description of the tree and not a hash of it, it's the key of
+     * the rendered sql and a collision would return the sql of another query. The tree is walked
+     * once, a final query keeps the fingerprint like the attributes.
+     *
+     * @return The fingerprint or null if an element has no structural fingerprint
+     */
+    public String getFingerprint() {
+        if (fingerprint != null) return fingerprint.isEmpty() ? null : fingerprint;
+        StringBuilder fp = new StringBuilder();
+        appendFingerprint(fp);
+        String out = fp.indexOf(String.valueOf(NOT_CACHEABLE)) < 0 ? fp.toString() : "";
+        if (isFinal()) fingerprint = out;
+        return out.isEmpty() ? null : out;
+    }
+
     public void doFinal() {
         getAttributes();
     }
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.parser.AttributeMap;
+import de.mhus.lib.errors.MRuntimeException;
+import de.mhus.lib.errors.NotSupportedException;
+
+/**
+ * Keyset pagination. Select the rows after the given values of the order attributes, the dialect
+ * renders a row value comparison like (a,b) &gt; (v1,v2). The orders must define a unique sort
+ * order, add the primary key as last order if needed, and the columns should not be nullable.
+ * Together with an index over the order columns the database can seek to the position instead of
+ * reading and skipping all rows before.
+ *
+ * <p>The values of the last row can be transferred as continuation token, see toToken() and
+ * fromToken().
+ */
+public class ASeek extends APart {
+
+    private List<AOrder> orders;
+    private List<ADynValue> values;
+
+    public ASeek(List<AOrder> orders, Object... values) {
+        if (orders.isEmpty()) throw new MRuntimeException(RC.ERROR, "seek needs an order");
+        if (orders.size() != values.length)
+            throw new MRuntimeException(
+                    RC.ERROR, "seek values do not match the orders", orders.size(), values.length);
+        this.orders = new ArrayList<>(orders);
+        this.values = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            AOrder order = orders.get(i);
+            if (values[i] == null)
+                throw new MRuntimeException(RC.ERROR, "seek value is null", order.getAttribute());
+            this.values.add(
+                    new ADynValue(order.getClazz(), order.getAttribute(), null, values[i]));
+        }
+    }
+
+    @Override
+    public void getAttributes(AQuery<?> query, AttributeMap map) {
+        for (ADynValue value : values) value.getAttributes(query, map);
+    }
+
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("seek(");
+        for (int i = 0; i < orders.size(); i++) {
+            orders.get(i).appendFingerprint(fp);
+            values.get(i).appendFingerprint(fp);
+        }
+        fp.append(')');
+    }
+
+    @Override
+    public void append(APart pa) throws NotSupportedException {
+        throw new NotSupportedException();
+    }
+
+    public List<AOrder> getOrders() {
+        return orders;
+    }
+
+    public List<ADynValue> getValues() {
+        return values;
+    }
+
+    /**
+     * Return true if all orders have the same direction. In this case a single row value
+     * comparison can be used.
+     *
+     * @return true if the direction is the same for all orders
+     */
+    public boolean isUniform() {
+        boolean asc = orders.get(0).isAsc();
+        for (AOrder order : orders) if (order.isAsc() != asc) return false;
+        return true;
+    }
+
+    /**
+     * Encode the values to an url safe token. Supported are strings, numbers, booleans, dates,
+     * uuids and enums (by ordinal).
+     *
+     * @param values The values of the order attributes
+     * @return The token
+     */
+    public static String toToken(Object... values) {
+        StringBuilder out = new StringBuilder();
+        for (Object value : values) {
+            char type;
+            String text;
+            if (value == null) {
+                type = 'n';
+                text = "";
+            } else if (value instanceof Integer
+                    || value instanceof Short
+                    || value instanceof Byte) {
+                type = 'i';
+                text = value.toString();
+            } else if (value instanceof Long) {
+                type = 'l';
+                text = value.toString();
+            } else if (value instanceof Double) {
+                type = 'd';
+                text = value.toString();
+            } else if (value instanceof Float) {
+                type = 'f';
+                text = value.toString();
+            } else if (value instanceof Boolean) {
+                type = 'b';
+                text = value.toString();
+            } else if (value instanceof Date) {
+                type = 't';
+                text = String.valueOf(((Date) value).getTime());
+            } else if (value instanceof UUID) {
+                type = 'u';
+                text = value.toString();
+            } else if (value instanceof Enum) {
+                type = 'i';
+                text = String.valueOf(((Enum<?>) value).ordinal());
+            } else {
+                type = 's';
+                text = value.toString();
+            }
+            out.append(type).append(text.length()).append(':').append(text);
+        }
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode the values of a token created by toToken().
+     *
+     * @param token The token
+     * @return The values
+     */
+    public static Object[] fromToken(String token) {
+        try {
+            String in =
+                    new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            ArrayList<Object> out = new ArrayList<>();
+            int pos = 0;
+            while (pos < in.length()) {
+                char type = in.charAt(pos);
+                int sep = in.indexOf(':', pos);
+                int len = Integer.parseInt(in.substring(pos + 1, sep));
+                String text = in.substring(sep + 1, sep + 1 + len);
+                pos = sep + 1 + len;
+                switch (type) {
+                    case 'n':
+                        out.add(null);
+                        break;
+                    case 'i':
+                        out.add(Integer.valueOf(text));
+                        break;
+                    case 'l':
+                        out.add(Long.valueOf(text));
+                        break;
+                    case 'd':
+                        out.add(Double.valueOf(text));
+                        break;
+                    case 'f':
+                        out.add(Float.valueOf(text));
+                        break;
+                    case 'b':
+                        out.add(Boolean.valueOf(text));
+                        break;
+                    case 't':
+                        out.add(new Date(Long.parseLong(text)));
+                        break;
+                    case 'u':
+                        out.add(UUID.fromString(text));
+                        break;
+                    case 's':
+                        out.add(text);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown type " + type);
+                }
+            }
+            return out.toArray();
+        } catch (RuntimeException e) {
+            throw new MRuntimeException(RC.ERROR, "invalid continuation token", token, e);
+        }
+    }
+}
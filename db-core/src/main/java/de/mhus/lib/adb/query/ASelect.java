@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.query;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import de.mhus.lib.core.parser.AttributeMap;
+
+/**
+ * Projection of the query, only the given attributes are loaded. It's not part of the
+ * qualification, the manager creates the column list.
+ */
+public class ASelect extends AOperation {
+
+    private List<String> attributes = new LinkedList<>();
+
+    public ASelect(String... attributes) {
+        for (String attribute : attributes) this.attributes.add(attribute.toLowerCase());
+    }
+
+    @Override
+    public void getAttributes(AQuery<?> query, AttributeMap map) {}
+
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("select(").append(String.join(",", attributes)).append(')');
+    }
+
+    public List<String> getNames() {
+        return attributes;
+    }
+}
@@ -37,6 +37,17 @@ public class ASubQuery extends APart {
         subQuery.getAttributes(query, map);
     }
 
+    @Override
+    public void appendFingerprint(StringBuilder fp) {
+        fp.append("sub(");
+        left.appendFingerprint(fp);
+        fp.append(',');
+        projection.appendFingerprint(fp);
+        fp.append(',');
+        subQuery.appendFingerprint(fp);
+        fp.append(')');
+    }
+
     public AAttribute getLeft() {
         return left;
     }
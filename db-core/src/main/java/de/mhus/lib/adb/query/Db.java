@@ -516,6 +516,13 @@ public class Db {
             for (Entry<String, Object> entry : map2.entrySet())
                 map.put(entry.getKey(), "%" + entry.getValue() + "%");
         }
+
+        @Override
+        public void appendFingerprint(StringBuilder fp) {
+            fp.append("contains(");
+            attr.appendFingerprint(fp);
+            fp.append(')');
+        }
     }
 
     /**
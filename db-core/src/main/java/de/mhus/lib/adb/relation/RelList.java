@@ -15,32 +15,47 @@
  */
 package de.mhus.lib.adb.relation;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.function.Function;
 
 import de.mhus.lib.adb.DbComfortableObject;
 import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.adb.model.Field;
+import de.mhus.lib.adb.model.Table;
 import de.mhus.lib.annotations.adb.DbRelation;
 import de.mhus.lib.sql.DbConnection;
 
 /**
  * RelList class.
  *
+ * <p>The members and the changes are indexed by a key, by default the object itself. With the
+ * primary key function a new loaded object with the same keys is the same member. Reading methods
+ * work on a snapshot list, it's only created again after a modification. Saving writes only the
+ * added, removed and changed members in batches.
+ *
  * @author mikehummel
  * @version $Id: $Id
  * @param <T>
  */
 public class RelList<T> implements List<T> {
 
-    List<T> current;
-    List<T> add;
-    List<T> remove;
-    List<T> org;
-    List<T> changed;
+    private List<T> org;
+    private HashMap<Object, T> orgIndex;
+    private LinkedHashMap<Object, T> current;
+    private LinkedHashMap<Object, T> add;
+    private LinkedHashMap<Object, T> remove;
+    private LinkedHashMap<Object, T> changed;
+    // read only snapshot of the current members, null if modified
+    private List<T> view;
     private DbRelation config;
+    private Function<Object, Object> keyFunction;
 
     /**
      * Constructor for RelList.
@@ -48,74 +63,131 @@ public class RelList<T> implements List<T> {
      * @param list a {@link java.util.List} object.
      * @param config a {@link de.mhus.lib.annotations.adb.DbRelation} object.
      */
-    @SuppressWarnings("unchecked")
     public RelList(List<?> list, DbRelation config) {
-        org = (List<T>) list;
-        current = (List<T>) list;
+        this(list, config, null);
+    }
+
+    /**
+     * Create a list with a custom key of the members.
+     *
+     * @param list The loaded members
+     * @param config The relation
+     * @param keyFunction Returns the key of a member or null to use the identity, if the function
+     *     is null the object is the key
+     */
+    @SuppressWarnings("unchecked")
+    public RelList(List<?> list, DbRelation config, Function<Object, Object> keyFunction) {
+        org = Collections.unmodifiableList((List<T>) list);
+        view = org;
         this.config = config;
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * Returns a key function using the registry name and primary keys of the objects. Objects
+     * without primary key values are compared by identity.
+     *
+     * @param manager The manager
+     * @return The key function
+     */
+    public static Function<Object, Object> primaryKey(DbManager manager) {
+        return o -> {
+            try {
+                Table table = manager.getTable(manager.getRegistryName(o));
+                if (table == null || table.getPrimaryKeys().isEmpty()) return null;
+                for (Field f : table.getPrimaryKeys()) if (f.get(o) == null) return null;
+                return table.getRegistryName() + ":" + table.getCacheKey(o);
+            } catch (Throwable t) {
+                return null;
+            }
+        };
+    }
+
+    private Object key(Object o) {
+        if (keyFunction == null || o == null) return o;
+        Object key = keyFunction.apply(o);
+        return key == null ? new Identity(o) : key;
+    }
+
+    private List<T> view() {
+        if (view == null) view = Collections.unmodifiableList(new ArrayList<>(current.values()));
+        return view;
     }
 
     /** {@inheritDoc} */
     @Override
     public int size() {
-        return current.size();
+        return current == null ? org.size() : current.size();
     }
     /** {@inheritDoc} */
     @Override
     public boolean isEmpty() {
-        return current.isEmpty();
+        return size() == 0;
     }
     /** {@inheritDoc} */
     @Override
     public boolean contains(Object o) {
-        return current.contains(o);
+        init();
+        return current.containsKey(key(o));
     }
     /** {@inheritDoc} */
     @Override
     public Iterator<T> iterator() {
-        return new LinkedList<T>(current).iterator(); // iterate over a copy
+        return view().iterator(); // the snapshot is not changed by modifications
     }
     /** {@inheritDoc} */
     @Override
     public Object[] toArray() {
-        return current.toArray();
+        return view().toArray();
     }
     /** {@inheritDoc} */
     @Override
     public <E> E[] toArray(E[] a) {
-        return current.toArray(a);
+        return view().toArray(a);
     }
     /** {@inheritDoc} */
     @Override
     public boolean add(T e) {
         init();
-        if (remove.contains(e)) remove.remove(e);
-        if (!org.contains(e) && !add.contains(e)) add.add(e);
-        if (!current.contains(e)) current.add(e);
+        Object k = key(e);
+        remove.remove(k);
+        if (!orgIndex.containsKey(k)) add.putIfAbsent(k, e);
+        if (current.putIfAbsent(k, e) == null) view = null;
         return true;
     }
     /** {@inheritDoc} */
-    @SuppressWarnings("unchecked")
     @Override
     public boolean remove(Object o) {
         init();
-        if (!remove.contains(o) && org.contains(o)) remove.add((T) o);
-        if (add.contains(o)) add.remove(o);
-        return current.remove(o);
+        Object k = key(o);
+        T member = orgIndex.get(k);
+        if (member != null) remove.putIfAbsent(k, member);
+        add.remove(k);
+        if (current.remove(k) == null) return false;
+        view = null;
+        return true;
     }
 
     private void init() {
-        if (add != null) return;
-        current = new LinkedList<T>(org);
-        add = new LinkedList<T>();
-        remove = new LinkedList<T>();
-        changed = new LinkedList<T>();
+        if (current != null) return;
+        orgIndex = new HashMap<>();
+        current = new LinkedHashMap<>();
+        for (T t : org) {
+            Object k = key(t);
+            orgIndex.putIfAbsent(k, t);
+            current.putIfAbsent(k, t);
+        }
+        add = new LinkedHashMap<>();
+        remove = new LinkedHashMap<>();
+        changed = new LinkedHashMap<>();
     }
 
     /** {@inheritDoc} */
     @Override
     public boolean containsAll(Collection<?> c) {
-        return current.containsAll(c);
+        init();
+        for (Object o : c) if (!current.containsKey(key(o))) return false;
+        return true;
     }
     /** {@inheritDoc} */
     @Override
@@ -138,27 +210,34 @@ public class RelList<T> implements List<T> {
     /** {@inheritDoc} */
     @Override
     public boolean retainAll(Collection<?> c) {
-        return current.retainAll(c);
+        init();
+        HashMap<Object, Object> keep = new HashMap<>();
+        for (Object o : c) keep.put(key(o), o);
+        boolean modified = false;
+        for (T t : new ArrayList<>(current.values())) {
+            if (!keep.containsKey(key(t))) modified |= remove(t);
+        }
+        return modified;
     }
     /** {@inheritDoc} */
     @Override
     public void clear() {
-        for (T t : current) remove(t);
+        for (T t : view()) remove(t);
     }
     /** {@inheritDoc} */
     @Override
     public boolean equals(Object o) {
-        return current.equals(o);
+        return view().equals(o);
     }
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
-        return current.hashCode();
+        return view().hashCode();
     }
     /** {@inheritDoc} */
     @Override
     public T get(int index) {
-        return current.get(index);
+        return view().get(index);
     }
     /** {@inheritDoc} */
     @Override
@@ -180,27 +259,27 @@ public class RelList<T> implements List<T> {
     /** {@inheritDoc} */
     @Override
     public int indexOf(Object o) {
-        return current.indexOf(o);
+        return view().indexOf(o);
     }
     /** {@inheritDoc} */
     @Override
     public int lastIndexOf(Object o) {
-        return current.lastIndexOf(o);
+        return view().lastIndexOf(o);
     }
     /** {@inheritDoc} */
     @Override
     public ListIterator<T> listIterator() {
-        return current.listIterator();
+        return view().listIterator();
     }
     /** {@inheritDoc} */
     @Override
     public ListIterator<T> listIterator(int index) {
-        return current.listIterator(index);
+        return view().listIterator(index);
     }
     /** {@inheritDoc} */
     @Override
     public List<T> subList(int fromIndex, int toIndex) {
-        return current.subList(fromIndex, toIndex);
+        return view().subList(fromIndex, toIndex);
     }
 
     /**
@@ -209,11 +288,12 @@ public class RelList<T> implements List<T> {
      * @return a boolean.
      */
     public boolean changed() {
-        return add != null && (add.size() > 0 || remove.size() > 0 || changed.size() > 0);
+        return current != null && (add.size() > 0 || remove.size() > 0 || changed.size() > 0);
     }
 
     /**
-     * save.
+     * Write the added, removed and changed members. The objects are written in batches. If writing
+     * fails the exception is thrown and the changes are kept, the list is not marked as saved.
      *
      * @param manager a {@link de.mhus.lib.adb.DbManager} object.
      * @param con a {@link de.mhus.lib.sql.DbConnection} object.
@@ -223,57 +303,46 @@ public class RelList<T> implements List<T> {
      */
     public void save(DbManager manager, DbConnection con, String fName, Object value)
             throws Exception {
-        if (remove != null) {
-            for (T t : remove) {
-                try {
-                    if (config.remove()) {
-                        manager.deleteObject(con, t);
-                    } else {
-                        manager.getTable(manager.getRegistryName(t)).getField(fName).set(t, null);
-                        manager.saveObject(con, t);
-                    }
-                } catch (Throwable te) {
-                    te.printStackTrace(); // XXX
-                }
+        if (current == null) return;
+        if (!remove.isEmpty()) {
+            ArrayList<T> list = new ArrayList<>(remove.values());
+            if (config.remove()) {
+                manager.deleteObjects(con, list);
+            } else {
+                for (T t : list) setValue(manager, t, fName, null);
+                manager.saveObjects(con, list);
             }
         }
-        if (add != null) {
-            for (T t : add) {
-                try {
-                    manager.getTable(manager.getRegistryName(t)).getField(fName).set(t, value);
-                    if ((t instanceof DbComfortableObject)
-                            && !((DbComfortableObject) t).isAdbPersistent())
-                        manager.createObject(con, t);
-                    else manager.saveObject(con, t);
-                } catch (Throwable te) {
-                    te.printStackTrace(); // XXX
-                }
-            }
+        ArrayList<T> create = new ArrayList<>();
+        ArrayList<T> save = new ArrayList<>();
+        for (T t : add.values()) {
+            setValue(manager, t, fName, value);
+            if ((t instanceof DbComfortableObject) && !((DbComfortableObject) t).isAdbPersistent())
+                create.add(t);
+            else save.add(t);
         }
-        if (changed != null) {
-            for (T t : changed) {
-                try {
-                    if (current.contains(t)) {
-                        manager.getTable(manager.getRegistryName(t)).getField(fName).set(t, value);
-                        //					if (t instanceof DbComfortableObject &&
-                        // !((DbComfortableObject)t).isAdbManaged() )
-                        manager.saveObject(con, t);
-                        //					else
-                        //						manager.saveObject(con, t);
-                    }
-                } catch (Throwable te) {
-                    te.printStackTrace(); // XXX
-                }
-            }
+        for (Object k : changed.keySet()) {
+            T t = current.get(k);
+            if (t == null || add.containsKey(k)) continue;
+            setValue(manager, t, fName, value);
+            save.add(t);
         }
+        if (!create.isEmpty()) manager.createObjects(con, create);
+        if (!save.isEmpty()) manager.saveObjects(con, save);
 
-        org = current;
+        org = view();
+        view = org;
         current = null;
+        orgIndex = null;
         add = null;
         remove = null;
         changed = null;
     }
 
+    private void setValue(DbManager manager, T t, String fName, Object value) throws Exception {
+        manager.getTable(manager.getRegistryName(t)).getField(fName).set(t, value);
+    }
+
     /**
      * Setter for the field <code>changed</code>.
      *
@@ -281,7 +350,7 @@ public class RelList<T> implements List<T> {
      */
     public void setChanged(T obj) {
         init();
-        changed.add(obj);
+        changed.put(key(obj), obj);
     }
 
     /**
@@ -291,6 +360,25 @@ public class RelList<T> implements List<T> {
      */
     public void unsetChanged(T obj) {
         if (changed == null) return;
-        changed.remove(obj);
+        changed.remove(key(obj));
+    }
+
+    /** Key of objects compared by identity. */
+    private static class Identity {
+        private final Object obj;
+
+        private Identity(Object obj) {
+            this.obj = obj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).obj == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(obj);
+        }
     }
 }
@@ -15,6 +15,8 @@
  */
 package de.mhus.lib.adb.relation;
 
+import java.util.List;
+
 import de.mhus.lib.adb.IRelationObject;
 import de.mhus.lib.adb.model.Field;
 import de.mhus.lib.adb.model.FieldRelation;
@@ -82,12 +84,26 @@ public class RelMultible<T> implements IRelationObject {
                                                         + order,
                                                 new AttributeMap("id", id))
                                         .toCacheAndClose(),
-                                field.getConfig());
+                                field.getConfig(),
+                                RelList.primaryKey(field.getManager()));
             }
         }
         return relations;
     }
 
+    /**
+     * Set the relations loaded together with the object.
+     *
+     * @param list The related objects
+     */
+    public void setFetched(List<T> list) {
+        synchronized (this) {
+            relations =
+                    new RelList<T>(
+                            list, field.getConfig(), RelList.primaryKey(field.getManager()));
+        }
+    }
+
     /** reset. */
     public void reset() {
         synchronized (this) {
@@ -29,11 +29,17 @@ public class RelSingle<T> implements IRelationObject {
     private Object obj;
     private T relation;
     private boolean changed = false;
+    // relation was looked up by a batch, also if not found
+    private boolean fetched = false;
+    private volatile RelSingleBatch batch;
 
     @SuppressWarnings("unchecked")
     public T getRelation() throws Exception {
+        // load outside of the lock, the batch locks all pending relations
+        RelSingleBatch b = batch;
+        if (b != null) b.load();
         synchronized (this) {
-            if (relation == null) {
+            if (relation == null && !fetched) {
 
                 String src = field.getConfig().sourceAttribute();
                 if ("".equals(src)) src = field.getName() + "id";
@@ -78,9 +84,40 @@ public class RelSingle<T> implements IRelationObject {
     public void reset() {
         synchronized (this) {
             relation = null;
+            fetched = false;
         }
     }
 
+    /**
+     * Set the batch to load the relation together with the relations of other objects.
+     *
+     * @param batch The batch or null
+     */
+    public void setBatch(RelSingleBatch batch) {
+        this.batch = batch;
+    }
+
+    public RelSingleBatch getBatch() {
+        return batch;
+    }
+
+    /**
+     * Set the relation loaded together with the object. It's ignored if the relation was changed.
+     *
+     * @param relation The related object or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void setFetched(Object relation) {
+        batch = null;
+        if (this.relation != null || changed) return;
+        this.relation = (T) relation;
+        fetched = true;
+    }
+
+    Object getObject() {
+        return obj;
+    }
+
     protected void prepare() throws Exception {
         if (!field.getConfig().managed() || !isChanged()) return;
         synchronized (this) {
@@ -135,6 +172,8 @@ public class RelSingle<T> implements IRelationObject {
         synchronized (this) {
             relation = null;
             changed = false;
+            fetched = false;
+            batch = null;
         }
     }
 
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.relation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.adb.model.Field;
+import de.mhus.lib.adb.model.FieldRelation;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.parser.AttributeMap;
+import de.mhus.lib.core.util.MObject;
+
+/**
+ * Load the relations of the objects of one collection together. The RelSingle objects of the
+ * loaded objects are registered. If one relation is requested the relations of all pending
+ * objects are loaded with IN queries and given back to the RelSingle objects.
+ *
+ * <p>The number of objects in a batch is limited, if a batch is full the collection starts a new
+ * one.
+ *
+ * @author mikehummel
+ */
+public class RelSingleBatch extends MObject {
+
+    private static final CfgInt CFG_MAX_SIZE = new CfgInt(RelSingleBatch.class, "maxSize", 1000);
+    // size of the IN lists, the last chunk is filled up to have less different statements
+    private static final CfgInt CFG_CHUNK_SIZE = new CfgInt(RelSingleBatch.class, "chunkSize", 100);
+
+    private FieldRelation field;
+    private ArrayDeque<RelSingle<?>> pending = new ArrayDeque<>();
+    private boolean loaded;
+
+    public RelSingleBatch(FieldRelation field) {
+        this.field = field;
+    }
+
+    public FieldRelation getField() {
+        return field;
+    }
+
+    /**
+     * Add the relation to the batch.
+     *
+     * @param rel The relation of a loaded object
+     * @return false if the batch is full or already loaded
+     */
+    public synchronized boolean add(RelSingle<?> rel) {
+        if (loaded || pending.size() >= CFG_MAX_SIZE.value()) return false;
+        rel.setBatch(this);
+        pending.add(rel);
+        return true;
+    }
+
+    public synchronized int getPendingSize() {
+        return pending.size();
+    }
+
+    /** Load the relations of all pending objects. */
+    public synchronized void load() {
+        if (pending.isEmpty()) return;
+        loaded = true;
+        ArrayList<RelSingle<?>> list = new ArrayList<>(pending.size());
+        // ignore relations already loaded by a join or removed from the batch
+        for (RelSingle<?> rel : pending) if (rel.getBatch() == this) list.add(rel);
+        pending.clear();
+        if (list.isEmpty()) return;
+
+        try {
+            String src = field.getConfig().sourceAttribute();
+            if ("".equals(src)) src = field.getName() + "id";
+            src = src.toLowerCase();
+            String tar = field.getConfig().targetAttribute();
+            if ("".equals(tar)) tar = "id";
+
+            Field idField = field.getTable().getField(src);
+            if (idField == null) {
+                for (RelSingle<?> rel : list) rel.setBatch(null);
+                return;
+            }
+
+            HashMap<String, Object> ids = new HashMap<>();
+            Object[] relIds = new Object[list.size()];
+            for (int i = 0; i < relIds.length; i++) {
+                relIds[i] = idField.getFromTarget(list.get(i).getObject());
+                if (relIds[i] != null) ids.put(String.valueOf(relIds[i]), relIds[i]);
+            }
+
+            HashMap<String, Object> found = new HashMap<>();
+            if (!ids.isEmpty()) {
+                DbManager manager = field.getManager();
+                Class<?> target = field.getConfig().target();
+                String column = "$db." + manager.getMappingName(target) + "." + tar + "$ IN (";
+                Table table = manager.getTable(manager.getRegistryName(target));
+                Field tarField = table == null ? null : table.getField(tar.toLowerCase());
+                if (tarField == null)
+                    throw new IllegalStateException("target attribute not found: " + tar);
+                List<Object> values = new ArrayList<>(ids.values());
+                int chunkSize = Math.max(1, CFG_CHUNK_SIZE.value());
+                for (int i = 0; i < values.size(); i += chunkSize) {
+                    List<Object> chunk = values.subList(i, Math.min(values.size(), i + chunkSize));
+                    int size = values.size() > chunkSize ? chunkSize : chunk.size();
+                    StringBuilder qualification = new StringBuilder(column);
+                    AttributeMap attributes = new AttributeMap();
+                    for (int j = 0; j < size; j++) {
+                        if (j > 0) qualification.append(',');
+                        qualification.append("$id").append(j).append('$');
+                        attributes.put("id" + j, chunk.get(Math.min(j, chunk.size() - 1)));
+                    }
+                    qualification.append(')');
+                    for (Object obj :
+                            manager.getByQualification(
+                                            target, qualification.toString(), attributes)
+                                    .toCacheAndClose())
+                        found.put(String.valueOf(tarField.get(obj)), obj);
+                }
+                log().t("batch loaded", field.getName(), list.size(), values.size(), found.size());
+            }
+
+            for (int i = 0; i < relIds.length; i++) {
+                Object obj = relIds[i] == null ? null : found.get(String.valueOf(relIds[i]));
+                list.get(i).setFetched(obj);
+            }
+        } catch (Throwable t) {
+            // the relations will be loaded one by one
+            log().d("batch load failed", field.getName(), list.size(), t);
+            for (RelSingle<?> rel : list) rel.setBatch(null);
+        }
+    }
+}
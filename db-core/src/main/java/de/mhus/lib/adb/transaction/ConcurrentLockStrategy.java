@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.transaction;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.mhus.lib.core.M;
+import de.mhus.lib.core.MHousekeeper;
+import de.mhus.lib.core.MHousekeeperTask;
+import de.mhus.lib.core.MPeriod;
+import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.errors.TimeoutRuntimeException;
+
+/**
+ * In memory lock strategy without a central monitor. Every key has its own lock record, a thread
+ * waiting for a key is woken up as soon as the owner releases it. Locks older than the maximum
+ * lock age are removed by a housekeeper task, a thread waiting for such a lock takes it over when
+ * the age is reached.
+ *
+ * <p>The wait time and the contention are counted by registry name, it's the first part of the
+ * lock key.
+ *
+ * @author mikehummel
+ */
+public class ConcurrentLockStrategy extends LockStrategy {
+
+    private static final CfgLong CFG_MAX_LOCK_AGE =
+            new CfgLong(
+                    ConcurrentLockStrategy.class, "maxLockAge", MPeriod.HOUR_IN_MILLISECONDS);
+    private static final CfgLong CFG_SWEEP_INTERVAL =
+            new CfgLong(
+                    ConcurrentLockStrategy.class, "sweepInterval", MPeriod.MINUTE_IN_MILLISECONDS);
+    private static final CfgBoolean CFG_IGNORE_LOCK_OWNER =
+            new CfgBoolean(ConcurrentLockStrategy.class, "ignoreLockOwner", false);
+
+    private volatile long maxLockAge = CFG_MAX_LOCK_AGE.value();
+    private long sweepInterval = CFG_SWEEP_INTERVAL.value();
+    private boolean ignoreLockOwner = CFG_IGNORE_LOCK_OWNER.value();
+
+    private ConcurrentHashMap<String, LockRecord> locks = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, Statistics> statistics = new ConcurrentHashMap<>();
+    private MHousekeeperTask sweeper;
+    private volatile boolean closed;
+
+    @Override
+    public void lock(Object object, String key, LockBase transaction, long timeout) {
+        if (sweeper == null) init();
+        Statistics stat = getStatistics(key);
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        boolean contended = false;
+        while (true) {
+            LockRecord record = locks.computeIfAbsent(key, k -> new LockRecord(k));
+            synchronized (record) {
+                // removed from the map after it was taken from it
+                if (record.removed) continue;
+                while (record.owner != null) {
+                    long now = System.currentTimeMillis();
+                    if (record.isExpired(now)) {
+                        log().i("remove stare lock", record.owner, record.ownerStr, key);
+                        stat.expired.incrementAndGet();
+                        record.owner = null;
+                        break;
+                    }
+                    if (!contended) {
+                        contended = true;
+                        stat.contended.incrementAndGet();
+                        log().t("wait for lock", key, record.owner);
+                    }
+                    if (now >= deadline) {
+                        stat.timeouts.incrementAndGet();
+                        stat.addWaitTime(now - start);
+                        record.removeIfUnused();
+                        throw new TimeoutRuntimeException(key);
+                    }
+                    long wait = Math.min(deadline, record.created + maxLockAge) - now;
+                    record.waiters++;
+                    try {
+                        record.wait(Math.max(1, wait));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        stat.timeouts.incrementAndGet();
+                        throw new TimeoutRuntimeException(key, e);
+                    } finally {
+                        record.waiters--;
+                    }
+                }
+                record.owner = transaction.getName();
+                record.ownerStr = transaction.toString();
+                record.created = System.currentTimeMillis();
+            }
+            stat.locks.incrementAndGet();
+            if (contended) stat.addWaitTime(System.currentTimeMillis() - start);
+            return;
+        }
+    }
+
+    @Override
+    public void releaseLock(Object object, String key, LockBase transaction) {
+        LockRecord record = locks.get(key);
+        if (record == null) return;
+        synchronized (record) {
+            if (record.owner == null) return;
+            if (!record.owner.equals(transaction.getName())) {
+                log().w("you are not the lock owner", key, record.owner, transaction.getName());
+                if (!ignoreLockOwner) return;
+            }
+            record.release();
+        }
+    }
+
+    @Override
+    public boolean isLocked(Object object, String key, LockBase transaction) {
+        LockRecord record = locks.get(key);
+        if (record == null) return false;
+        synchronized (record) {
+            return record.owner != null && !record.isExpired(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public boolean isLockedByOwner(Object object, String key, LockBase transaction) {
+        LockRecord record = locks.get(key);
+        if (record == null) return false;
+        synchronized (record) {
+            return record.owner != null
+                    && !record.isExpired(System.currentTimeMillis())
+                    && record.owner.equals(transaction.getName());
+        }
+    }
+
+    protected synchronized void init() {
+        if (sweeper != null || closed) return;
+        sweeper =
+                new MHousekeeperTask("lock sweeper") {
+
+                    @Override
+                    public void doit() throws Exception {
+                        if (closed) cancel();
+                        else sweep();
+                    }
+                };
+        MHousekeeper housekeeper = M.l(MHousekeeper.class);
+        if (housekeeper != null) {
+            housekeeper.register(sweeper, sweepInterval);
+        } else {
+            log().w("Housekeeper not found - stale locks are removed by waiting threads only");
+        }
+    }
+
+    /** Remove all locks older than the maximum lock age and wake up the waiting threads. */
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (LockRecord record : locks.values()) {
+            synchronized (record) {
+                if (record.owner != null && record.isExpired(now)) {
+                    log().i("remove stare lock", record.owner, record.ownerStr, record.key);
+                    getStatistics(record.key).expired.incrementAndGet();
+                    record.release();
+                } else if (record.owner == null) record.removeIfUnused();
+            }
+        }
+    }
+
+    /** Stop the sweeper, the strategy can still be used but stale locks are not removed. */
+    public synchronized void close() {
+        closed = true;
+        if (sweeper != null) sweeper.cancel();
+    }
+
+    private Statistics getStatistics(String key) {
+        int pos = key.indexOf(',');
+        String regName = pos < 0 ? key : key.substring(0, pos);
+        return statistics.computeIfAbsent(regName, k -> new Statistics());
+    }
+
+    /**
+     * Return the lock statistics by registry name.
+     *
+     * @return One line for each registry name
+     */
+    public String[] getStatistics() {
+        LinkedList<String> out = new LinkedList<>();
+        for (Map.Entry<String, Statistics> entry : new TreeMap<>(statistics).entrySet()) {
+            Statistics stat = entry.getValue();
+            out.add(
+                    entry.getKey()
+                            + ": locks="
+                            + stat.locks.get()
+                            + " contended="
+                            + stat.contended.get()
+                            + " timeouts="
+                            + stat.timeouts.get()
+                            + " expired="
+                            + stat.expired.get()
+                            + " waitTime="
+                            + stat.waitTime.get()
+                            + " maxWaitTime="
+                            + stat.maxWaitTime.get());
+        }
+        return out.toArray(new String[out.size()]);
+    }
+
+    public void resetStatistics() {
+        statistics.clear();
+    }
+
+    /**
+     * Return the number of currently held locks.
+     *
+     * @return The number of locks
+     */
+    public int getSize() {
+        int cnt = 0;
+        for (LockRecord record : locks.values()) if (record.owner != null) cnt++;
+        return cnt;
+    }
+
+    public long getMaxLockAge() {
+        return maxLockAge;
+    }
+
+    public void setMaxLockAge(long maxLockAge) {
+        this.maxLockAge = maxLockAge;
+        // waiting threads have to calculate the expiry again
+        for (LockRecord record : locks.values()) {
+            synchronized (record) {
+                if (record.waiters > 0) record.notifyAll();
+            }
+        }
+    }
+
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    /**
+     * Set the interval of the sweeper, must be set before the first lock.
+     *
+     * @param sweepInterval Interval in milliseconds
+     */
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    @Override
+    public String toString() {
+        return MSystem.toString(this, getSize(), maxLockAge);
+    }
+
+    private class LockRecord {
+
+        private final String key;
+        private String owner;
+        private String ownerStr;
+        private long created;
+        private int waiters;
+        private boolean removed;
+
+        private LockRecord(String key) {
+            this.key = key;
+        }
+
+        private boolean isExpired(long now) {
+            return now - created > maxLockAge;
+        }
+
+        // must be called with the monitor of the record
+        private void release() {
+            owner = null;
+            ownerStr = null;
+            if (waiters > 0) notifyAll();
+            else removeIfUnused();
+        }
+
+        // must be called with the monitor of the record
+        private void removeIfUnused() {
+            if (owner != null || waiters > 0 || removed) return;
+            removed = true;
+            locks.remove(key, this);
+        }
+    }
+
+    private static class Statistics {
+
+        private final AtomicLong locks = new AtomicLong();
+        private final AtomicLong contended = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong expired = new AtomicLong();
+        private final AtomicLong waitTime = new AtomicLong();
+        private final AtomicLong maxWaitTime = new AtomicLong();
+
+        private void addWaitTime(long time) {
+            waitTime.addAndGet(time);
+            maxWaitTime.accumulateAndGet(time, Math::max);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.adb.transaction;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgString;
+import de.mhus.lib.errors.MRuntimeException;
+import de.mhus.lib.errors.TimeoutRuntimeException;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.Dialect;
+
+/**
+ * Lock strategy using the named locks of the database, see Dialect.acquireLock(). The database
+ * waits for the lock and wakes up the waiting session if it's released, there is no polling.
+ *
+ * <p>The locks are bound to the database session, so the locks hold a connection of the pool until
+ * they are released. If the dialect supports it, the locks of one owner share a single connection,
+ * otherwise every lock holds its own connection (e.g. row locks). The shared connection is only
+ * used to take free locks without waiting, a lock held by another owner is waited for on an own
+ * connection. So a waiting thread never blocks the release of the other locks of the owner. If a
+ * node dies the database releases the locks with the connections, a maximum lock age is not needed.
+ * The pool must not close used connections while they hold a lock.
+ *
+ * @author mikehummel
+ */
+public class DatabaseLockStrategy extends LockStrategy {
+
+    private static final CfgString CFG_TABLE_NAME =
+            new CfgString(DatabaseLockStrategy.class, "tableName", "dblocks");
+    private static final CfgBoolean CFG_IGNORE_LOCK_OWNER =
+            new CfgBoolean(DatabaseLockStrategy.class, "ignoreLockOwner", false);
+
+    private String tableName = CFG_TABLE_NAME.value();
+    private boolean ignoreLockOwner = CFG_IGNORE_LOCK_OWNER.value();
+
+    private ConcurrentHashMap<String, LockSession> locks = new ConcurrentHashMap<>();
+    // shared sessions by owner
+    private HashMap<String, LockSession> sessions = new HashMap<>();
+    private Set<DbPool> prepared = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void lock(Object object, String key, LockBase transaction, long timeout) {
+        DbManager manager = transaction.getDbManager();
+        DbPool pool = manager.getPool();
+        Dialect dialect = pool.getDialect();
+        String tableOrg = prepare(manager, pool, dialect);
+        boolean shared = dialect.isLockConnectionShared();
+        LockSession current = locks.get(key);
+        if (current != null && shared && current.owner.equals(transaction.getName())) {
+            // already locked by me, the database would count it twice
+            return;
+        }
+        if (shared) {
+            LockSession session = openSession(transaction, pool, dialect, tableOrg, true);
+            boolean locked = false;
+            try {
+                synchronized (session) {
+                    locked = dialect.acquireLock(session.con, tableOrg, key, 0);
+                }
+            } catch (Exception e) {
+                session.failed = true;
+                throw new MRuntimeException(RC.ERROR, "lock failed", key, e);
+            } finally {
+                if (!locked) closeSession(session);
+            }
+            if (locked) {
+                locks.put(key, session);
+                return;
+            }
+        }
+        // wait on an own connection, the shared connection is not blocked while waiting
+        LockSession session = openSession(transaction, pool, dialect, tableOrg, false);
+        boolean locked = false;
+        try {
+            log().t("wait for lock", key);
+            locked = dialect.acquireLock(session.con, tableOrg, key, timeout);
+        } catch (Exception e) {
+            // don't give back a connection in an unknown lock state
+            session.failed = true;
+            throw new MRuntimeException(RC.ERROR, "lock failed", key, e);
+        } finally {
+            if (!locked) closeSession(session);
+        }
+        if (!locked) throw new TimeoutRuntimeException(key);
+        locks.put(key, session);
+    }
+
+    @Override
+    public void releaseLock(Object object, String key, LockBase transaction) {
+        LockSession session = locks.get(key);
+        if (session == null) return;
+        if (!session.owner.equals(transaction.getName())) {
+            log().w("you are not the lock owner", key, session.owner, transaction.getName());
+            if (!ignoreLockOwner) return;
+        }
+        if (!locks.remove(key, session)) return;
+        try {
+            synchronized (session) {
+                session.dialect.releaseLock(session.con, session.tableOrg, key);
+            }
+        } catch (Exception e) {
+            // the database releases the lock if the connection is closed
+            log().w("release lock failed", key, e);
+            session.failed = true;
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    private LockSession openSession(
+            LockBase transaction, DbPool pool, Dialect dialect, String tableOrg, boolean shared) {
+        String owner = transaction.getName();
+        if (shared) {
+            synchronized (sessions) {
+                LockSession session = sessions.get(owner);
+                if (session != null) {
+                    session.count++;
+                    return session;
+                }
+            }
+        }
+        DbConnection con;
+        try {
+            con = pool.getConnection();
+        } catch (Exception e) {
+            throw new MRuntimeException(RC.ERROR, "can't get lock connection", owner, e);
+        }
+        LockSession session = new LockSession(owner, con, dialect, tableOrg, shared);
+        if (!shared) return session;
+        LockSession current;
+        synchronized (sessions) {
+            current = sessions.get(owner);
+            if (current == null) {
+                sessions.put(owner, session);
+                return session;
+            }
+            // opened by another thread of the owner
+            current.count++;
+        }
+        con.close();
+        return current;
+    }
+
+    private void closeSession(LockSession session) {
+        if (session.shared) {
+            synchronized (sessions) {
+                if (--session.count > 0) return;
+                sessions.remove(session.owner, session);
+            }
+        }
+        // the database releases the locks if the connection is closed
+        if (session.failed) session.con.instance().close();
+        session.con.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Locks of other nodes are found by trying to get the lock without waiting.
+     */
+    @Override
+    public boolean isLocked(Object object, String key, LockBase transaction) {
+        if (locks.containsKey(key)) return true;
+        DbManager manager = transaction.getDbManager();
+        DbPool pool = manager.getPool();
+        Dialect dialect = pool.getDialect();
+        DbConnection con = null;
+        try {
+            String tableOrg = prepare(manager, pool, dialect);
+            con = pool.getConnection();
+            if (!dialect.acquireLock(con, tableOrg, key, 0)) return true;
+            dialect.releaseLock(con, tableOrg, key);
+        } catch (Throwable e) {
+            log().d(e);
+        } finally {
+            if (con != null) con.close();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isLockedByOwner(Object object, String key, LockBase transaction) {
+        LockSession session = locks.get(key);
+        return session != null && session.owner.equals(transaction.getName());
+    }
+
+    private String prepare(DbManager manager, DbPool pool, Dialect dialect) {
+        if (!dialect.isLockSupported())
+            throw new MRuntimeException(
+                    RC.NOT_SUPPORTED,
+                    "database locks not supported by dialect",
+                    dialect.getClass().getCanonicalName());
+        String tableOrg = manager.getSchema().getTableName(tableName);
+        if (prepared.contains(pool)) return tableOrg;
+        synchronized (this) {
+            if (prepared.contains(pool)) return tableOrg;
+            DbConnection con = null;
+            try {
+                con = pool.getConnection();
+                dialect.createLockStructure(con, tableOrg);
+                con.commit();
+            } catch (Exception e) {
+                throw new MRuntimeException(RC.ERROR, "can't create lock structure", tableOrg, e);
+            } finally {
+                if (con != null) con.close();
+            }
+            prepared.add(pool);
+        }
+        return tableOrg;
+    }
+
+    /**
+     * Return the number of locks held by this node.
+     *
+     * @return The number of locks
+     */
+    public int getSize() {
+        return locks.size();
+    }
+
+    /**
+     * Return the number of connections held by shared lock sessions.
+     *
+     * @return The number of sessions
+     */
+    public int getSessionSize() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Set the name of the lock table, used by dialects with row locks. The table prefix of the
+     * schema is added.
+     *
+     * @param tableName The table name
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    @Override
+    public String toString() {
+        return MSystem.toString(this, locks.size());
+    }
+
+    private static class LockSession {
+
+        private final String owner;
+        private final DbConnection con;
+        private final Dialect dialect;
+        private final String tableOrg;
+        private final boolean shared;
+        // number of locks and pending lock requests, guarded by sessions
+        private int count = 1;
+        private volatile boolean failed;
+
+        private LockSession(
+                String owner, DbConnection con, Dialect dialect, String tableOrg, boolean shared) {
+            this.owner = owner;
+            this.con = con;
+            this.dialect = dialect;
+            this.tableOrg = tableOrg;
+            this.shared = shared;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Attribute map used by the JdbcStatement if the dialect supports bind parameters. Read access is
+ * delegated to the original attributes. The ParameterPart will render a '?' marker and append the
+ * value to the ordered binding list instead of inlining a literal.
+ *
+ * @author mikehummel
+ */
+public class BindingMap extends AbstractMap<String, Object> {
+
+    private Map<String, Object> attributes;
+    private ArrayList<Object> values = new ArrayList<>();
+    private ArrayList<String> types = new ArrayList<>();
+
+    public BindingMap(Map<String, Object> attributes) {
+        this.attributes = attributes;
+    }
+
+    /**
+     * Append a value to the binding list.
+     *
+     * @param value The value
+     * @param type The type (M.TYPE_*) or null for streams
+     */
+    public void bind(Object value, String type) {
+        values.add(value);
+        types.add(type);
+    }
+
+    public boolean hasBindings() {
+        return values.size() > 0;
+    }
+
+    public int getBindingCount() {
+        return values.size();
+    }
+
+    /**
+     * Set all collected values to the prepared statement in order of appearance.
+     *
+     * @param dialect The dialect to convert the values
+     * @param sth The prepared statement
+     * @throws SQLException
+     */
+    public void bindTo(Dialect dialect, PreparedStatement sth) throws SQLException {
+        for (int i = 0; i < values.size(); i++)
+            dialect.bindParameter(sth, i + 1, values.get(i), types.get(i));
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (attributes == null) return null;
+        return attributes.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (attributes == null) return false;
+        return attributes.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return attributes.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        if (attributes == null) return null;
+        return attributes.remove(key);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (attributes == null) return Collections.emptySet();
+        return attributes.entrySet();
+    }
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.mhus.lib.annotations.jmx.JmxManaged;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.MActivator;
+import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.node.INode;
+import de.mhus.lib.errors.MException;
+
+/**
+ * A connection pool without a central monitor. Every connection has an atomic state, a connection
+ * is claimed by a compare-and-set of the state. The last connection used by a thread is tried
+ * first, after this the list of all connections is scanned. If the maximum size is reached the
+ * thread waits in a fair queue until a connection is given back or the acquire timeout is reached.
+ * While threads are waiting new callers don't scan the pool but queue up behind them, a given back
+ * connection stays reserved until it's handed over to the next waiting thread.
+ *
+ * @author mikehummel
+ */
+public class ConcurrentDbPool extends DbPool {
+
+    private static final int FREE = 0;
+    private static final int USED = 1;
+    private static final int RESERVED = 2;
+    private static final int REMOVED = 3;
+
+    // max time to wait in the handoff queue before scanning the pool again
+    private static final long WAIT_SLICE = 100;
+
+    private CopyOnWriteArrayList<PoolEntry> entries = new CopyOnWriteArrayList<>();
+    private ConcurrentHashMap<DbConnection, PoolEntry> index = new ConcurrentHashMap<>();
+    private SynchronousQueue<PoolEntry> handoff = new SynchronousQueue<>(true);
+    private ThreadLocal<PoolEntry> affinity = new ThreadLocal<>();
+    private AtomicInteger size = new AtomicInteger();
+    // waiting threads, the counter in DbPool is for statistics only
+    private AtomicInteger waiters = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Create a new pool from central configuration. It's used the MApi configuration with the key
+     * of this class.
+     *
+     * @throws java.lang.Exception if any.
+     */
+    public ConcurrentDbPool() throws Exception {
+        super(null, null);
+    }
+
+    /**
+     * Create a new pool from a configuration.
+     *
+     * @param config Config element or null. null will use the central MApi configuration.
+     * @param activator Activator or null. null will use the central MApi Activator.
+     * @throws java.lang.Exception if any.
+     */
+    public ConcurrentDbPool(INode config, MActivator activator) throws Exception {
+        super(config, activator);
+    }
+
+    /**
+     * Create a pool with the DbProvider.
+     *
+     * @param provider a {@link de.mhus.lib.sql.DbProvider} object.
+     */
+    public ConcurrentDbPool(DbProvider provider) {
+        super(provider);
+    }
+
+    @Override
+    public DbConnection getConnection() throws Exception {
+        log().t(getName(), "getConnection");
+        if (closed) throw new MException(RC.CONFLICT, "Pool is closed", getName());
+
+        long start = System.currentTimeMillis();
+        long deadline = start + getAcquireTimeout();
+
+        // don't overtake waiting threads, only new connections are created
+        DbConnection con = waiters.get() > 0 ? createConnection() : tryAcquire();
+        if (con != null) {
+            recordWaitTime(System.currentTimeMillis() - start);
+            return con;
+        }
+
+        waiters.incrementAndGet();
+        incrementWaiters();
+        try {
+            while (true) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    recordAcquireTimeout();
+                    throw new MException(
+                            RC.TIMEOUT,
+                            "Timeout waiting for a connection",
+                            getName(),
+                            getAcquireTimeout());
+                }
+                PoolEntry entry =
+                        handoff.poll(Math.min(wait, WAIT_SLICE), TimeUnit.MILLISECONDS);
+                if (entry != null && claimReserved(entry)) con = use(entry);
+                else if (closed) throw new MException(RC.CONFLICT, "Pool is closed", getName());
+                // connections could be freed or removed in the meantime
+                else con = tryAcquire();
+                if (con != null) {
+                    recordWaitTime(System.currentTimeMillis() - start);
+                    return con;
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+            decrementWaiters();
+        }
+    }
+
+    private DbConnection tryAcquire() throws Exception {
+        PoolEntry entry = affinity.get();
+        if (entry != null && claim(entry)) return use(entry);
+
+        for (PoolEntry e : entries) if (claim(e)) return use(e);
+
+        return createConnection();
+    }
+
+    private boolean claim(PoolEntry entry) {
+        if (!entry.state.compareAndSet(FREE, USED)) return false;
+        if (entry.con.isClosed() || entry.con.checkTimedOut()) {
+            remove(entry);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean claimReserved(PoolEntry entry) {
+        // the entry is reserved for this thread by connectionReleased()
+        entry.state.set(USED);
+        if (entry.con.isClosed() || entry.con.checkTimedOut()) {
+            remove(entry);
+            return false;
+        }
+        return true;
+    }
+
+    private DbConnection use(PoolEntry entry) {
+        entry.con.setUsed(true);
+        affinity.set(entry);
+        return new DbConnectionProxy(this, entry.con);
+    }
+
+    /**
+     * Create a new connection if the maximum size is not reached.
+     *
+     * @return created connection or null if not possible
+     * @throws Exception
+     */
+    protected DbConnection createConnection() throws Exception {
+        int max = getMaxSize();
+        while (true) {
+            int current = size.get();
+            if (max > 0 && current >= max) return null;
+            if (size.compareAndSet(current, current + 1)) break;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            InternalDbConnection con = getProvider().createConnection();
+            if (con == null) {
+                size.decrementAndGet();
+                return null;
+            }
+            recordCreateTime(System.currentTimeMillis() - start);
+            con.setPool(this);
+            PoolEntry entry = new PoolEntry(con);
+            entries.add(entry);
+            index.put(con, entry);
+            if (tracePoolSize.value()) log().d("Create DB Connection", size.get());
+            return use(entry);
+        } catch (Exception e) {
+            size.decrementAndGet();
+            // Caused by: com.mysql.jdbc.exceptions.jdbc4.MySQLNonTransientConnectionException: Too
+            // many connections
+            if (e.getMessage() != null && e.getMessage().indexOf("Too many connections") > -1) {
+                printStackTrace();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    protected void connectionReleased(DbConnection con) {
+        PoolEntry entry = index.get(con);
+        if (entry == null) return;
+        if (closed || con.isClosed()) {
+            remove(entry);
+            return;
+        }
+        affinity.set(entry);
+        if (waiters.get() > 0) {
+            // reserved until a thread waiting in the queue takes it, without a taker the offer
+            // fails at once and the entry is found by the next scan of a waiting thread
+            if (!entry.state.compareAndSet(USED, RESERVED)) return;
+            if (handoff.offer(entry)) return;
+            entry.state.set(FREE);
+        } else entry.state.compareAndSet(USED, FREE);
+    }
+
+    private void remove(PoolEntry entry) {
+        entry.state.set(REMOVED);
+        if (entries.remove(entry)) {
+            index.remove(entry.con);
+            size.decrementAndGet();
+        }
+        entry.con.close();
+    }
+
+    @Override
+    @JmxManaged(descrition = "Current size of the pool")
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    @JmxManaged(descrition = "Current used connections in the pool")
+    public int getUsedSize() {
+        int cnt = 0;
+        for (PoolEntry entry : entries) if (entry.state.get() == USED) cnt++;
+        return cnt;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Free connections are reserved while they are checked, used connections are not touched
+     * unless they are closed.
+     */
+    @Override
+    @JmxManaged(descrition = "Cleanup unused connections")
+    public void cleanup(boolean unusedAlso) {
+        log().t(getName(), "cleanup");
+        boolean removed = false;
+        int min = Math.max(getMinSize(), getMinIdle());
+        for (PoolEntry entry : entries) {
+            try {
+                if (entry.state.compareAndSet(FREE, RESERVED)) {
+                    if (unusedAlso && size.get() > min
+                            || entry.con.isClosed()
+                            || entry.con.checkTimedOut()) {
+                        remove(entry);
+                        removed = true;
+                    } else entry.state.set(FREE);
+                } else if (entry.state.get() == USED && entry.con.isClosed()) {
+                    remove(entry);
+                    removed = true;
+                }
+            } catch (Throwable t) {
+            } // for secure - do not impact the thread
+        }
+        if (removed && tracePoolSize.value()) log().d("Pool cleanup", entries.size());
+    }
+
+    @Override
+    public void validateConnections(int timeout) {
+        int invalid = 0;
+        for (PoolEntry entry : entries) {
+            if (!entry.state.compareAndSet(FREE, RESERVED)) continue;
+            if (entry.con.validate(timeout)) {
+                entry.state.set(FREE);
+            } else {
+                remove(entry);
+                invalid++;
+            }
+        }
+        if (invalid > 0) log().i(getName(), "removed invalid connections", invalid);
+    }
+
+    @Override
+    public void prewarm(int minIdle) {
+        int idle = 0;
+        for (PoolEntry entry : entries) if (entry.state.get() == FREE) idle++;
+        int max = getMaxSize();
+        while (idle < minIdle && !closed) {
+            int current = size.get();
+            if (max > 0 && current >= max) return;
+            if (!size.compareAndSet(current, current + 1)) continue;
+            try {
+                long start = System.currentTimeMillis();
+                InternalDbConnection con = getProvider().createConnection();
+                if (con == null) {
+                    size.decrementAndGet();
+                    return;
+                }
+                recordCreateTime(System.currentTimeMillis() - start);
+                con.setPool(this);
+                PoolEntry entry = new PoolEntry(con);
+                entry.state.set(FREE);
+                index.put(con, entry);
+                entries.add(entry);
+                idle++;
+            } catch (Throwable t) {
+                size.decrementAndGet();
+                log().w(getName(), "prewarm failed", t);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        log().t(getName(), "close");
+        closed = true;
+        for (PoolEntry entry : entries) remove(entry);
+    }
+
+    @Override
+    @JmxManaged(descrition = "Return the usage of the connections")
+    public String dumpUsage(boolean used) {
+        StringBuilder out = new StringBuilder();
+        for (ConnectionTrace trace : getStackTraces().values()) {
+            out.append(trace.toString()).append("\n");
+        }
+        return out.toString();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public String toString() {
+        return MSystem.toString(this, closed ? -1 : entries.size());
+    }
+
+    private static class PoolEntry {
+
+        private final InternalDbConnection con;
+        private final AtomicInteger state = new AtomicInteger(USED);
+
+        private PoolEntry(InternalDbConnection con) {
+            this.con = con;
+        }
+    }
+}
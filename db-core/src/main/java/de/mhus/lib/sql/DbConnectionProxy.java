@@ -40,8 +40,8 @@ public class DbConnectionProxy extends MObject implements DbConnection {
     private DbPool pool;
 
     public DbConnectionProxy(DbPool pool, DbConnection instance) {
+        this.pool = pool;
         if (CFG_TRACE_CALLER.value()) {
-            this.pool = pool;
             pool.getStackTraces().put(MSystem.getObjectId(this), new ConnectionTrace(this));
             //			instance.setUsedTrace(createStackTrace);
         }
@@ -85,7 +85,11 @@ public class DbConnectionProxy extends MObject implements DbConnection {
     public void setUsed(boolean used) {
         if (instance == null) return;
         instance.setUsed(used);
-        if (!used) instance = null; // invalidate this proxy
+        if (!used) {
+            DbConnection con = instance;
+            instance = null; // invalidate this proxy
+            if (pool != null) pool.connectionReleased(con);
+        }
     }
 
     @Override
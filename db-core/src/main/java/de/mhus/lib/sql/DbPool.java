@@ -15,10 +15,14 @@
  */
 package de.mhus.lib.sql;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import de.mhus.lib.annotations.adb.DbTransactionable;
 import de.mhus.lib.annotations.jmx.JmxManaged;
@@ -27,7 +31,9 @@ import de.mhus.lib.core.MActivator;
 import de.mhus.lib.core.MApi;
 import de.mhus.lib.core.MHousekeeper;
 import de.mhus.lib.core.MHousekeeperTask;
+import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.cfg.CfgTimeInterval;
 import de.mhus.lib.core.jmx.MJmx;
 import de.mhus.lib.core.node.INode;
@@ -44,6 +50,21 @@ import de.mhus.lib.errors.MException;
 @JmxManaged(descrition = "Database pool")
 public abstract class DbPool extends MJmx implements DbTransactionable {
 
+    public static final String TYPE_DEFAULT = "default";
+    public static final String TYPE_PSEUDO = "pseudo";
+    public static final String TYPE_CONCURRENT = "concurrent";
+
+    // pool defaults, a maximum size of 0 is unlimited
+    protected static final CfgInt CFG_MAX_SIZE = new CfgInt(DbPool.class, "maxPoolSize", 0);
+    protected static final CfgInt CFG_MIN_SIZE = new CfgInt(DbPool.class, "minPoolSize", 0);
+    protected static final CfgInt CFG_MIN_IDLE = new CfgInt(DbPool.class, "minIdlePoolSize", 0);
+    protected static final CfgBoolean CFG_VALIDATE =
+            new CfgBoolean(DbPool.class, "validateConnections", false);
+    protected static final CfgInt CFG_VALIDATE_TIMEOUT =
+            new CfgInt(DbPool.class, "validateTimeout", 5);
+    protected static final CfgTimeInterval CFG_ACQUIRE_TIMEOUT =
+            new CfgTimeInterval(DbPool.class, "acquireTimeout", "30s");
+
     // Trace parameters
     private Map<String, ConnectionTrace> stackTraces = new HashMap<>();
     private long lastStackTracePrint = 0;
@@ -66,6 +87,24 @@ public abstract class DbPool extends MJmx implements DbTransactionable {
     private INode config;
     private MHousekeeperTask housekeeperTask;
 
+    private AtomicLong statementCacheHits = new AtomicLong();
+    private AtomicLong statementCacheMisses = new AtomicLong();
+    private AtomicLong statementCacheEvictions = new AtomicLong();
+
+    // wait and create statistics, the last wait times are kept for percentiles
+    private static final int WAIT_SAMPLES = 1024;
+    private AtomicInteger waiters = new AtomicInteger();
+    private AtomicLong acquireCount = new AtomicLong();
+    private AtomicLong waitTimeTotal = new AtomicLong();
+    private AtomicLong waitTimeMax = new AtomicLong();
+    private AtomicLongArray waitSamples = new AtomicLongArray(WAIT_SAMPLES);
+    private AtomicLong createCount = new AtomicLong();
+    private AtomicLong createTimeTotal = new AtomicLong();
+    private AtomicLong createTimeMax = new AtomicLong();
+    private AtomicLong acquireTimeouts = new AtomicLong();
+    private AtomicLong rollbacksIssued = new AtomicLong();
+    private AtomicLong rollbacksSkipped = new AtomicLong();
+
     /**
      * Create a new pool from central configuration. It's used the MApi configuration with the key
      * of this class.
@@ -126,6 +165,13 @@ public abstract class DbPool extends MJmx implements DbTransactionable {
                             log().t(DbPool.this.getName(), "autoCleanup connections");
                             cleanup(autoCleanupUnused.value());
                         }
+                        if (!isClosed() && isValidateConnections()) {
+                            log().t(DbPool.this.getName(), "validate connections");
+                            validateConnections(getValidateTimeout());
+                        }
+                        if (!isClosed() && getMinIdle() > 0) {
+                            prewarm(getMinIdle());
+                        }
                         if (isClosed()) cancel();
                     }
                 };
@@ -260,6 +306,147 @@ public abstract class DbPool extends MJmx implements DbTransactionable {
 
     public abstract boolean isClosed();
 
+    /**
+     * Called by the connection proxy after the connection was given back.
+     *
+     * @param con The internal connection
+     */
+    protected void connectionReleased(DbConnection con) {}
+
+    /**
+     * Maximum amount of connections in the pool. Configured with 'maxSize' in the pool
+     * configuration.
+     *
+     * @return x Maximum size or 0 for unlimited
+     */
+    @JmxManaged(descrition = "Maximum size of the pool")
+    public int getMaxSize() {
+        return getConfig().getInt("maxSize", CFG_MAX_SIZE.value());
+    }
+
+    /**
+     * Minimum amount of connections the cleanup will keep open. Configured with 'minSize' in the
+     * pool configuration.
+     *
+     * @return x Minimum size
+     */
+    @JmxManaged(descrition = "Minimum size of the pool")
+    public int getMinSize() {
+        return getConfig().getInt("minSize", CFG_MIN_SIZE.value());
+    }
+
+    /**
+     * Amount of unused connections the housekeeper will create in advance. Configured with
+     * 'minIdle' in the pool configuration.
+     *
+     * @return x Minimum idle connections
+     */
+    @JmxManaged(descrition = "Minimum unused connections created in advance")
+    public int getMinIdle() {
+        return getConfig().getInt("minIdle", CFG_MIN_IDLE.value());
+    }
+
+    /**
+     * Returns true if the housekeeper should validate unused connections. Configured with
+     * 'validateConnections' in the pool configuration.
+     *
+     * @return x
+     */
+    @JmxManaged(descrition = "Validate unused connections in background")
+    public boolean isValidateConnections() {
+        return getConfig().getBoolean("validateConnections", CFG_VALIDATE.value());
+    }
+
+    /**
+     * Timeout for the validation of a connection in seconds.
+     *
+     * @return x
+     */
+    public int getValidateTimeout() {
+        return getConfig().getInt("validateTimeout", CFG_VALIDATE_TIMEOUT.value());
+    }
+
+    /**
+     * Validate all unused connections and remove the invalid ones. Used connections are not
+     * touched. The default implementation does nothing.
+     *
+     * @param timeout Timeout in seconds for each connection
+     */
+    @JmxManaged(descrition = "Validate unused connections")
+    public void validateConnections(int timeout) {}
+
+    /**
+     * Create connections until the amount of unused connections reached minIdle. The maximum size
+     * of the pool is respected. The default implementation does nothing.
+     *
+     * @param minIdle Minimum unused connections
+     */
+    public void prewarm(int minIdle) {}
+
+    /**
+     * Time to wait for a free connection if the maximum size is reached. Configured with
+     * 'acquireTimeout' in the pool configuration, as milliseconds or interval like '30s'.
+     *
+     * @return x Timeout in milliseconds
+     */
+    @JmxManaged(descrition = "Maximum time to wait for a connection")
+    public long getAcquireTimeout() {
+        return MPeriod.toMilliseconds(
+                getConfig().getString("acquireTimeout", null), CFG_ACQUIRE_TIMEOUT.interval());
+    }
+
+    void statementCacheHit() {
+        statementCacheHits.incrementAndGet();
+    }
+
+    void statementCacheMiss() {
+        statementCacheMisses.incrementAndGet();
+    }
+
+    void statementCacheEviction() {
+        statementCacheEvictions.incrementAndGet();
+    }
+
+    @JmxManaged(descrition = "Prepared statements reused from the connection caches")
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    @JmxManaged(descrition = "Prepared statements created because not found in the cache")
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    @JmxManaged(descrition = "Prepared statements closed because the cache was full")
+    public long getStatementCacheEvictions() {
+        return statementCacheEvictions.get();
+    }
+
+    void rollbackIssued() {
+        rollbacksIssued.incrementAndGet();
+    }
+
+    void rollbackSkipped() {
+        rollbacksSkipped.incrementAndGet();
+    }
+
+    @JmxManaged(descrition = "Rollbacks executed while giving back a connection")
+    public long getRollbacksIssued() {
+        return rollbacksIssued.get();
+    }
+
+    @JmxManaged(descrition = "Rollbacks skipped while giving back a connection, nothing to rollback")
+    public long getRollbacksSkipped() {
+        return rollbacksSkipped.get();
+    }
+
+    @JmxManaged(descrition = "Reset the statement cache counters")
+    public void resetStatementCacheStatistics() {
+        statementCacheHits.set(0);
+        statementCacheMisses.set(0);
+        statementCacheEvictions.set(0);
+    }
+
     public Map<String, ConnectionTrace> getStackTraces() {
         return stackTraces;
     }
@@ -278,6 +465,165 @@ public abstract class DbPool extends MJmx implements DbTransactionable {
         }
     }
 
+    protected void incrementWaiters() {
+        waiters.incrementAndGet();
+    }
+
+    protected void decrementWaiters() {
+        waiters.decrementAndGet();
+    }
+
+    /**
+     * Record the time a thread waited for a connection. Call it for every successful acquire, also
+     * if the thread was not waiting.
+     *
+     * @param time Wait time in milliseconds
+     */
+    protected void recordWaitTime(long time) {
+        long cnt = acquireCount.getAndIncrement();
+        waitTimeTotal.addAndGet(time);
+        waitTimeMax.accumulateAndGet(time, Math::max);
+        waitSamples.set((int) (cnt % WAIT_SAMPLES), time);
+    }
+
+    /**
+     * Record the time needed to create a new physical connection.
+     *
+     * @param time Create time in milliseconds
+     */
+    protected void recordCreateTime(long time) {
+        createCount.incrementAndGet();
+        createTimeTotal.addAndGet(time);
+        createTimeMax.accumulateAndGet(time, Math::max);
+    }
+
+    protected void recordAcquireTimeout() {
+        acquireTimeouts.incrementAndGet();
+    }
+
+    @JmxManaged(descrition = "Current threads waiting for a connection")
+    public int getWaiters() {
+        return waiters.get();
+    }
+
+    @JmxManaged(descrition = "Amount of acquired connections")
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    @JmxManaged(descrition = "Amount of acquire requests failed with a timeout")
+    public long getAcquireTimeouts() {
+        return acquireTimeouts.get();
+    }
+
+    @JmxManaged(descrition = "Average wait time for a connection in milliseconds")
+    public long getWaitTimeAverage() {
+        long cnt = acquireCount.get();
+        return cnt == 0 ? 0 : waitTimeTotal.get() / cnt;
+    }
+
+    @JmxManaged(descrition = "Maximum wait time for a connection in milliseconds")
+    public long getWaitTimeMax() {
+        return waitTimeMax.get();
+    }
+
+    @JmxManaged(descrition = "Median wait time of the last acquired connections")
+    public long getWaitTime50() {
+        return getWaitTimePercentile(50);
+    }
+
+    @JmxManaged(descrition = "95 percentile wait time of the last acquired connections")
+    public long getWaitTime95() {
+        return getWaitTimePercentile(95);
+    }
+
+    @JmxManaged(descrition = "99 percentile wait time of the last acquired connections")
+    public long getWaitTime99() {
+        return getWaitTimePercentile(99);
+    }
+
+    /**
+     * Returns the percentile of the last WAIT_SAMPLES wait times.
+     *
+     * @param percentile Between 0 and 100
+     * @return x Wait time in milliseconds
+     */
+    public long getWaitTimePercentile(int percentile) {
+        int cnt = (int) Math.min(acquireCount.get(), WAIT_SAMPLES);
+        if (cnt == 0) return 0;
+        long[] samples = new long[cnt];
+        for (int i = 0; i < cnt; i++) samples[i] = waitSamples.get(i);
+        Arrays.sort(samples);
+        int pos = (int) Math.ceil(percentile / 100.0 * cnt) - 1;
+        return samples[Math.max(0, Math.min(cnt - 1, pos))];
+    }
+
+    @JmxManaged(descrition = "Amount of created physical connections")
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+    @JmxManaged(descrition = "Average time to create a connection in milliseconds")
+    public long getCreateTimeAverage() {
+        long cnt = createCount.get();
+        return cnt == 0 ? 0 : createTimeTotal.get() / cnt;
+    }
+
+    @JmxManaged(descrition = "Maximum time to create a connection in milliseconds")
+    public long getCreateTimeMax() {
+        return createTimeMax.get();
+    }
+
+    @JmxManaged(descrition = "Reset the wait and create statistics")
+    public void resetPoolStatistics() {
+        for (int i = 0; i < WAIT_SAMPLES; i++) waitSamples.set(i, 0);
+        acquireCount.set(0);
+        acquireTimeouts.set(0);
+        waitTimeTotal.set(0);
+        waitTimeMax.set(0);
+        createCount.set(0);
+        createTimeTotal.set(0);
+        createTimeMax.set(0);
+    }
+
+    /**
+     * Create a pool of the given type. The type can be one of TYPE_DEFAULT, TYPE_PSEUDO,
+     * TYPE_CONCURRENT or the canonical name of a DbPool implementation.
+     *
+     * @param type The type or null for the default pool
+     * @param config Config element or null
+     * @param activator Activator or null
+     * @return The new pool
+     * @throws Exception
+     */
+    public static DbPool create(String type, INode config, MActivator activator)
+            throws Exception {
+        if (type == null || TYPE_DEFAULT.equals(type))
+            return new DefaultDbPool(config, activator);
+        if (TYPE_PSEUDO.equals(type)) return new PseudoDbPool(config, activator);
+        if (TYPE_CONCURRENT.equals(type)) return new ConcurrentDbPool(config, activator);
+        return (DbPool)
+                Class.forName(type)
+                        .getConstructor(INode.class, MActivator.class)
+                        .newInstance(config, activator);
+    }
+
+    /**
+     * Create a pool of the given type for the provider.
+     *
+     * @param type The type or null for the default pool
+     * @param provider The provider
+     * @return The new pool
+     * @throws Exception
+     */
+    public static DbPool create(String type, DbProvider provider) throws Exception {
+        if (type == null || TYPE_DEFAULT.equals(type)) return new DefaultDbPool(provider);
+        if (TYPE_PSEUDO.equals(type)) return new PseudoDbPool(provider);
+        if (TYPE_CONCURRENT.equals(type)) return new ConcurrentDbPool(provider);
+        return (DbPool)
+                Class.forName(type).getConstructor(DbProvider.class).newInstance(provider);
+    }
+
     @Override
     public DbConnection createTransactionalConnection() {
         try {
@@ -77,7 +77,11 @@ public class DbPoolBundle extends MObject {
             if (pool == null) {
                 INode poolCon = config.getObject(name);
                 if (poolCon != null) {
-                    pool = new DefaultDbPool(poolCon, activator);
+                    pool =
+                            DbPool.create(
+                                    poolCon.getString("poolType", DbPool.TYPE_DEFAULT),
+                                    poolCon,
+                                    activator);
                     bundle.put(name, pool);
                 } else {
                     throw new MException(RC.ERROR, "config for pool {1} not found", name);
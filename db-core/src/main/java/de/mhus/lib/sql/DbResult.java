@@ -33,6 +33,9 @@ import de.mhus.lib.core.MDate;
  */
 public abstract class DbResult implements MCloseable {
 
+    private Object mappingKey;
+    private Object mapping;
+
     /**
      * getString.
      *
@@ -165,4 +168,76 @@ public abstract class DbResult implements MCloseable {
      * @throws Exception
      */
     public abstract BigDecimal getBigDecimal(String columnLabel) throws Exception;
+
+    /**
+     * Returns the index of the column, the first column is 1. The default implementation searches
+     * the column names, implementations should overwrite it and resolve the label from the meta
+     * data.
+     *
+     * @param columnLabel The label of the column
+     * @return The index or 0 if the column is not known
+     * @throws Exception
+     */
+    public int findColumn(String columnLabel) throws Exception {
+        int index = 1;
+        for (String name : getColumnNames()) {
+            if (name.equalsIgnoreCase(columnLabel)) return index;
+            index++;
+        }
+        return 0;
+    }
+
+    /**
+     * Return the mapping plan attached for the key or null. The mapping is used to resolve the
+     * column indexes of a table only once for the result.
+     *
+     * @param key The owner of the mapping
+     * @return The mapping or null
+     */
+    public Object getMapping(Object key) {
+        return key == mappingKey ? mapping : null;
+    }
+
+    public void setMapping(Object key, Object mapping) {
+        this.mappingKey = key;
+        this.mapping = mapping;
+    }
+
+    // index based access, the default implementations are using the column names
+
+    public String getString(int columnIndex) throws Exception {
+        return getString(getColumnNames().get(columnIndex - 1));
+    }
+
+    public boolean getBoolean(int columnIndex) throws Exception {
+        return getBoolean(getColumnNames().get(columnIndex - 1));
+    }
+
+    public int getInt(int columnIndex) throws Exception {
+        return getInt(getColumnNames().get(columnIndex - 1));
+    }
+
+    public long getLong(int columnIndex) throws Exception {
+        return getLong(getColumnNames().get(columnIndex - 1));
+    }
+
+    public float getFloat(int columnIndex) throws Exception {
+        return getFloat(getColumnNames().get(columnIndex - 1));
+    }
+
+    public double getDouble(int columnIndex) throws Exception {
+        return getDouble(getColumnNames().get(columnIndex - 1));
+    }
+
+    public BigDecimal getBigDecimal(int columnIndex) throws Exception {
+        return getBigDecimal(getColumnNames().get(columnIndex - 1));
+    }
+
+    public Timestamp getTimestamp(int columnIndex) throws Exception {
+        return getTimestamp(getColumnNames().get(columnIndex - 1));
+    }
+
+    public InputStream getBinaryStream(int columnIndex) throws Exception {
+        return getBinaryStream(getColumnNames().get(columnIndex - 1));
+    }
 }
@@ -16,6 +16,7 @@
 package de.mhus.lib.sql;
 
 import java.sql.SQLException;
+import java.util.LinkedList;
 import java.util.Map;
 
 import de.mhus.lib.core.util.MObject;
@@ -29,6 +30,9 @@ public abstract class DbStatement extends MObject {
 
     public static final String RETURN_BINARY_KEY = "return_binary_attribute_";
 
+    private LinkedList<Integer> batchResults;
+    private int fetchSize;
+
     @Override
     protected void finalize() throws Throwable {
         close();
@@ -57,6 +61,26 @@ public abstract class DbStatement extends MObject {
      */
     public abstract DbResult executeQuery(Map<String, Object> attributes) throws Exception;
 
+    /**
+     * Set the number of rows fetched from the database in one round trip. A value greater than
+     * zero switches executeQuery() to streaming mode: The result is read with a forward-only,
+     * read-only cursor and the driver should not buffer the whole result in memory. Zero uses the
+     * default of the driver.
+     *
+     * @param fetchSize The fetch size or 0
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public boolean isStreaming() {
+        return fetchSize > 0;
+    }
+
     /**
      * Return the result of an update query. In the attributes InputStreams are allowed (blobs).
      *
@@ -66,6 +90,34 @@ public abstract class DbStatement extends MObject {
      */
     public abstract int executeUpdate(Map<String, Object> attributes) throws Exception;
 
+    /**
+     * Add an update query to the batch of this statement. The default implementation executes the
+     * query directly and collects the results.
+     *
+     * @param attributes
+     * @throws Exception
+     */
+    public void addBatch(Map<String, Object> attributes) throws Exception {
+        if (batchResults == null) batchResults = new LinkedList<>();
+        batchResults.add(executeUpdate(attributes));
+    }
+
+    /**
+     * Execute all queries added with addBatch and return the update counts in the order of
+     * addBatch.
+     *
+     * @return x Update counts
+     * @throws Exception
+     */
+    public int[] executeBatch() throws Exception {
+        if (batchResults == null) return new int[0];
+        int[] out = new int[batchResults.size()];
+        int i = 0;
+        for (Integer r : batchResults) out[i++] = r;
+        batchResults = null;
+        return out;
+    }
+
     /**
      * Return the used connection.
      *
@@ -15,13 +15,19 @@
  */
 package de.mhus.lib.sql;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import de.mhus.lib.annotations.jmx.JmxManaged;
+import de.mhus.lib.basics.RC;
 import de.mhus.lib.core.MActivator;
 import de.mhus.lib.core.MSystem;
 import de.mhus.lib.core.node.INode;
+import de.mhus.lib.errors.MException;
 
 /**
  * The pool handles a bundle of connections. The connections should have the same credentials (url,
@@ -33,6 +39,11 @@ import de.mhus.lib.core.node.INode;
 public class DefaultDbPool extends DbPool {
 
     private List<InternalDbConnection> pool = new LinkedList<InternalDbConnection>();
+    // unused connections reserved by the validation and connections in creation by prewarm,
+    // guarded by pool
+    private Set<InternalDbConnection> validating =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    private int creating;
 
     /**
      * Create a new pool from central configuration. It's used the MApi configuration with the key
@@ -67,26 +78,68 @@ public class DefaultDbPool extends DbPool {
     /**
      * {@inheritDoc}
      *
-     * <p>Look into the pool for an unused DbProvider. If no one find, create one.
+     * <p>Look into the pool for an unused DbProvider. If no one find, create one. If the maximum
+     * size of the pool is reached wait until a connection is given back or the acquire timeout is
+     * reached.
      */
     @Override
     public DbConnection getConnection() throws Exception {
         log().t(getName(), "getConnection");
-        boolean foundClosed = false;
+        List<InternalDbConnection> pool = this.pool;
+        if (pool == null) throw new MException(RC.CONFLICT, "Pool is closed", getName());
+        long start = System.currentTimeMillis();
+        boolean waiting = false;
         try {
             synchronized (pool) {
-                for (InternalDbConnection con : pool) {
-                    if (con.isClosed() || con.checkTimedOut()) {
-                        foundClosed = true;
-                    } else if (!con.isUsed()) {
-                        con.setUsed(true);
-                        return new DbConnectionProxy(this, con);
+                while (true) {
+                    Iterator<InternalDbConnection> iter = pool.iterator();
+                    while (iter.hasNext()) {
+                        InternalDbConnection con = iter.next();
+                        if (con.isClosed() || con.checkTimedOut()) {
+                            con.close();
+                            iter.remove();
+                        } else if (!con.isUsed() && !validating.contains(con)) {
+                            con.setUsed(true);
+                            recordWaitTime(System.currentTimeMillis() - start);
+                            return new DbConnectionProxy(this, con);
+                        }
                     }
+                    int max = getMaxSize();
+                    if (max <= 0 || pool.size() + creating < max) {
+                        DbConnection con = createConnection();
+                        if (con != null) recordWaitTime(System.currentTimeMillis() - start);
+                        return con;
+                    }
+                    if (isClosed()) throw new MException(RC.CONFLICT, "Pool is closed", getName());
+                    long wait = start + getAcquireTimeout() - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        recordAcquireTimeout();
+                        throw new MException(
+                                RC.TIMEOUT,
+                                "Timeout waiting for a connection",
+                                getName(),
+                                pool.size(),
+                                getAcquireTimeout());
+                    }
+                    if (!waiting) {
+                        waiting = true;
+                        incrementWaiters();
+                        if (tracePoolSize.value()) log().d("Pool exhausted, waiting", max);
+                    }
+                    pool.wait(wait);
                 }
-                return createConnection();
             }
         } finally {
-            if (foundClosed) cleanup(false);
+            if (waiting) decrementWaiters();
+        }
+    }
+
+    @Override
+    protected void connectionReleased(DbConnection con) {
+        List<InternalDbConnection> pool = this.pool;
+        if (pool == null) return;
+        synchronized (pool) {
+            pool.notify();
         }
     }
 
@@ -98,8 +151,10 @@ public class DefaultDbPool extends DbPool {
      */
     protected DbConnection createConnection() throws Exception {
         try {
+            long start = System.currentTimeMillis();
             InternalDbConnection con = getProvider().createConnection();
             if (con == null) return null;
+            recordCreateTime(System.currentTimeMillis() - start);
             con.setPool(this);
             pool.add(con);
             if (tracePoolSize.value()) log().d("Create DB Connection", pool.size());
@@ -117,6 +172,88 @@ public class DefaultDbPool extends DbPool {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The unused connections are validated one by one. The validated connection stays in the
+     * pool but is reserved, so the pool is not locked during the validation and the size of the
+     * pool is not changed.
+     */
+    @Override
+    public void validateConnections(int timeout) {
+        List<InternalDbConnection> pool = this.pool;
+        if (pool == null) return;
+        Set<InternalDbConnection> checked = Collections.newSetFromMap(new IdentityHashMap<>());
+        int invalid = 0;
+        while (true) {
+            InternalDbConnection con = null;
+            synchronized (pool) {
+                if (isClosed()) break;
+                for (InternalDbConnection c : pool) {
+                    if (!c.isUsed() && !checked.contains(c)) {
+                        con = c;
+                        break;
+                    }
+                }
+                if (con == null) break;
+                checked.add(con);
+                validating.add(con);
+            }
+            boolean valid = con.validate(timeout);
+            synchronized (pool) {
+                validating.remove(con);
+                if (!valid) {
+                    pool.remove(con);
+                    invalid++;
+                }
+                pool.notifyAll();
+            }
+        }
+        if (invalid > 0) log().i(getName(), "removed invalid connections", invalid);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The connections are created one by one without locking the pool.
+     */
+    @Override
+    public void prewarm(int minIdle) {
+        List<InternalDbConnection> pool = this.pool;
+        if (pool == null) return;
+        int max = getMaxSize();
+        while (true) {
+            synchronized (pool) {
+                if (isClosed()) return;
+                int idle = creating;
+                for (InternalDbConnection con : pool) if (!con.isUsed() && !con.isClosed()) idle++;
+                if (idle >= minIdle || max > 0 && pool.size() + creating >= max) return;
+                creating++;
+            }
+            InternalDbConnection con = null;
+            try {
+                long start = System.currentTimeMillis();
+                con = getProvider().createConnection();
+                if (con != null) {
+                    recordCreateTime(System.currentTimeMillis() - start);
+                    con.setPool(this);
+                }
+            } catch (Throwable t) {
+                log().w(getName(), "prewarm failed", t);
+            } finally {
+                synchronized (pool) {
+                    creating--;
+                    if (con != null) {
+                        if (isClosed()) con.close();
+                        else pool.add(con);
+                    }
+                    pool.notifyAll();
+                }
+            }
+            if (con == null) return;
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -146,19 +283,23 @@ public class DefaultDbPool extends DbPool {
     /**
      * {@inheritDoc}
      *
-     * <p>Cleanup the connection pool. Unused or closed connections will be removed. TODO new
-     * strategy to remove unused connections - not prompt, need a timeout time or minimum pool size.
+     * <p>Cleanup the connection pool. Unused or closed connections will be removed. Unused
+     * connections are kept open up to the minimum size of the pool.
      */
     @Override
     @JmxManaged(descrition = "Cleanup unused connections")
     public void cleanup(boolean unusedAlso) {
         log().t(getName(), "cleanup");
+        List<InternalDbConnection> pool = this.pool;
+        if (pool == null) return;
         boolean removed = false;
+        int min = Math.max(getMinSize(), getMinIdle());
         synchronized (pool) {
             for (InternalDbConnection con : new LinkedList<InternalDbConnection>(pool)) {
                 try {
+                    if (validating.contains(con)) continue;
                     con.checkTimedOut();
-                    if (unusedAlso && !con.isUsed() || con.isClosed()) {
+                    if (unusedAlso && !con.isUsed() && pool.size() > min || con.isClosed()) {
                         con.close();
                         pool.remove(con);
                         removed = true;
@@ -166,7 +307,10 @@ public class DefaultDbPool extends DbPool {
                 } catch (Throwable t) {
                 } // for secure - do not impact the thread
             }
-            if (removed && tracePoolSize.value()) log().d("Pool cleanup", pool.size());
+            if (removed) {
+                pool.notifyAll();
+                if (tracePoolSize.value()) log().d("Pool cleanup", pool.size());
+            }
         }
     }
 
@@ -179,11 +323,14 @@ public class DefaultDbPool extends DbPool {
     public void close() {
         if (pool == null) return;
         log().t(getName(), "close");
+        List<InternalDbConnection> pool = this.pool;
+        if (pool == null) return;
         synchronized (pool) {
             for (DbConnection con : pool) {
                 con.close();
             }
-            pool = null;
+            this.pool = null;
+            pool.notifyAll();
         }
     }
 
@@ -15,8 +15,16 @@
  */
 package de.mhus.lib.sql;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Calendar;
@@ -25,6 +33,7 @@ import java.util.Date;
 import de.mhus.lib.adb.query.AQueryCreator;
 import de.mhus.lib.annotations.adb.DbType;
 import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.M;
 import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MDate;
 import de.mhus.lib.core.MSql;
@@ -33,6 +42,7 @@ import de.mhus.lib.core.parser.Parser;
 import de.mhus.lib.core.parser.ParsingPart;
 import de.mhus.lib.core.util.MObject;
 import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.MRuntimeException;
 import de.mhus.lib.sql.commonparser.Common2SqlCompiler;
 import de.mhus.lib.sql.parser.FunctionPart;
 import de.mhus.lib.sql.parser.ICompiler;
@@ -91,6 +101,7 @@ public abstract class Dialect extends MObject implements ICompiler, AQueryCreato
 
     private Parser sqlParser = new SqlCompiler(this);
     private Parser commonParser = new Common2SqlCompiler(this);
+    protected boolean bindParameters = false;
 
     /**
      * Return the named type for a TYPE enum value. Use this function to be sure you have all hacks
@@ -394,10 +405,233 @@ public abstract class Dialect extends MObject implements ICompiler, AQueryCreato
         return null;
     }
 
+    /**
+     * Returns true if statements should send attribute values as JDBC bind parameters instead of
+     * inlined literals. This allows the database to reuse the execution plan.
+     *
+     * @return x
+     */
+    public boolean isBindParameters() {
+        return bindParameters;
+    }
+
+    public void setBindParameters(boolean bindParameters) {
+        this.bindParameters = bindParameters;
+    }
+
+    /**
+     * Set a bind parameter to the prepared statement. The type is the attribute type of the
+     * parameter definition (M.TYPE_*) and is null for streams.
+     *
+     * @param sth
+     * @param index
+     * @param value
+     * @param type
+     * @throws SQLException
+     */
+    public void bindParameter(PreparedStatement sth, int index, Object value, String type)
+            throws SQLException {
+        if (value == null) {
+            sth.setNull(index, Types.NULL);
+        } else if (value instanceof InputStream) {
+            sth.setBinaryStream(index, (InputStream) value);
+        } else if (M.TYPE_INT.equals(type)) {
+            if (value instanceof Enum) sth.setInt(index, ((Enum<?>) value).ordinal());
+            else if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+                sth.setInt(index, ((Number) value).intValue());
+            else sth.setLong(index, toLongValue(value));
+        } else if (M.TYPE_LONG.equals(type)) {
+            sth.setLong(index, toLongValue(value));
+        } else if (M.TYPE_FLOAT.equals(type) || M.TYPE_DOUBLE.equals(type)) {
+            if (value instanceof Number) sth.setDouble(index, ((Number) value).doubleValue());
+            else sth.setDouble(index, toDoubleValue(value));
+        } else if (M.TYPE_DATE.equals(type)) {
+            Date date = toDateValue(value);
+            if (date == null) sth.setNull(index, Types.TIMESTAMP);
+            else sth.setTimestamp(index, new Timestamp(date.getTime()));
+        } else if (M.TYPE_BOOL.equals(type)) {
+            sth.setInt(index, MCast.toboolean(value.toString(), false) ? 1 : 0);
+        } else {
+            sth.setString(index, String.valueOf(value));
+        }
+    }
+
+    protected long toLongValue(Object value) {
+        if (value instanceof Date) return ((Date) value).getTime();
+        if (value instanceof Calendar) return ((Calendar) value).getTimeInMillis();
+        if (value instanceof Number) return ((Number) value).longValue();
+        return MCast.tolong(value, 0);
+    }
+
+    protected double toDoubleValue(Object value) {
+        if (value instanceof Date) return ((Date) value).getTime();
+        if (value instanceof Calendar) return ((Calendar) value).getTimeInMillis();
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        return MCast.todouble(value, 0);
+    }
+
+    protected Date toDateValue(Object value) {
+        if (value instanceof Calendar) return ((Calendar) value).getTime();
+        if (value instanceof Date) return (Date) value;
+        if (value instanceof LocalDateTime) return MDate.toDate((LocalDateTime) value, null);
+        if (value instanceof LocalDate) return MDate.toDate((LocalDate) value, null);
+        if (value instanceof Number) return new Date(((Number) value).longValue());
+        return MCast.toDate(value, null);
+    }
+
     public void prepareConnection(Connection con) throws SQLException {
         con.setAutoCommit(false);
     }
 
+    /**
+     * Return true if a connection with only read queries since the last commit can be given back
+     * to the pool without rollback. The open transaction must not hold a snapshot or locks, by
+     * default this is the case up to isolation level READ COMMITTED.
+     *
+     * @param con The connection
+     * @return true if the rollback can be skipped
+     * @throws SQLException
+     */
+    public boolean isReadTransactionReleasable(Connection con) throws SQLException {
+        return con.getTransactionIsolation() <= Connection.TRANSACTION_READ_COMMITTED;
+    }
+
+    /**
+     * Returns a query to check the connection or null to use the JDBC isValid() check.
+     *
+     * @return The query or null
+     */
+    public String getValidationQuery() {
+        return null;
+    }
+
+    /**
+     * Check if the connection is still usable. The connection must not be in use by others.
+     *
+     * @param con The connection
+     * @param timeout Timeout in seconds
+     * @return true if the connection is valid
+     * @throws SQLException
+     */
+    public boolean validateConnection(Connection con, int timeout) throws SQLException {
+        String query = getValidationQuery();
+        if (query == null) return con.isValid(timeout);
+        try (Statement sth = con.createStatement()) {
+            sth.setQueryTimeout(timeout);
+            sth.execute(query);
+        }
+        if (!con.getAutoCommit()) con.rollback();
+        return true;
+    }
+
+    /**
+     * Prepare a forward-only, read-only statement to stream the result. The default sets the fetch
+     * size, overwrite it if the driver needs special handling.
+     *
+     * @param sth The statement
+     * @param fetchSize The requested fetch size, greater than zero
+     * @throws SQLException
+     */
+    public void prepareStreaming(Statement sth, int fetchSize) throws SQLException {
+        sth.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Return true if the database supports named locks by acquireLock() and releaseLock(). The
+     * locks are bound to the connection, the database releases them if the connection is lost.
+     *
+     * @return true if supported
+     */
+    public boolean isLockSupported() {
+        return false;
+    }
+
+    /**
+     * Return true if one connection can hold several named locks and release them one by one.
+     * Otherwise every lock needs its own connection, e.g. row locks are released with the
+     * transaction of the connection.
+     *
+     * @return true if the locks can share a connection
+     */
+    public boolean isLockConnectionShared() {
+        return false;
+    }
+
+    /**
+     * Create the structure needed for named locks, e.g. a lock table.
+     *
+     * @param con The connection
+     * @param tableOrg Original name of the lock table, not used by all dialects
+     * @throws Exception
+     */
+    public void createLockStructure(DbConnection con, String tableOrg) throws Exception {}
+
+    /**
+     * Acquire the named lock and wait until the lock is granted or the timeout is reached. The
+     * waiting is done by the database. The connection is held until the lock is released, it's
+     * exclusive for this lock unless isLockConnectionShared() returns true.
+     *
+     * @param con The connection
+     * @param tableOrg Original name of the lock table, not used by all dialects
+     * @param name The name of the lock
+     * @param timeout Timeout in milliseconds
+     * @return true if the lock is granted, false if the timeout is reached
+     * @throws Exception
+     */
+    public boolean acquireLock(DbConnection con, String tableOrg, String name, long timeout)
+            throws Exception {
+        throw new MException(RC.NOT_SUPPORTED, "database locks not supported", getClass());
+    }
+
+    /**
+     * Release the named lock acquired with the same connection.
+     *
+     * @param con The connection
+     * @param tableOrg Original name of the lock table, not used by all dialects
+     * @param name The name of the lock
+     * @throws Exception
+     */
+    public void releaseLock(DbConnection con, String tableOrg, String name) throws Exception {
+        throw new MException(RC.NOT_SUPPORTED, "database locks not supported", getClass());
+    }
+
+    /**
+     * Return true if the exception is thrown because the lock wait timeout is reached.
+     *
+     * @param e The exception thrown by the database
+     * @return true for a lock timeout
+     */
+    protected boolean isLockTimeout(SQLException e) {
+        return false;
+    }
+
+    protected boolean isLockTimeout(Throwable t) {
+        for (; t != null; t = t.getCause())
+            if (t instanceof SQLException && isLockTimeout((SQLException) t)) return true;
+        return false;
+    }
+
+    /**
+     * Return a fixed size id for the lock name, it's the hex encoded MD5 hash of the name.
+     *
+     * @param name The name of the lock
+     * @return 32 hex characters
+     */
+    protected static String toLockId(String name) {
+        try {
+            byte[] hash =
+                    MessageDigest.getInstance("MD5").digest(name.getBytes(StandardCharsets.UTF_8));
+            StringBuilder out = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                out.append(Character.forDigit((b >> 4) & 0xf, 16));
+                out.append(Character.forDigit(b & 0xf, 16));
+            }
+            return out.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new MRuntimeException(RC.ERROR, "MD5 not found", e);
+        }
+    }
+
     public static Dialect findDialect(String driver) {
         Dialect dialect = null;
         if (driver != null) {
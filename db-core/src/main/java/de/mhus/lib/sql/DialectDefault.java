@@ -20,8 +20,10 @@ import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 
 import de.mhus.lib.adb.DbManager;
@@ -45,10 +47,13 @@ import de.mhus.lib.adb.query.AOrder;
 import de.mhus.lib.adb.query.APart;
 import de.mhus.lib.adb.query.APrint;
 import de.mhus.lib.adb.query.AQuery;
+import de.mhus.lib.adb.query.ASeek;
 import de.mhus.lib.adb.query.ASubQuery;
 import de.mhus.lib.core.MSql;
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.node.INode;
+import de.mhus.lib.core.node.MNode;
+import de.mhus.lib.core.node.NodeList;
 import de.mhus.lib.errors.NotSupportedException;
 
 /**
@@ -61,6 +66,11 @@ import de.mhus.lib.errors.NotSupportedException;
  */
 public class DialectDefault extends Dialect {
 
+    // the database supports row value comparisons like (a,b) > (1,2)
+    protected boolean rowValues = false;
+    // named locks by SELECT ... FOR UPDATE on the rows of a lock table
+    protected boolean rowLocks = false;
+
     /**
      * Create or Update the defined tables. The config object need a bundle of 'table'
      * configurations which define the needed table structure. Example: [config] [table name='table
@@ -735,10 +745,7 @@ public class DialectDefault extends Dialect {
         } else if (p instanceof AFix) {
             buffer.append(((AFix) p).getValue());
         } else if (p instanceof ALimit) {
-            buffer.append(" LIMIT ")
-                    .append(((ALimit) p).getOffset())
-                    .append(",")
-                    .append(((ALimit) p).getLimit()); // mysql specific !!
+            createLimit((ALimit) p, buffer);
         } else if (p instanceof AList) {
             buffer.append('(');
             boolean first = true;
@@ -799,11 +806,188 @@ public class DialectDefault extends Dialect {
                             qualification));
 
             buffer.append(")");
+        } else if (p instanceof ASeek) {
+            createSeek((ASeek) p, query, buffer);
         } else throw new NotSupportedException(p.getClass());
     }
 
+    /**
+     * Render the paging of the result. The default is the SQL standard OFFSET ... FETCH syntax.
+     * The offset and limit are rendered as attributes to bind them as parameters.
+     *
+     * @param limit The limit operation
+     * @param buffer The output
+     */
+    protected void createLimit(ALimit limit, StringBuilder buffer) {
+        buffer.append(" OFFSET $").append(limit.getOffsetName()).append(",int$ ROWS");
+        if (limit.hasLimit())
+            buffer.append(" FETCH NEXT $").append(limit.getLimitName()).append(",int$ ROWS ONLY");
+    }
+
+    /**
+     * Render the keyset condition. If all orders have the same direction and the database supports
+     * row values it's (a,b) &gt; (v1,v2), otherwise the expanded form (a &gt; v1 or (a = v1 and b
+     * &gt; v2)) is used.
+     *
+     * @param seek The seek operation
+     * @param query The query
+     * @param buffer The output
+     */
+    protected void createSeek(ASeek seek, AQuery<?> query, StringBuilder buffer) {
+        List<AOrder> orders = seek.getOrders();
+        List<ADynValue> values = seek.getValues();
+        if (orders.size() == 1 || (rowValues && seek.isUniform())) {
+            if (orders.size() > 1) buffer.append('(');
+            for (int i = 0; i < orders.size(); i++) {
+                if (i > 0) buffer.append(',');
+                createSeekAttribute(orders.get(i), query, buffer);
+            }
+            if (orders.size() > 1) buffer.append(')');
+            buffer.append(orders.get(0).isAsc() ? " > " : " < ");
+            if (orders.size() > 1) buffer.append('(');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) buffer.append(',');
+                createQuery(values.get(i), query);
+            }
+            if (orders.size() > 1) buffer.append(')');
+            return;
+        }
+        buffer.append('(');
+        for (int i = 0; i < orders.size(); i++) {
+            if (i > 0) buffer.append(" or ");
+            buffer.append('(');
+            for (int j = 0; j < i; j++) {
+                createSeekAttribute(orders.get(j), query, buffer);
+                buffer.append(" = ");
+                createQuery(values.get(j), query);
+                buffer.append(" and ");
+            }
+            createSeekAttribute(orders.get(i), query, buffer);
+            buffer.append(orders.get(i).isAsc() ? " > " : " < ");
+            createQuery(values.get(i), query);
+            buffer.append(')');
+        }
+        buffer.append(')');
+    }
+
+    private void createSeekAttribute(AOrder order, AQuery<?> query, StringBuilder buffer) {
+        DbManager manager = ((SqlDialectCreateContext) query.getContext()).getManager();
+        buffer.append("$db.")
+                .append(manager.getMappingName(order.getClazz()))
+                .append('.')
+                .append(order.getAttribute())
+                .append('$');
+    }
+
     @Override
     public String toBoolValue(boolean value) {
         return value ? "1" : "0";
     }
+
+    @Override
+    public boolean isLockSupported() {
+        return rowLocks;
+    }
+
+    @Override
+    public void createLockStructure(DbConnection con, String tableOrg) throws Exception {
+        if (!rowLocks) return;
+        INode cstr = new MNode();
+        INode ctable = cstr.createObject("table");
+        ctable.setProperty(K_NAME, tableOrg);
+        ctable.setProperty(K_PRIMARY_KEY, "lockid");
+        NodeList fields = ctable.createArray("field");
+        INode cfield = fields.createObject();
+        cfield.setProperty(K_NAME, "lockid");
+        cfield.setProperty(K_TYPE, "STRING");
+        cfield.setProperty(K_SIZE, "32");
+        cfield.setProperty(K_NOT_NULL, "yes");
+        cfield.setProperty(K_CATEGORIES, C_PRIMARY_KEY);
+        cstr.createArray("index");
+        createStructure(cstr, con, null, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The lock is the row of the lock name in the lock table, it's selected for update and held
+     * until the transaction of the connection is finished. The row is created by the first lock.
+     */
+    @Override
+    public boolean acquireLock(DbConnection con, String tableOrg, String name, long timeout)
+            throws Exception {
+        if (!rowLocks) return super.acquireLock(con, tableOrg, name, timeout);
+        String table = normalizeTableName(tableOrg);
+        String column = normalizeColumnName("lockid");
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("id", toLockId(name));
+        Long previous = setLockTimeout(con, timeout);
+        try {
+            if (selectLockRow(con, table, column, attributes)) return true;
+            DbStatement sth =
+                    con.createStatement(
+                            "INSERT INTO " + table + "(" + column + ") VALUES ($id$)");
+            try {
+                sth.executeUpdate(attributes);
+                con.commit();
+            } catch (Exception e) {
+                // created by a concurrent lock
+                log().d("lock row not created", name, e);
+                con.rollback();
+            } finally {
+                sth.close();
+            }
+            return selectLockRow(con, table, column, attributes);
+        } catch (Exception e) {
+            if (!isLockTimeout(e)) throw e;
+            con.rollback();
+            return false;
+        } finally {
+            if (previous != null) setLockTimeout(con, previous);
+        }
+    }
+
+    private boolean selectLockRow(
+            DbConnection con, String table, String column, Map<String, Object> attributes)
+            throws Exception {
+        DbStatement sth =
+                con.createStatement(
+                        "SELECT "
+                                + column
+                                + " FROM "
+                                + table
+                                + " WHERE "
+                                + column
+                                + "=$id$ FOR UPDATE");
+        try {
+            DbResult res = sth.executeQuery(attributes);
+            boolean found = res.next();
+            res.close();
+            return found;
+        } finally {
+            sth.close();
+        }
+    }
+
+    @Override
+    public void releaseLock(DbConnection con, String tableOrg, String name) throws Exception {
+        if (!rowLocks) {
+            super.releaseLock(con, tableOrg, name);
+            return;
+        }
+        // the row lock ends with the transaction
+        con.rollback();
+    }
+
+    /**
+     * Set the time the session waits for row locks. It must not finish the current transaction.
+     *
+     * @param con The connection
+     * @param timeout Timeout in milliseconds
+     * @return The previous timeout to set it back or null
+     * @throws Exception
+     */
+    protected Long setLockTimeout(DbConnection con, long timeout) throws Exception {
+        return null;
+    }
 }
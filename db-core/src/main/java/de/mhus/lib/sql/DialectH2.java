@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.errors.MException;
@@ -36,6 +37,12 @@ import de.mhus.lib.errors.MRuntimeException;
  */
 public class DialectH2 extends DialectDefault {
 
+    public DialectH2() {
+        bindParameters = true;
+        rowValues = true;
+        rowLocks = true;
+    }
+
     private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     /** {@inheritDoc} */
@@ -241,4 +248,31 @@ public class DialectH2 extends DialectDefault {
         // sth.execute("SET DATABASE TRANSACTION ROLLBACK ON DEADLOCK TRUE");
         sth.close();
     }
+
+    @Override
+    protected Long setLockTimeout(DbConnection con, long timeout) throws Exception {
+        long previous = 0;
+        DbStatement sth = con.createStatement("SELECT LOCK_TIMEOUT()");
+        try {
+            DbResult res = sth.executeQuery(new HashMap<>());
+            if (res.next()) previous = res.getLong(1);
+            res.close();
+        } finally {
+            sth.close();
+        }
+        // does not commit the transaction
+        sth = con.createStatement("SET LOCK_TIMEOUT " + Math.max(0, timeout));
+        try {
+            sth.execute(new HashMap<>());
+        } finally {
+            sth.close();
+        }
+        return previous;
+    }
+
+    @Override
+    protected boolean isLockTimeout(SQLException e) {
+        // LOCK_TIMEOUT_1
+        return e.getErrorCode() == 50200 || "HYT00".equals(e.getSQLState());
+    }
 }
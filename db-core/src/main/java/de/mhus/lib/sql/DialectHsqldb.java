@@ -36,6 +36,11 @@ import de.mhus.lib.errors.MRuntimeException;
  */
 public class DialectHsqldb extends DialectDefault {
 
+    public DialectHsqldb() {
+        bindParameters = true;
+        rowValues = true;
+    }
+
     private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     /** {@inheritDoc} */
@@ -15,9 +15,15 @@
  */
 package de.mhus.lib.sql;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
+import de.mhus.lib.adb.query.ALimit;
 import de.mhus.lib.annotations.adb.DbType;
 import de.mhus.lib.core.MSql;
 import de.mhus.lib.core.node.INode;
@@ -32,6 +38,20 @@ import de.mhus.lib.core.node.INode;
  */
 public class DialectMysql extends DialectDefault {
 
+    public DialectMysql() {
+        bindParameters = true;
+        rowValues = true;
+    }
+
+    @Override
+    protected void createLimit(ALimit limit, StringBuilder buffer) {
+        // mysql needs a limit to use an offset, the maximum is documented as 'no limit'
+        if (limit.hasLimit())
+            buffer.append(" LIMIT $").append(limit.getLimitName()).append(",int$");
+        else buffer.append(" LIMIT 18446744073709551615");
+        buffer.append(" OFFSET $").append(limit.getOffsetName()).append(",int$");
+    }
+
     @Override
     public String normalizeColumnName(String columnName) {
         //		if ("key".equals(columnName))
@@ -67,6 +87,77 @@ public class DialectMysql extends DialectDefault {
         sql.append(" ENGINE=InnoDb");
     }
 
+    /**
+     * Connector/J only streams row by row if the fetch size is Integer.MIN_VALUE, all other values
+     * load the full result. While the result is open no other query can be executed on the same
+     * connection.
+     */
+    @Override
+    public void prepareStreaming(Statement sth, int fetchSize) throws SQLException {
+        sth.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    @Override
+    public boolean isLockSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isLockConnectionShared() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>InnoDB keeps the snapshot of REPEATABLE READ and the metadata locks of the read tables
+     * until the transaction ends.
+     */
+    @Override
+    public boolean isReadTransactionReleasable(Connection con) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Uses GET_LOCK(), the name is built from the hash of the lock name because MySQL limits it
+     * to 64 characters. The timeout is rounded up to full seconds.
+     */
+    @Override
+    public boolean acquireLock(DbConnection con, String tableOrg, String name, long timeout)
+            throws Exception {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("name", "adb_" + toLockId(name));
+        attributes.put("timeout", Math.max(0, (timeout + 999) / 1000));
+        boolean locked = queryLock(con, "SELECT GET_LOCK($name$,$timeout$)", attributes);
+        con.commit();
+        return locked;
+    }
+
+    @Override
+    public void releaseLock(DbConnection con, String tableOrg, String name) throws Exception {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("name", "adb_" + toLockId(name));
+        if (!queryLock(con, "SELECT RELEASE_LOCK($name$)", attributes))
+            log().w("named lock was not held", name);
+        con.commit();
+    }
+
+    private boolean queryLock(DbConnection con, String sql, Map<String, Object> attributes)
+            throws Exception {
+        DbStatement sth = con.createStatement(sql);
+        try {
+            DbResult res = sth.executeQuery(attributes);
+            // 1 if granted, 0 on timeout, NULL on error
+            boolean ret = res.next() && res.getInt(1) == 1;
+            res.close();
+            return ret;
+        } finally {
+            sth.close();
+        }
+    }
+
     @Override
     public String escape(String text) {
         String ret = MSql.escape(text);
@@ -15,17 +15,21 @@
  */
 package de.mhus.lib.sql;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import de.mhus.lib.adb.query.ALimit;
-import de.mhus.lib.adb.query.APrint;
-import de.mhus.lib.adb.query.AQuery;
 import de.mhus.lib.annotations.adb.DbType;
+import de.mhus.lib.core.M;
+import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MSql;
 import de.mhus.lib.core.node.INode;
 
@@ -39,6 +43,11 @@ import de.mhus.lib.core.node.INode;
  */
 public class DialectPostgresql extends DialectDefault {
 
+    public DialectPostgresql() {
+        bindParameters = true;
+        rowValues = true;
+    }
+
     @Override
     public String normalizeColumnName(String columnName) {
         //		if ("key".equals(columnName))
@@ -66,9 +75,28 @@ public class DialectPostgresql extends DialectDefault {
         return value ? "'true'" : "'false'";
     }
 
+    @Override
+    public void bindParameter(PreparedStatement sth, int index, Object value, String type)
+            throws SQLException {
+        if (value != null && M.TYPE_BOOL.equals(type))
+            sth.setBoolean(index, MCast.toboolean(value.toString(), false));
+        else super.bindParameter(sth, index, value, type);
+    }
+
     @Override
     protected void createTableLastCheck(INode ctable, String tn, StringBuilder sql) {}
 
+    /**
+     * The driver only uses a cursor if auto commit is disabled, otherwise the fetch size is ignored
+     * and the full result is loaded.
+     */
+    @Override
+    public void prepareStreaming(Statement sth, int fetchSize) throws SQLException {
+        Connection con = sth.getConnection();
+        if (con.getAutoCommit()) con.setAutoCommit(false);
+        sth.setFetchSize(fetchSize);
+    }
+
     @Override
     public String escape(String text) {
         String ret = MSql.escape(text);
@@ -124,15 +152,10 @@ public class DialectPostgresql extends DialectDefault {
     }
 
     @Override
-    public void createQuery(APrint p, AQuery<?> query) {
-        StringBuilder buffer = ((SqlDialectCreateContext) query.getContext()).getBuffer();
-
-        if (p instanceof ALimit) {
-            if (((ALimit) p).getLimit() >= 0)
-                buffer.append(" LIMIT ").append(((ALimit) p).getLimit());
-            if (((ALimit) p).getOffset() >= 0)
-                buffer.append(" OFFSET ").append(((ALimit) p).getOffset());
-        } else super.createQuery(p, query);
+    protected void createLimit(ALimit limit, StringBuilder buffer) {
+        if (limit.hasLimit())
+            buffer.append(" LIMIT $").append(limit.getLimitName()).append(",int$");
+        buffer.append(" OFFSET $").append(limit.getOffsetName()).append(",int$");
     }
 
     @Override
@@ -160,6 +183,95 @@ public class DialectPostgresql extends DialectDefault {
         }
     }
 
+    @Override
+    public boolean isLockSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isLockConnectionShared() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>An open transaction stays idle in transaction and holds the AccessShareLocks of the read
+     * tables, they block DDL and VACUUM.
+     */
+    @Override
+    public boolean isReadTransactionReleasable(Connection con) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Uses a session level advisory lock, the key is built from the hash of the name. The wait
+     * is limited by the lock_timeout of the transaction, the lock itself survives the commit.
+     */
+    @Override
+    public boolean acquireLock(DbConnection con, String tableOrg, String name, long timeout)
+            throws Exception {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("id", toAdvisoryKey(name));
+        if (queryLock(con, "SELECT pg_try_advisory_lock($id$)", attributes)) {
+            con.commit();
+            return true;
+        }
+        if (timeout <= 0) {
+            con.commit();
+            return false;
+        }
+        attributes.put("timeout", String.valueOf(timeout));
+        try {
+            queryLock(
+                    con,
+                    "SELECT set_config('lock_timeout',$timeout$,true) IS NOT NULL",
+                    attributes);
+            // pg_advisory_lock() returns void, it's granted if the query returns
+            queryLock(con, "SELECT pg_advisory_lock($id$) IS NULL", attributes);
+            con.commit();
+            return true;
+        } catch (Exception e) {
+            if (!isLockTimeout(e)) throw e;
+            con.rollback();
+            return false;
+        }
+    }
+
+    @Override
+    public void releaseLock(DbConnection con, String tableOrg, String name) throws Exception {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("id", toAdvisoryKey(name));
+        if (!queryLock(con, "SELECT pg_advisory_unlock($id$)", attributes))
+            log().w("advisory lock was not held", name);
+        con.commit();
+    }
+
+    private boolean queryLock(DbConnection con, String sql, Map<String, Object> attributes)
+            throws Exception {
+        DbStatement sth = con.createStatement(sql);
+        try {
+            DbResult res = sth.executeQuery(attributes);
+            boolean ret = res.next() && res.getBoolean(1);
+            res.close();
+            return ret;
+        } finally {
+            sth.close();
+        }
+    }
+
+    private static long toAdvisoryKey(String name) {
+        return Long.parseUnsignedLong(toLockId(name).substring(0, 16), 16);
+    }
+
+    @Override
+    protected boolean isLockTimeout(SQLException e) {
+        // lock_not_available
+        return "55P03".equals(e.getSQLState());
+    }
+
     @Override
     protected void dropIndex(Statement sth, String iName, String table) {
         String sql = "DROP INDEX " + iName;
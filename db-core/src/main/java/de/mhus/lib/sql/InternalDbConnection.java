@@ -15,6 +15,11 @@
  */
 package de.mhus.lib.sql;
 
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.cfg.CfgTimeInterval;
 import de.mhus.lib.core.util.MObject;
 
@@ -24,6 +29,9 @@ public abstract class InternalDbConnection extends MObject implements DbConnecti
             new CfgTimeInterval(DbConnection.class, "timeoutUnused", "10m");
     protected static final CfgTimeInterval CFG_TIMEOUT_LIFETIME =
             new CfgTimeInterval(DbConnection.class, "timeoutLifetime", "1h");
+    /** Lifetime will be shortened randomly up to this percent to avoid expiring all at once */
+    protected static final CfgInt CFG_LIFETIME_JITTER =
+            new CfgInt(DbConnection.class, "timeoutLifetimeJitter", 10);
 
     protected DbPool pool;
     protected String poolId;
@@ -31,9 +39,15 @@ public abstract class InternalDbConnection extends MObject implements DbConnecti
     protected long lastUsedTime = 0;
     protected long timeoutUnused = CFG_TIMEOUT_UNUSED.interval();
     protected long timeoutLifetime = CFG_TIMEOUT_LIFETIME.interval();
+    protected double lifetimeJitter;
+    private LinkedHashMap<Object, CompletionListener> completionListeners;
 
     public InternalDbConnection() {
         creationTime = System.currentTimeMillis();
+        lifetimeJitter =
+                ThreadLocalRandom.current().nextDouble()
+                        * Math.max(0, Math.min(100, CFG_LIFETIME_JITTER.value()))
+                        / 100d;
     }
 
     public void setPool(DbPool pool) {
@@ -44,7 +58,8 @@ public abstract class InternalDbConnection extends MObject implements DbConnecti
     public boolean checkTimedOut() {
         if (isUsed()) return false;
         long currentTime = System.currentTimeMillis();
-        if ((currentTime - creationTime > timeoutLifetime)
+        long lifetime = timeoutLifetime - (long) (timeoutLifetime * lifetimeJitter);
+        if ((currentTime - creationTime > lifetime)
                 || (lastUsedTime != 0 && currentTime - lastUsedTime > timeoutUnused)) {
             log().t("timeout");
             close();
@@ -53,11 +68,64 @@ public abstract class InternalDbConnection extends MObject implements DbConnecti
         return false;
     }
 
+    /**
+     * Check if the connection is usable. Only call it for unused connections. If the connection is
+     * not valid it will be closed.
+     *
+     * @param timeout Timeout in seconds
+     * @return true if the connection is valid
+     */
+    public boolean validate(int timeout) {
+        return !isClosed();
+    }
+
     @Override
     public void setUsed(boolean used) {
         lastUsedTime = System.currentTimeMillis();
     }
 
+    /**
+     * Return the listener registered for the key or register a new one. The listeners are called
+     * once after the next commit or rollback. If the connection is given back to the pool or closed
+     * before, they are called as rolled back.
+     *
+     * @param key The key, e.g. the owner of the listener
+     * @param factory Create the listener if not registered
+     * @return The registered listener
+     */
+    public synchronized CompletionListener getCompletionListener(
+            Object key, Supplier<CompletionListener> factory) {
+        if (completionListeners == null) completionListeners = new LinkedHashMap<>();
+        return completionListeners.computeIfAbsent(key, k -> factory.get());
+    }
+
+    /**
+     * Call and remove the registered completion listeners.
+     *
+     * @param committed true after a commit
+     */
+    protected void fireCompletion(boolean committed) {
+        LinkedHashMap<Object, CompletionListener> current;
+        synchronized (this) {
+            current = completionListeners;
+            completionListeners = null;
+        }
+        if (current == null) return;
+        for (CompletionListener listener : current.values()) {
+            try {
+                listener.onCompletion(committed);
+            } catch (Throwable t) {
+                log().w("completion listener failed", listener, t);
+            }
+        }
+    }
+
+    /** Listener for the end of the current transaction of a connection. */
+    public interface CompletionListener {
+
+        void onCompletion(boolean committed);
+    }
+
     public long getTimeoutUnused() {
         return timeoutUnused;
     }
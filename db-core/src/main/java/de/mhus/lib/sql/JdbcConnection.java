@@ -17,9 +17,15 @@ package de.mhus.lib.sql;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import de.mhus.lib.basics.RC;
 import de.mhus.lib.core.M;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.parser.Parser;
 import de.mhus.lib.core.service.UniqueId;
 import de.mhus.lib.errors.MException;
@@ -37,12 +43,41 @@ public class JdbcConnection extends InternalDbConnection {
     /** Constant <code>LANGUAGE_SQL="sql"</code> */
     public static final String LANGUAGE_SQL = "sql";
 
+    public static final CfgInt CFG_STATEMENT_CACHE_SIZE =
+            new CfgInt(DbConnection.class, "statementCacheSize", 100);
+
+    /**
+     * If true a connection with only read queries since the last commit or rollback is always
+     * rolled back before it's given back to the pool. Otherwise the dialect decides, the rollback
+     * is skipped only if the open transaction holds no snapshot and no locks, see
+     * Dialect.isReadTransactionReleasable().
+     */
+    public static final CfgBoolean CFG_ROLLBACK_AFTER_READ =
+            new CfgBoolean(DbConnection.class, "rollbackAfterRead", false);
+
     private boolean used = false;
     private Connection connection;
     private DbProvider provider;
     private boolean closed;
 
     private long id;
+    // statements executed since the last commit or rollback
+    private volatile boolean dirtyRead = false;
+    private volatile boolean dirtyWrite = false;
+
+    // LRU cache of idle prepared statements, checked out statements are not in the cache
+    private LinkedHashMap<String, PreparedStatement> statementCache =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= CFG_STATEMENT_CACHE_SIZE.value()) return false;
+                    closeCachedStatement(eldest.getValue());
+                    if (pool != null) pool.statementCacheEviction();
+                    return true;
+                }
+            };
 
     /** {@inheritDoc} */
     @Override
@@ -50,6 +85,9 @@ public class JdbcConnection extends InternalDbConnection {
         log().t(poolId, id, "commit");
         if (closed) throw new MException(RC.INTERNAL_ERROR, "Connection not valid", poolId, id);
         if (!connection.getAutoCommit()) connection.commit();
+        dirtyRead = false;
+        dirtyWrite = false;
+        fireCompletion(true);
     }
 
     /** {@inheritDoc} */
@@ -65,6 +103,9 @@ public class JdbcConnection extends InternalDbConnection {
         log().t(poolId, id, "rollback");
         if (closed) throw new IOException("Connection not valid");
         connection.rollback();
+        dirtyRead = false;
+        dirtyWrite = false;
+        fireCompletion(false);
     }
 
     /**
@@ -134,27 +175,168 @@ public class JdbcConnection extends InternalDbConnection {
             this.used = used;
             if (!used) // for security reasons - remove old garbage in the session
             try {
-                    if (connection != null) connection.rollback();
+                    if (connection != null) {
+                        if (dirtyWrite || dirtyRead && isRollbackAfterRead()) {
+                            connection.rollback();
+                            if (pool != null) pool.rollbackIssued();
+                        } else if (pool != null) pool.rollbackSkipped();
+                        dirtyRead = false;
+                        dirtyWrite = false;
+                    }
                 } catch (Throwable e) {
                     log().d(e);
                     close();
                 }
         }
+        if (!used) fireCompletion(false);
+    }
+
+    private boolean isRollbackAfterRead() throws SQLException {
+        if (CFG_ROLLBACK_AFTER_READ.value()) return true;
+        Dialect dialect = getDialect();
+        return dialect == null || !dialect.isReadTransactionReleasable(connection);
+    }
+
+    @Override
+    public boolean validate(int timeout) {
+        Connection con = null;
+        synchronized (this) {
+            if (closed || connection == null) return false;
+            con = connection;
+        }
+        try {
+            if (getDialect().validateConnection(con, timeout)) return true;
+            log().d("connection not valid", poolId, id);
+        } catch (Throwable t) {
+            log().d("connection not valid", poolId, id, t);
+        }
+        close();
+        return false;
     }
 
     /**
-     * Returns the JDBC Connection - if possible.
+     * Mark the connection as used since the last commit or rollback.
+     *
+     * @param write true if the statement could change data or hold locks
+     */
+    void markDirty(boolean write) {
+        if (write) dirtyWrite = true;
+        else dirtyRead = true;
+    }
+
+    /**
+     * Returns true if statements was executed since the last commit or rollback.
+     *
+     * @return x
+     */
+    public boolean isDirty() {
+        return dirtyWrite || dirtyRead;
+    }
+
+    /**
+     * Returns the JDBC Connection - if possible. The usage of the connection can't be tracked, so
+     * the connection is marked as dirty and will be rolled back if it's given back to the pool.
      *
      * @return JDBC Connection or null
      */
     public Connection getConnection() {
+        dirtyWrite = true;
         return connection;
     }
 
+    Connection getConnectionInternal() {
+        return connection;
+    }
+
+    /**
+     * Returns the dialect of the connection provider.
+     *
+     * @return The dialect or null
+     */
+    public Dialect getDialect() {
+        return provider.getDialect();
+    }
+
+    /**
+     * Take a prepared statement out of the statement cache or prepare a new one. The statement is
+     * exclusive for the caller until it is given back with releaseStatement().
+     *
+     * @param sql The final sql query
+     * @return The prepared statement
+     * @throws SQLException
+     */
+    PreparedStatement checkoutStatement(String sql) throws SQLException {
+        PreparedStatement psth = null;
+        synchronized (statementCache) {
+            psth = statementCache.remove(sql);
+        }
+        if (psth != null && !psth.isClosed()) {
+            if (pool != null) pool.statementCacheHit();
+            return psth;
+        }
+        if (pool != null) pool.statementCacheMiss();
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Give back a prepared statement to the cache. If the cache is disabled or the connection is
+     * closed the statement will be closed.
+     *
+     * @param sql The final sql query
+     * @param psth The prepared statement
+     */
+    void releaseStatement(String sql, PreparedStatement psth) {
+        if (psth == null) return;
+        try {
+            if (psth.isClosed()) return;
+            if (closed || sql == null || CFG_STATEMENT_CACHE_SIZE.value() <= 0) {
+                psth.close();
+                return;
+            }
+            psth.clearParameters();
+        } catch (SQLException e) {
+            log().t(e);
+            closeCachedStatement(psth);
+            return;
+        }
+        PreparedStatement old = null;
+        synchronized (statementCache) {
+            old = statementCache.put(sql, psth);
+        }
+        if (old != null && old != psth) closeCachedStatement(old);
+    }
+
+    /**
+     * Returns the amount of idle prepared statements in the cache.
+     *
+     * @return x
+     */
+    public int getStatementCacheSize() {
+        synchronized (statementCache) {
+            return statementCache.size();
+        }
+    }
+
+    protected void clearStatementCache() {
+        synchronized (statementCache) {
+            for (PreparedStatement psth : statementCache.values()) closeCachedStatement(psth);
+            statementCache.clear();
+        }
+    }
+
+    private void closeCachedStatement(PreparedStatement psth) {
+        try {
+            psth.close();
+        } catch (SQLException e) {
+            log().t(e);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void close() {
         log().t(poolId, id, "close");
+        clearStatementCache();
         synchronized (this) {
             try {
                 if (connection != null && !connection.isClosed()) {
@@ -167,6 +349,7 @@ public class JdbcConnection extends InternalDbConnection {
             }
             closed = true;
         }
+        fireCompletion(false);
     }
 
     /** {@inheritDoc} */
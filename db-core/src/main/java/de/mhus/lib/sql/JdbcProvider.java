@@ -18,6 +18,7 @@ package de.mhus.lib.sql;
 import java.sql.Connection;
 import java.sql.DriverManager;
 
+import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MPassword;
 import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MString;
@@ -49,6 +50,12 @@ public class JdbcProvider extends DbProvider {
                     dialect = Dialect.findDialect(dialectName);
                 }
             }
+            if (dialect != null) {
+                String bind = config.getExtracted("bindParameters");
+                if (bind != null)
+                    dialect.setBindParameters(
+                            MCast.toboolean(bind, dialect.isBindParameters()));
+            }
             log().i("found dialect", getName(), dialectName, dialect);
         }
         return dialect;
@@ -54,6 +54,8 @@ public class JdbcResult extends DbResult {
     private ResultSet instance;
     private DbStatement sth; // need to have a reference to the statement to avoid a finalize
     private List<String> columnNames;
+    // read rows for the analytics, -1 if already traced
+    private long rows;
 
     JdbcResult(DbStatement sth, ResultSet instance) {
         this.sth = sth;
@@ -70,7 +72,9 @@ public class JdbcResult extends DbResult {
 
     @Override
     public boolean next() throws SQLException {
-        return instance.next();
+        boolean ret = instance.next();
+        if (ret) rows++;
+        return ret;
     }
 
     @Override
@@ -80,6 +84,11 @@ public class JdbcResult extends DbResult {
         } catch (SQLException e) {
             MLogUtil.log().d("close failed", this, e);
         }
+        if (sth instanceof JdbcStatement) {
+            ((JdbcStatement) sth).resultClosed(this);
+            if (rows >= 0) ((JdbcStatement) sth).traceRows(rows);
+        }
+        rows = -1;
     }
 
     public boolean wasNull() throws SQLException {
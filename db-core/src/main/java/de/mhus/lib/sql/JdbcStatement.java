@@ -21,11 +21,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Map;
 
 import de.mhus.lib.core.parser.CompiledString;
 import de.mhus.lib.errors.MException;
 import de.mhus.lib.sql.analytics.SqlAnalytics;
+import de.mhus.lib.sql.analytics.SqlFingerprint;
 
 /**
  * This represents a qyery statement. Use it to execute queries.
@@ -43,6 +45,17 @@ public class JdbcStatement extends DbStatement {
 
     private String xquery;
     private String original;
+    // created with the first trace and used for all executions of this statement
+    private SqlFingerprint fingerprint;
+    private JdbcResult currentResult;
+    // dedicated statement of a streaming query, closed together with the result
+    private Statement streamSth;
+
+    // current batch, prepared statements are used for all rows with the same query
+    private PreparedStatement batchSth;
+    private String batchQuery;
+    private boolean batchPlain;
+    private ArrayList<Integer> batchResults;
 
     JdbcStatement(JdbcConnection dbCon, DbPrepared prepared) {
         this.original = prepared.toString();
@@ -59,7 +72,7 @@ public class JdbcStatement extends DbStatement {
     private void validateSth() throws Exception {
         synchronized (this) {
             if (sth == null || sth.isClosed()) {
-                Connection con = dbCon.getConnection();
+                Connection con = dbCon.getConnectionInternal();
                 sth = con.createStatement();
             }
         }
@@ -68,37 +81,101 @@ public class JdbcStatement extends DbStatement {
     protected PreparedStatement prepareStatement(
             Map<String, Object> attributes, Statement sth, String query) throws SQLException {
 
+        boolean bind = attributes instanceof BindingMap && ((BindingMap) attributes).hasBindings();
+        boolean binary =
+                !bind && attributes != null && attributes.containsKey(RETURN_BINARY_KEY + "0");
+        if (!bind && !binary) {
+            closePreparedSth();
+            return null;
+        }
+
         // recycle prepared query - should not differ !
-        if (xquery != null & preparedSth != null && xquery.equals(query)) return preparedSth;
+        PreparedStatement psth = null;
+        if (xquery != null && preparedSth != null && xquery.equals(query)) {
+            psth = preparedSth;
+            psth.clearParameters();
+        } else {
+            // if differ give back last prepared query
+            closePreparedSth();
+            psth = dbCon.checkoutStatement(query);
+            xquery = query;
+        }
 
-        // if differ close last prepared query
-        closePreparedSth();
+        bindAttributes(attributes, psth, bind);
+        return psth;
+    }
 
-        // checkout new
-        if (attributes != null && attributes.containsKey(RETURN_BINARY_KEY + "0")) {
-            PreparedStatement psth = dbCon.getConnection().prepareStatement(query);
-            xquery = query;
+    private void bindAttributes(
+            Map<String, Object> attributes, PreparedStatement psth, boolean bind)
+            throws SQLException {
+        if (bind) {
+            ((BindingMap) attributes).bindTo(dbCon.getDialect(), psth);
+        } else {
             for (int nr = 0; attributes.containsKey(RETURN_BINARY_KEY + nr); nr++) {
                 psth.setBinaryStream(nr + 1, (InputStream) attributes.get(RETURN_BINARY_KEY + nr));
                 attributes.remove(RETURN_BINARY_KEY + nr);
             }
-            return psth;
         }
-        return null;
     }
 
+    /**
+     * Wrap the attributes into a binding map if the dialect supports bind parameters.
+     *
+     * @param attributes
+     * @return The attributes to use for query compilation
+     */
+    protected Map<String, Object> prepareAttributes(Map<String, Object> attributes) {
+        Dialect dialect = dbCon.getDialect();
+        if (dialect != null && dialect.isBindParameters()) return new BindingMap(attributes);
+        return attributes;
+    }
+
+    /** Give back the current prepared statement to the statement cache of the connection. */
     protected void closePreparedSth() {
         if (preparedSth != null) {
+            dbCon.releaseStatement(xquery, preparedSth);
             xquery = null;
-            try {
-                preparedSth.close();
-            } catch (SQLException e) {
-                log().t(e);
-            }
             preparedSth = null;
         }
     }
 
+    /**
+     * Called by the result if it is closed. The prepared statement is no more needed and can be
+     * reused by other statements.
+     *
+     * @param result
+     */
+    void resultClosed(JdbcResult result) {
+        synchronized (this) {
+            if (result == currentResult) {
+                currentResult = null;
+                closePreparedSth();
+                closeStreamSth();
+            }
+        }
+    }
+
+    /**
+     * Called by the result if it is closed to trace the number of read rows.
+     *
+     * @param rows
+     */
+    void traceRows(long rows) {
+        if (dbCon != null && SqlAnalytics.isEnabled())
+            SqlAnalytics.rows(dbCon.getInstanceId(), getFingerprint(), rows);
+    }
+
+    private void traceNanos(String query, long start, Throwable t) {
+        if (SqlAnalytics.isEnabled())
+            SqlAnalytics.traceNanos(
+                    getConnection().getInstanceId(), getFingerprint(), query, start, t);
+    }
+
+    private SqlFingerprint getFingerprint() {
+        if (fingerprint == null) fingerprint = SqlFingerprint.of(original);
+        return fingerprint;
+    }
+
     /**
      * Executes the given SQL statement, which may return multiple results. In this statement
      * InputStream as attribute values are allowed. @See Statement.execute
@@ -110,16 +187,18 @@ public class JdbcStatement extends DbStatement {
     @Override
     public boolean execute(Map<String, Object> attributes) throws Exception {
         validateSth();
+        attributes = prepareAttributes(attributes);
         String query = this.query.execute(attributes);
         log().t(query);
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             preparedSth = prepareStatement(attributes, sth, query);
+            dbCon.markDirty(true);
             boolean result = preparedSth == null ? sth.execute(query) : preparedSth.execute();
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, null);
+            traceNanos(query, start, null);
             return result;
         } catch (Throwable e) {
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, e);
+            traceNanos(query, start, e);
             log().e(query);
             throw e;
         }
@@ -127,11 +206,13 @@ public class JdbcStatement extends DbStatement {
 
     @Override
     public DbResult getResultSet() throws SQLException {
+        if (preparedSth != null) return new JdbcResult(this, preparedSth.getResultSet());
         return new JdbcResult(this, sth.getResultSet());
     }
 
     @Override
     public int getUpdateCount() throws SQLException {
+        if (preparedSth != null) return preparedSth.getUpdateCount();
         return sth.getUpdateCount();
     }
 
@@ -145,22 +226,87 @@ public class JdbcStatement extends DbStatement {
     @Override
     public DbResult executeQuery(Map<String, Object> attributes) throws Exception {
         validateSth();
+        attributes = prepareAttributes(attributes);
         String query = this.query.execute(attributes);
         log().t(query);
+        if (isStreaming()) return executeStreamingQuery(attributes, query);
         preparedSth = prepareStatement(attributes, sth, query);
-        long start = System.currentTimeMillis();
+        dbCon.markDirty(isLocking(query));
+        long start = System.nanoTime();
         try {
             ResultSet result =
                     preparedSth == null ? sth.executeQuery(query) : preparedSth.executeQuery();
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, null);
-            return new JdbcResult(this, result);
+            traceNanos(query, start, null);
+            currentResult = new JdbcResult(this, result);
+            return currentResult;
+        } catch (Throwable t) {
+            traceNanos(query, start, t);
+            log().e(query);
+            throw t;
+        }
+    }
+
+    /**
+     * Execute the query with a dedicated forward-only, read-only statement. The statement is not
+     * taken from the statement cache because the dialect changes the fetch behavior of it.
+     *
+     * @param attributes
+     * @param query
+     * @return x
+     * @throws Exception
+     */
+    private DbResult executeStreamingQuery(Map<String, Object> attributes, String query)
+            throws Exception {
+        closePreparedSth();
+        closeStreamSth();
+        boolean bind = attributes instanceof BindingMap && ((BindingMap) attributes).hasBindings();
+        boolean binary =
+                !bind && attributes != null && attributes.containsKey(RETURN_BINARY_KEY + "0");
+        Connection con = dbCon.getConnectionInternal();
+        Dialect dialect = dbCon.getDialect();
+        dbCon.markDirty(isLocking(query));
+        long start = System.nanoTime();
+        try {
+            ResultSet result;
+            if (bind || binary) {
+                PreparedStatement psth =
+                        con.prepareStatement(
+                                query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                streamSth = psth;
+                if (dialect != null) dialect.prepareStreaming(psth, getFetchSize());
+                else psth.setFetchSize(getFetchSize());
+                bindAttributes(attributes, psth, bind);
+                result = psth.executeQuery();
+            } else {
+                streamSth =
+                        con.createStatement(
+                                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                if (dialect != null) dialect.prepareStreaming(streamSth, getFetchSize());
+                else streamSth.setFetchSize(getFetchSize());
+                result = streamSth.executeQuery(query);
+            }
+            traceNanos(query, start, null);
+            currentResult = new JdbcResult(this, result);
+            return currentResult;
         } catch (Throwable t) {
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, t);
+            traceNanos(query, start, t);
             log().e(query);
+            closeStreamSth();
             throw t;
         }
     }
 
+    private void closeStreamSth() {
+        if (streamSth != null) {
+            try {
+                streamSth.close();
+            } catch (SQLException e) {
+                log().t(e);
+            }
+            streamSth = null;
+        }
+    }
+
     /**
      * Return the result of an update query. In the attributes InputStreams are allowed (blobs).
      *
@@ -171,22 +317,117 @@ public class JdbcStatement extends DbStatement {
     @Override
     public int executeUpdate(Map<String, Object> attributes) throws Exception {
         validateSth();
+        attributes = prepareAttributes(attributes);
         String query = this.query.execute(attributes);
         log().t(query);
         preparedSth = prepareStatement(attributes, sth, query);
-        long start = System.currentTimeMillis();
+        dbCon.markDirty(true);
+        long start = System.nanoTime();
         try {
             int result =
                     preparedSth == null ? sth.executeUpdate(query) : preparedSth.executeUpdate();
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, null);
+            traceNanos(query, start, null);
+            traceRows(result);
+            closePreparedSth();
             return result;
         } catch (Throwable t) {
-            SqlAnalytics.trace(getConnection().getInstanceId(), original, query, start, t);
+            traceNanos(query, start, t);
             log().e(query);
             throw t;
         }
     }
 
+    /**
+     * Add an update query to the batch. Consecutive queries with the same sql and bind parameters
+     * share one prepared statement. If the sql differs the current batch is sent to the database
+     * first.
+     *
+     * @param attributes
+     * @throws Exception
+     */
+    @Override
+    public void addBatch(Map<String, Object> attributes) throws Exception {
+        validateSth();
+        attributes = prepareAttributes(attributes);
+        String query = this.query.execute(attributes);
+        log().t("batch", query);
+        dbCon.markDirty(true);
+        boolean bind = attributes instanceof BindingMap && ((BindingMap) attributes).hasBindings();
+        boolean binary =
+                !bind && attributes != null && attributes.containsKey(RETURN_BINARY_KEY + "0");
+        if (batchResults == null) batchResults = new ArrayList<>();
+        if (bind || binary) {
+            if (batchPlain || batchSth != null && !query.equals(batchQuery)) flushBatch();
+            if (batchSth == null) {
+                batchSth = dbCon.checkoutStatement(query);
+                batchQuery = query;
+            }
+            bindAttributes(attributes, batchSth, bind);
+            batchSth.addBatch();
+        } else {
+            if (batchSth != null) flushBatch();
+            sth.addBatch(query);
+            batchPlain = true;
+        }
+    }
+
+    @Override
+    public int[] executeBatch() throws Exception {
+        if (batchResults == null) return new int[0];
+        flushBatch();
+        int[] out = new int[batchResults.size()];
+        for (int i = 0; i < out.length; i++) out[i] = batchResults.get(i);
+        batchResults = null;
+        return out;
+    }
+
+    private void flushBatch() throws Exception {
+        long start = System.nanoTime();
+        if (batchSth != null) {
+            String query = batchQuery;
+            try {
+                for (int r : batchSth.executeBatch()) batchResults.add(r);
+                traceNanos(query, start, null);
+            } catch (Throwable t) {
+                traceNanos(query, start, t);
+                log().e(query);
+                batchSth.clearBatch();
+                throw t;
+            } finally {
+                dbCon.releaseStatement(batchQuery, batchSth);
+                batchSth = null;
+                batchQuery = null;
+            }
+        }
+        if (batchPlain) {
+            batchPlain = false;
+            try {
+                for (int r : sth.executeBatch()) batchResults.add(r);
+                traceNanos(original, start, null);
+            } catch (Throwable t) {
+                traceNanos(original, start, t);
+                log().e(original);
+                sth.clearBatch();
+                throw t;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the select query will lock rows until the end of the transaction.
+     *
+     * @param query
+     * @return x
+     */
+    protected boolean isLocking(String query) {
+        for (int i = query.indexOf(' '); i >= 0; i = query.indexOf(' ', i + 1)) {
+            if (query.regionMatches(true, i, " FOR UPDATE", 0, 11)
+                    || query.regionMatches(true, i, " FOR SHARE", 0, 10)
+                    || query.regionMatches(true, i, " LOCK IN SHARE", 0, 14)) return true;
+        }
+        return false;
+    }
+
     /**
      * Return the used connection.
      *
@@ -199,7 +440,21 @@ public class JdbcStatement extends DbStatement {
 
     @Override
     public void close() {
+        currentResult = null;
         closePreparedSth();
+        closeStreamSth();
+        if (batchSth != null) {
+            try {
+                batchSth.clearBatch();
+            } catch (SQLException e) {
+                log().t(e);
+            }
+            dbCon.releaseStatement(batchQuery, batchSth);
+            batchSth = null;
+            batchQuery = null;
+        }
+        batchResults = null;
+        batchPlain = false;
         if (sth == null) return;
         try {
             if (sth != null && !sth.isClosed()) {
@@ -20,7 +20,7 @@ import de.mhus.lib.core.logging.Log;
 public class SqlAnalytics {
 
     private static Log log = Log.getLog(SqlAnalytics.class);
-    private static SqlAnalyzer analyzer = null;
+    private static volatile SqlAnalyzer analyzer = null;
 
     public static void setAnalyzer(SqlAnalyzer analyzer_) {
         try {
@@ -37,11 +37,69 @@ public class SqlAnalytics {
         return analyzer;
     }
 
+    /**
+     * Trace an executed statement.
+     *
+     * @param connectionId Id of the connection
+     * @param original The statement before compilation
+     * @param query The executed query
+     * @param start Start time from System.currentTimeMillis()
+     * @param t The error or null
+     */
     public static void trace(
             long connectionId, String original, String query, long start, Throwable t) {
+        SqlAnalyzer current = analyzer;
+        if (current == null) return;
         try {
             long delta = System.currentTimeMillis() - start;
-            if (analyzer != null) analyzer.doAnalyze(connectionId, original, query, delta, t);
+            current.doAnalyze(connectionId, original, query, delta, t);
+        } catch (Throwable t2) {
+            log.e(t2);
+        }
+    }
+
+    /**
+     * Return true if an analyzer is set. Callers can skip creating the fingerprint otherwise.
+     *
+     * @return true if statements are traced
+     */
+    public static boolean isEnabled() {
+        return analyzer != null;
+    }
+
+    /**
+     * Trace an executed statement with nanosecond precision.
+     *
+     * @param connectionId Id of the connection
+     * @param fingerprint The fingerprint of the statement before compilation
+     * @param query The executed query
+     * @param start Start time from System.nanoTime()
+     * @param t The error or null
+     */
+    public static void traceNanos(
+            long connectionId, SqlFingerprint fingerprint, String query, long start, Throwable t) {
+        SqlAnalyzer current = analyzer;
+        if (current == null) return;
+        try {
+            long nanos = System.nanoTime() - start;
+            current.doAnalyzeNanos(connectionId, fingerprint, query, nanos, t);
+        } catch (Throwable t2) {
+            log.e(t2);
+        }
+    }
+
+    /**
+     * Trace the number of rows read from a result or changed by an update.
+     *
+     * @param connectionId Id of the connection
+     * @param fingerprint The fingerprint of the statement before compilation
+     * @param rows Number of rows
+     */
+    public static void rows(long connectionId, SqlFingerprint fingerprint, long rows) {
+        SqlAnalyzer current = analyzer;
+        if (current == null) return;
+        try {
+            current.doRows(connectionId, fingerprint, rows);
         } catch (Throwable t2) {
             log.e(t2);
         }
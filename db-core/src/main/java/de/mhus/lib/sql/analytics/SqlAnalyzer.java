@@ -21,6 +21,30 @@ public interface SqlAnalyzer {
 
     void doAnalyze(long connectionId, String original, String query, long delta, Throwable t);
 
+    /**
+     * Analyze an executed statement with the runtime in nanoseconds. By default the runtime is
+     * given to doAnalyze() in milliseconds.
+     *
+     * @param connectionId Id of the connection
+     * @param fingerprint The fingerprint of the statement before compilation
+     * @param query The executed query
+     * @param nanos Runtime in nanoseconds
+     * @param t The error or null
+     */
+    default void doAnalyzeNanos(
+            long connectionId, SqlFingerprint fingerprint, String query, long nanos, Throwable t) {
+        doAnalyze(connectionId, fingerprint.getOriginal(), query, nanos / 1000000, t);
+    }
+
+    /**
+     * Called with the number of rows read from a result or changed by an update.
+     *
+     * @param connectionId Id of the connection
+     * @param fingerprint The fingerprint of the statement before compilation
+     * @param rows Number of rows
+     */
+    default void doRows(long connectionId, SqlFingerprint fingerprint, long rows) {}
+
     void start();
 
     void stop();
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql.analytics;
+
+import de.mhus.lib.core.MSystem;
+
+/**
+ * Normalized form of a statement. Literal values are replaced by '?', lists of values like in
+ * 'IN (1, 2, 3)' are collapsed to one '?', comments are removed, words are lower case and tokens
+ * are separated by exactly one space. So statements that differ only in the inlined values or in
+ * formatting get the same fingerprint and can be grouped.
+ *
+ * <p>The statement is scanned once, quoted identifiers are not changed.
+ * The hash is a 64 bit FNV-1a hash of the normalized statement and is used as id of the statement.
+ */
+public final class SqlFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String original;
+    private final String sql;
+    private final long hash;
+
+    private SqlFingerprint(String original, String sql) {
+        this.original = original;
+        this.sql = sql;
+        long h = FNV_OFFSET;
+        for (int i = 0; i < sql.length(); i++) {
+            h ^= sql.charAt(i);
+            h *= FNV_PRIME;
+        }
+        hash = h;
+    }
+
+    /**
+     * Create the fingerprint of a statement.
+     *
+     * @param original The statement
+     * @return The fingerprint
+     */
+    public static SqlFingerprint of(String original) {
+        if (original == null) original = "";
+        return new SqlFingerprint(original, normalize(original));
+    }
+
+    /**
+     * Return the normalized statement.
+     *
+     * @param sql The statement
+     * @return The statement without literal values
+     */
+    public static String normalize(String sql) {
+        int len = sql.length();
+        StringBuilder out = new StringBuilder(len);
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            // comments
+            if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? len : end + 1;
+                continue;
+            }
+            if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+                continue;
+            }
+            int l = out.length();
+            if (l > 0 && !isOpen(out.charAt(l - 1)) && !isClose(c)) out.append(' ');
+            if (c == '\'') {
+                // string literal, quotes are escaped by doubling
+                i++;
+                while (i < len) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < len && sql.charAt(i + 1) == '\'') i += 2;
+                        else break;
+                    } else i++;
+                }
+                i++;
+                appendValue(out);
+            } else if (c == '"' || c == '`') {
+                // quoted identifier
+                int end = sql.indexOf(c, i + 1);
+                end = end < 0 ? len : end + 1;
+                out.append(sql, i, end);
+                i = end;
+            } else if (c >= '0' && c <= '9') {
+                while (i < len
+                        && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    i++;
+                appendValue(out);
+            } else if (c == '?') {
+                i++;
+                appendValue(out);
+            } else if (isIdentifier(c)) {
+                while (i < len && isIdentifier(c = sql.charAt(i))) {
+                    out.append(c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+                    i++;
+                }
+            } else if (isOperator(c)) {
+                while (i < len && isOperator(c = sql.charAt(i))) {
+                    out.append(c);
+                    i++;
+                }
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    // a value directly following '?,' is part of a list and collapsed
+    private static void appendValue(StringBuilder out) {
+        int l = out.length();
+        if (l > 1 && out.charAt(l - 1) == ',' && out.charAt(l - 2) == '?') out.setLength(l - 1);
+        else out.append('?');
+    }
+
+    private static boolean isIdentifier(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+    private static boolean isOperator(char c) {
+        return "=<>!+-*/%|&^~:".indexOf(c) >= 0;
+    }
+
+    // no space after these characters
+    private static boolean isOpen(char c) {
+        return c == '(' || c == ',' || c == '.';
+    }
+
+    // no space before these characters
+    private static boolean isClose(char c) {
+        return c == ')' || c == ',' || c == '.' || c == ';';
+    }
+
+    /**
+     * Return the statement the fingerprint was created from.
+     *
+     * @return The original statement
+     */
+    public String getOriginal() {
+        return original;
+    }
+
+    /**
+     * Return the normalized statement.
+     *
+     * @return The statement without literal values
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Return the hash as fixed size hex string.
+     *
+     * @return The id of the statement
+     */
+    public String getId() {
+        String hex = Long.toHexString(hash);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof SqlFingerprint)) return false;
+        SqlFingerprint o = (SqlFingerprint) obj;
+        return hash == o.hash && sql.equals(o.sql);
+    }
+
+    @Override
+    public String toString() {
+        return MSystem.toString(this, getId(), sql);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.sql.analytics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Histogram of runtimes in nanoseconds without locks. The buckets grow exponentially, every power
+ * of two is split into 16 linear sub buckets, so a percentile is precise to 1/16 of its value.
+ * Values above 2^42 ns (about 73 minutes) are counted in the last bucket.
+ *
+ * <p>The sub buckets of a power of two are created with the first value in it. A statement with
+ * runtimes over a few powers of two needs a few hundred bytes and not all 640 counters.
+ *
+ * @author mikehummel
+ */
+public class SqlHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 42;
+    private static final int GROUPS = MAX_EXPONENT - SUB_BITS + 2;
+    private static final int SIZE = GROUPS * SUB_COUNT;
+
+    private final AtomicReferenceArray<AtomicLongArray> groups = new AtomicReferenceArray<>(GROUPS);
+
+    public void add(long nanos) {
+        int index = indexOf(nanos);
+        int group = index / SUB_COUNT;
+        AtomicLongArray counts = groups.get(group);
+        if (counts == null) {
+            groups.compareAndSet(group, null, new AtomicLongArray(SUB_COUNT));
+            counts = groups.get(group);
+        }
+        counts.incrementAndGet(index % SUB_COUNT);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) return value < 0 ? 0 : (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return SIZE - 1;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Return the highest value counted in the bucket.
+     *
+     * @param index The bucket
+     * @return The upper bound of the bucket
+     */
+    static long upperBoundOf(int index) {
+        if (index < SUB_COUNT) return index;
+        int group = index / SUB_COUNT;
+        long sub = index % SUB_COUNT;
+        long lower = (SUB_COUNT + sub) << (group - 1);
+        return lower + (1L << (group - 1)) - 1;
+    }
+
+    /**
+     * Return a copy of the current counts to calculate percentiles.
+     *
+     * @return The counts of all buckets
+     */
+    public long[] getCounts() {
+        long[] out = new long[SIZE];
+        for (int g = 0; g < GROUPS; g++) {
+            AtomicLongArray counts = groups.get(g);
+            if (counts == null) continue;
+            for (int i = 0; i < SUB_COUNT; i++) out[g * SUB_COUNT + i] = counts.get(i);
+        }
+        return out;
+    }
+
+    /**
+     * Calculate the percentile of the counts.
+     *
+     * @param counts Counts created by getCounts()
+     * @param percentile The percentile between 0 and 1, e.g. 0.95
+     * @param max The maximum value, the upper bound of the last bucket is cut to it
+     * @return The value in nanoseconds or 0 if nothing is counted
+     */
+    public static long getPercentile(long[] counts, double percentile, long max) {
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= rank) return Math.min(upperBoundOf(i), max);
+        }
+        return max;
+    }
+}
@@ -15,87 +15,271 @@
  */
 package de.mhus.lib.sql.analytics;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
+import de.mhus.lib.core.MSystem;
 import de.mhus.lib.core.node.INode;
 
+/**
+ * Collects the runtime of the statements. The counters are lock free, so the analyzer can be used
+ * in production. For every statement the count, errors, rows, total and maximum runtime and a
+ * histogram for the percentiles are collected. Statements are grouped by their fingerprint, so
+ * statements with different inlined values are collected together.
+ *
+ * <p>If the maximum number of statements is reached all other statements are collected in the
+ * entry '*'.
+ */
 public class SqlRuntimeAnalyzer extends SqlRuntimeWarning {
 
-    protected HashMap<String, Container> list = new HashMap<>();
-    protected long minRuntime = 3;
+    /** Entry for all statements after the maximum number of statements is reached. */
+    public static final String OTHERS = "*";
+
+    private static final SqlFingerprint OTHERS_FINGERPRINT = SqlFingerprint.of(OTHERS);
+
+    protected static final long NANOS_PER_MILLI = 1000000;
+
+    protected volatile ConcurrentHashMap<SqlFingerprint, Container> list =
+            new ConcurrentHashMap<>();
+    protected long minRuntime = 0;
+    protected int maxStatements = 10000;
 
     @Override
     public void doAnalyze(
             long connectionId, String original, String query, long delta, Throwable t) {
-        super.doAnalyze(connectionId, original, query, delta, t);
-        if (t != null) return;
-
-        if (delta < minRuntime) return;
-
-        // prepare original - replace $UUID$ entries with $uuid$ static content
-        // do not use uuid any more
-        //		if (original.indexOf('$') >= 0) {
-        //			StringBuilder s = new StringBuilder();
-        //			for (String part : original.split("\\$")) {
-        //				if (s.length() != 0)
-        //					s.append('$');
-        //				if (MValidator.isUUID(part))
-        //					s.append("uuid");
-        //				else
-        //					s.append(part);
-        //			}
-        //			original = s.toString();
-        //		}
-
-        synchronized (this) {
-            Container container = list.get(original);
-            if (container == null) {
-                container = new Container(original);
-                list.put(original, container);
-            }
-            container.add(delta);
-        }
+        SqlFingerprint fingerprint = SqlFingerprint.of(original);
+        doAnalyzeNanos(connectionId, fingerprint, query, delta * NANOS_PER_MILLI, t);
+    }
+
+    @Override
+    public void doAnalyzeNanos(
+            long connectionId, SqlFingerprint fingerprint, String query, long nanos, Throwable t) {
+        super.doAnalyzeNanos(connectionId, fingerprint, query, nanos, t);
+        if (t == null && nanos < minRuntime * NANOS_PER_MILLI) return;
+        getContainer(fingerprint).add(nanos, t != null);
+    }
+
+    @Override
+    public void doRows(long connectionId, SqlFingerprint fingerprint, long rows) {
+        Container container = list.get(fingerprint);
+        if (container == null) container = list.get(OTHERS_FINGERPRINT);
+        if (container != null) container.addRows(rows);
+    }
+
+    protected Container getContainer(SqlFingerprint fingerprint) {
+        ConcurrentHashMap<SqlFingerprint, Container> current = list;
+        Container container = current.get(fingerprint);
+        if (container != null) return container;
+        if (current.size() >= maxStatements) fingerprint = OTHERS_FINGERPRINT;
+        return current.computeIfAbsent(fingerprint, Container::new);
     }
 
     public Collection<Container> getData() {
-        synchronized (this) {
-            return Collections.unmodifiableCollection(list.values());
-        }
+        return Collections.unmodifiableCollection(list.values());
+    }
+
+    /**
+     * Return a consistent copy of the collected values of all statements.
+     *
+     * @return The snapshots
+     */
+    public List<Snapshot> getSnapshot() {
+        return createSnapshot(list);
+    }
+
+    /**
+     * Return the collected values and start a new collection.
+     *
+     * @return The snapshots
+     */
+    public List<Snapshot> getSnapshotAndReset() {
+        ConcurrentHashMap<SqlFingerprint, Container> current = list;
+        list = new ConcurrentHashMap<>();
+        return createSnapshot(current);
+    }
+
+    public void reset() {
+        list = new ConcurrentHashMap<>();
+    }
+
+    private List<Snapshot> createSnapshot(ConcurrentHashMap<SqlFingerprint, Container> data) {
+        List<Snapshot> out = new ArrayList<>(data.size());
+        for (Container container : data.values()) out.add(container.getSnapshot());
+        return out;
     }
 
     @Override
     public void doConfigure(INode config) {
         minRuntime = config.getLong("minRuntime", minRuntime);
+        maxStatements = config.getInt("maxStatements", maxStatements);
         super.doConfigure(config);
     }
 
+    @Override
+    public String toString() {
+        return MSystem.toString(this, list.size(), minRuntime, maxStatements);
+    }
+
     public static class Container {
 
-        private String sql;
-        private int cnt;
-        private long runtime;
+        private final String id;
+        private final String sql;
+        private final LongAdder cnt = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder runtime = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final SqlHistogram histogram = new SqlHistogram();
 
-        public Container(String original) {
-            sql = original;
+        public Container(SqlFingerprint fingerprint) {
+            id = fingerprint.getId();
+            sql = fingerprint.getSql();
         }
 
+        /**
+         * Add a runtime in milliseconds.
+         *
+         * @param delta Runtime in milliseconds
+         */
         public void add(long delta) {
-            cnt++;
-            runtime += delta;
+            add(delta * NANOS_PER_MILLI, false);
+        }
+
+        public void add(long nanos, boolean error) {
+            cnt.increment();
+            if (error) errors.increment();
+            runtime.add(nanos);
+            max.accumulate(nanos);
+            histogram.add(nanos);
+        }
+
+        public void addRows(long cnt) {
+            rows.add(cnt);
+        }
+
+        public String getId() {
+            return id;
         }
 
         public String getSql() {
             return sql;
         }
 
-        public int getCnt() {
+        public long getCnt() {
+            return cnt.sum();
+        }
+
+        /**
+         * Return the summed runtime.
+         *
+         * @return Runtime in milliseconds
+         */
+        public long getRuntime() {
+            return runtime.sum() / NANOS_PER_MILLI;
+        }
+
+        public long getRuntimeNanos() {
+            return runtime.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        public Snapshot getSnapshot() {
+            return new Snapshot(this);
+        }
+    }
+
+    /** Values of a statement at one point in time, runtimes are in nanoseconds. */
+    public static class Snapshot {
+
+        private final String id;
+        private final String sql;
+        private final long cnt;
+        private final long errors;
+        private final long rows;
+        private final long runtime;
+        private final long max;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+
+        private Snapshot(Container container) {
+            id = container.id;
+            sql = container.sql;
+            long[] counts = container.histogram.getCounts();
+            cnt = container.cnt.sum();
+            errors = container.errors.sum();
+            rows = container.rows.sum();
+            runtime = container.runtime.sum();
+            max = container.max.get();
+            p50 = SqlHistogram.getPercentile(counts, 0.50, max);
+            p95 = SqlHistogram.getPercentile(counts, 0.95, max);
+            p99 = SqlHistogram.getPercentile(counts, 0.99, max);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCnt() {
             return cnt;
         }
 
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
         public long getRuntime() {
             return runtime;
         }
+
+        public long getAverage() {
+            return cnt == 0 ? 0 : runtime / cnt;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        @Override
+        public String toString() {
+            return MSystem.toString(
+                    this, id, cnt, errors, rows, runtime, p50, p95, p99, max, sql);
+        }
     }
 }
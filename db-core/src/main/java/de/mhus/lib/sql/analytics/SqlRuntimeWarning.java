@@ -31,11 +31,20 @@ public class SqlRuntimeWarning extends MLog implements SqlAnalyzer, CfgInitiator
     public void doAnalyze(
             long connectionId, String original, String query, long delta, Throwable t) {
         if (t != null) return;
-        if (delta > traceMaxRuntime) {
-            log().f("Query Runtime Warning", connectionId, delta, query);
-            MLogUtil.logStackTrace(
-                    log(), "" + connectionId, Thread.currentThread().getStackTrace());
-        }
+        if (delta > traceMaxRuntime) warn(connectionId, null, delta, query);
+    }
+
+    @Override
+    public void doAnalyzeNanos(
+            long connectionId, SqlFingerprint fingerprint, String query, long nanos, Throwable t) {
+        if (t != null) return;
+        long delta = nanos / 1000000;
+        if (delta > traceMaxRuntime) warn(connectionId, fingerprint.getId(), delta, query);
+    }
+
+    protected void warn(long connectionId, String id, long delta, String query) {
+        log().f("Query Runtime Warning", connectionId, id, delta, query);
+        MLogUtil.logStackTrace(log(), "" + connectionId, Thread.currentThread().getStackTrace());
     }
 
     public long getTraceMaxRuntime() {
@@ -54,17 +54,30 @@ public class SqlRuntimeWriter extends SqlRuntimeAnalyzer {
     protected void doSave() {
         try {
             PrintStream ps = new PrintStream(file);
-            synchronized (this) {
-                for (Container container : list.values()) {
-                    ps.print(container.getSql());
-                    ps.print(";");
-                    ps.print(container.getCnt());
-                    ps.print(";");
-                    ps.println(container.getRuntime());
-                }
-                ps.flush();
-                ps.close();
+            for (Snapshot snapshot : getSnapshot()) {
+                // sql;cnt;runtime as before, the new columns are appended, all times in ms
+                ps.print(snapshot.getSql());
+                ps.print(";");
+                ps.print(snapshot.getCnt());
+                ps.print(";");
+                ps.print(snapshot.getRuntime() / NANOS_PER_MILLI);
+                ps.print(";");
+                ps.print(snapshot.getP50() / NANOS_PER_MILLI);
+                ps.print(";");
+                ps.print(snapshot.getP95() / NANOS_PER_MILLI);
+                ps.print(";");
+                ps.print(snapshot.getP99() / NANOS_PER_MILLI);
+                ps.print(";");
+                ps.print(snapshot.getMax() / NANOS_PER_MILLI);
+                ps.print(";");
+                ps.print(snapshot.getErrors());
+                ps.print(";");
+                ps.print(snapshot.getRows());
+                ps.print(";");
+                ps.println(snapshot.getId());
             }
+            ps.flush();
+            ps.close();
         } catch (Throwable t) {
             log().e("write file {1} failed", file, t);
         }
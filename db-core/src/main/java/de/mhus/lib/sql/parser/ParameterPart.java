@@ -21,7 +21,6 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,8 +31,8 @@ import de.mhus.lib.core.MSystem;
 import de.mhus.lib.core.parser.ParseException;
 import de.mhus.lib.core.parser.ParseReader;
 import de.mhus.lib.core.parser.StringParsingPart;
-import de.mhus.lib.core.util.FallbackMap;
 import de.mhus.lib.core.util.Raw;
+import de.mhus.lib.sql.BindingMap;
 import de.mhus.lib.sql.DbStatement;
 
 public class ParameterPart extends StringParsingPart {
@@ -49,39 +48,35 @@ public class ParameterPart extends StringParsingPart {
 
     @Override
     public void execute(StringBuilder out, Map<String, Object> attributes) {
+        execute(out, attributes, attributes.get(attribute[0]));
+    }
+
+    protected void execute(StringBuilder out, Map<String, Object> attributes, Object value) {
 
-        Object value = attributes.get(attribute[0]);
         if (value == null) {
             out.append("null");
             return;
         }
         if (value.getClass().isArray()) {
-            HashMap<String, Object> valueMap = new HashMap<String, Object>();
-            FallbackMap<String, Object> proxyMap =
-                    new FallbackMap<String, Object>(valueMap, attributes, false);
             for (int i = 0; i < ((Object[]) value).length; i++) {
                 if (i != 0) out.append(attribute.length > 2 ? attribute[2] : ",");
-                valueMap.put(attribute[0], ((Object[]) value)[i]);
-                execute(out, proxyMap);
+                execute(out, attributes, ((Object[]) value)[i]);
             }
             return;
         }
         if (value instanceof List) {
-            HashMap<String, Object> valueMap = new HashMap<String, Object>();
-            FallbackMap<String, Object> proxyMap =
-                    new FallbackMap<String, Object>(valueMap, attributes, false);
             boolean first = true;
             for (Object obj : (List<?>) value) {
                 if (!first) out.append(attribute.length > 2 ? attribute[2] : ",");
-                valueMap.put(attribute[0], obj);
-                execute(out, proxyMap);
+                execute(out, attributes, obj);
                 first = false;
             }
             return;
         }
         if (value instanceof InputStream) {
             out.append("?");
-            DbStatement.addBinary(attributes, value);
+            if (attributes instanceof BindingMap) ((BindingMap) attributes).bind(value, null);
+            else DbStatement.addBinary(attributes, value);
             return;
         }
         String type = null;
@@ -106,6 +101,13 @@ public class ParameterPart extends StringParsingPart {
 
         log().t(type, value);
 
+        if (attributes instanceof BindingMap && isBindable(type)) {
+            // bind as jdbc parameter, raw values are part of the statement shape
+            out.append("?");
+            ((BindingMap) attributes).bind(value, type);
+            return;
+        }
+
         if (M.TYPE_TEXT.equals(type) || M.TYPE_STRING.equals(type))
             out.append("'").append(compiler.escape(String.valueOf(value))).append("'");
         else if (M.TYPE_INT.equals(type)) {
@@ -122,6 +124,17 @@ public class ParameterPart extends StringParsingPart {
         else log().w("Unknown attribute type:", type);
     }
 
+    protected boolean isBindable(String type) {
+        return M.TYPE_TEXT.equals(type)
+                || M.TYPE_STRING.equals(type)
+                || M.TYPE_INT.equals(type)
+                || M.TYPE_LONG.equals(type)
+                || M.TYPE_FLOAT.equals(type)
+                || M.TYPE_DOUBLE.equals(type)
+                || M.TYPE_DATE.equals(type)
+                || M.TYPE_BOOL.equals(type);
+    }
+
     @Override
     public void doPreParse() {
         buffer = new StringBuilder();
@@ -16,8 +16,11 @@
 package de.mhus.lib.test.adb;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigDecimal;
@@ -26,6 +29,7 @@ import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
@@ -36,6 +40,7 @@ import org.junit.jupiter.api.Test;
 import de.mhus.lib.adb.DbCollection;
 import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.adb.DbManagerJdbc;
+import de.mhus.lib.adb.query.AAttribute;
 import de.mhus.lib.adb.query.AQuery;
 import de.mhus.lib.adb.query.Db;
 import de.mhus.lib.core.MApi;
@@ -44,10 +49,13 @@ import de.mhus.lib.core.MString;
 import de.mhus.lib.core.logging.Log.LEVEL;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.node.MNode;
+import de.mhus.lib.core.parser.AttributeMap;
 import de.mhus.lib.errors.MException;
 import de.mhus.lib.sql.DbConnection;
 import de.mhus.lib.sql.DbPool;
 import de.mhus.lib.sql.DbPoolBundle;
+import de.mhus.lib.sql.analytics.SqlAnalytics;
+import de.mhus.lib.sql.analytics.SqlAnalyzer;
 import de.mhus.lib.tests.TestCase;
 import de.mhus.lib.test.adb.model.Book;
 import de.mhus.lib.test.adb.model.BookStoreSchema;
@@ -404,6 +412,24 @@ public class AdbTest extends TestCase {
         assertEquals(s1.getAddress(), s2.getAddress());
         assertEquals(s1.getSqlDate().toString(), new java.sql.Date(0).toString());
 
+        // test projection, not loaded attributes are not overwritten
+        {
+            AQuery<Store> q = Db.query(Store.class).eq("id", s1.getId()).select("name");
+            Store p = manager.getByQualification(q).getNextAndClose();
+            assertNotNull(p.getId());
+            assertNull(p.getAddress());
+            p.setName("Lazy Bookstore");
+            p.save();
+            s1.reload();
+            assertEquals("Lazy Bookstore", s1.getName());
+            assertEquals(s2.getAddress(), s1.getAddress());
+
+            q = Db.query(Store.class).eq("id", s1.getId()).select("name");
+            List<Object[]> values = manager.getValuesByQualification(q);
+            assertEquals(1, values.size());
+            assertEquals("Lazy Bookstore", values.get(0)[0]);
+        }
+
         // remove and check behavior of updates
         s1.delete();
 
@@ -593,6 +619,33 @@ public class AdbTest extends TestCase {
             assertEquals("LA", res.get(0).getName());
         }
 
+        // same shape with different values must share the fingerprint
+        {
+            AQuery<Person2> q1 = Db.query(Person2.class).eq("name", "Max");
+            AQuery<Person2> q2 = Db.query(Person2.class).eq("name", "Moritz");
+            AQuery<Person2> q3 = Db.query(Person2.class).ne("name", "Max");
+            q1.doFinal();
+            q2.doFinal();
+            q3.doFinal();
+            assertEquals(q1.getFingerprint(), q2.getFingerprint());
+            assertNotEquals(q1.getFingerprint(), q3.getFingerprint());
+            assertEquals(manager.toQualification(q1), manager.toQualification(q2));
+            // a final query walks the tree once
+            assertSame(q1.getFingerprint(), q1.getFingerprint());
+        }
+
+        // an element without structural fingerprint disables the cache
+        {
+            AAttribute custom =
+                    new AAttribute() {
+                        @Override
+                        public void getAttributes(AQuery<?> query, AttributeMap map) {}
+                    };
+            AQuery<Person2> q = Db.query(Person2.class).eq(Db.attr("name"), custom);
+            q.doFinal();
+            assertNull(q.getFingerprint());
+        }
+
         // test limit
 
         {
@@ -607,6 +660,63 @@ public class AdbTest extends TestCase {
             assertEquals(1, res.size());
         }
 
+        // skip by the database, the query is not changed
+        {
+            AQuery<Store> q = Db.query(Store.class).asc("name");
+            List<Store> all = manager.getByQualification(q).toCacheAndClose();
+            List<Store> rest = manager.getByQualification(q, 1).toCacheAndClose();
+            assertEquals(all.size() - 1, rest.size());
+            if (!rest.isEmpty()) assertEquals(all.get(1).getName(), rest.get(0).getName());
+            assertEquals(all.size(), manager.getByQualification(q).toCacheAndClose().size());
+
+            // skip before the first access is done by the database
+            List<String> queries = new LinkedList<>();
+            SqlAnalytics.setAnalyzer(
+                    new SqlAnalyzer() {
+                        @Override
+                        public void doAnalyze(
+                                long connectionId,
+                                String original,
+                                String query,
+                                long delta,
+                                Throwable t) {
+                            queries.add(query);
+                        }
+
+                        @Override
+                        public void start() {}
+
+                        @Override
+                        public void stop() {}
+
+                        @Override
+                        public void doConfigure(INode config) {}
+                    });
+            try {
+                DbCollection<Store> res = manager.getByQualification(q);
+                res.skip(1);
+                rest = res.toCacheAndClose();
+            } finally {
+                SqlAnalytics.setAnalyzer(null);
+            }
+            assertEquals(all.size() - 1, rest.size());
+            if (!rest.isEmpty()) assertEquals(all.get(1).getName(), rest.get(0).getName());
+            assertFalse(queries.isEmpty());
+            assertTrue(queries.get(0).toUpperCase().contains(" OFFSET "));
+
+            // skip after the first access reads the rows
+            DbCollection<Store> res = manager.getByQualification(q);
+            res.hasNext();
+            res.skip(1);
+            assertEquals(all.size() - 1, res.toCacheAndClose().size());
+
+            AQuery<Store> l = Db.query(Store.class).asc("name").limit(2);
+            rest = manager.getByQualification(l, 1).toCacheAndClose();
+            assertEquals(Math.min(2, all.size()) - 1, rest.size());
+            rest = manager.getByQualification(l).toCacheAndClose();
+            assertEquals(Math.min(2, all.size()), rest.size());
+        }
+
         pool.close();
     }
 
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.adb.DbManagerJdbc;
+import de.mhus.lib.adb.DbTransaction;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.adb.model.TableCache;
+import de.mhus.lib.core.MThread;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.test.adb.model.CacheDummy;
+import de.mhus.lib.test.adb.model.CacheSchema;
+import de.mhus.lib.tests.TestUtil;
+
+public class CacheTest {
+
+    private static DbManagerJdbc manager;
+    private static TableCache cache;
+
+    @BeforeAll
+    public static void begin() throws Exception {
+        TestUtil.clearCfg();
+        DbPool pool = TransactionTest.createPool("cacheModel").getPool("test");
+        manager = new DbManagerJdbc("", pool, null, new CacheSchema());
+        cache = manager.getTable(manager.getRegistryName(CacheDummy.class)).getCache();
+    }
+
+    private CacheDummy create(String name) throws Exception {
+        CacheDummy obj = new CacheDummy();
+        obj.setName(name);
+        manager.createObject(obj);
+        return obj;
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        CacheDummy obj = create("hit");
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+
+        assertEquals("hit", manager.getObject(CacheDummy.class, obj.getId()).getName());
+        assertEquals(misses + 1, cache.getMisses());
+        CacheDummy cached = manager.getObject(CacheDummy.class, obj.getId());
+        assertEquals("hit", cached.getName());
+        assertEquals(hits + 1, cache.getHits());
+
+        // a copy is given out, not the cached object
+        cached.setName("changed");
+        assertEquals("hit", manager.getObject(CacheDummy.class, obj.getId()).getName());
+
+        // a save removes the entry
+        obj.setName("saved");
+        manager.saveObject(obj);
+        assertEquals("saved", manager.getObject(CacheDummy.class, obj.getId()).getName());
+    }
+
+    @Test
+    public void testCopyBlob() throws Exception {
+        CacheDummy obj = new CacheDummy();
+        obj.setName("blob");
+        obj.getValues().put("a", "1");
+        manager.createObject(obj);
+        manager.getObject(CacheDummy.class, obj.getId());
+        long hits = cache.getHits();
+
+        // the serialized value is not shared with the cached object
+        CacheDummy cached = manager.getObject(CacheDummy.class, obj.getId());
+        assertEquals(hits + 1, cache.getHits());
+        cached.getValues().put("a", "2");
+        assertEquals("1", manager.getObject(CacheDummy.class, obj.getId()).getValues().get("a"));
+    }
+
+    @Test
+    public void testCacheTtl() throws Exception {
+        CacheDummy obj = create("ttl");
+        manager.getObject(CacheDummy.class, obj.getId());
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        manager.getObject(CacheDummy.class, obj.getId());
+        assertEquals(hits + 1, cache.getHits());
+
+        MThread.sleep(1500);
+
+        manager.getObject(CacheDummy.class, obj.getId());
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testRollbackNotCached() throws Exception {
+        CacheDummy obj = create("committed");
+        manager.getObject(CacheDummy.class, obj.getId());
+
+        DbTransaction.encapsulate(manager.getPool());
+        try {
+            obj.setName("uncommitted");
+            manager.saveObject(obj);
+            long hits = cache.getHits();
+            // read inside of the transaction from the database and not from the cache
+            assertEquals(
+                    "uncommitted", manager.getObject(CacheDummy.class, obj.getId()).getName());
+            assertEquals(
+                    "uncommitted", manager.getObject(CacheDummy.class, obj.getId()).getName());
+            assertEquals(hits, cache.getHits());
+        } finally {
+            DbTransaction.rollbackAndRelease();
+        }
+
+        // the uncommitted value must not be seen by others
+        assertEquals("committed", manager.getObject(CacheDummy.class, obj.getId()).getName());
+        assertEquals("committed", manager.getObject(CacheDummy.class, obj.getId()).getName());
+    }
+
+    @Test
+    public void testCommitInvalidates() throws Exception {
+        CacheDummy obj = create("before");
+        manager.getObject(CacheDummy.class, obj.getId());
+
+        DbTransaction.encapsulate(manager.getPool());
+        try {
+            obj.setName("after");
+            manager.saveObject(obj);
+        } finally {
+            DbTransaction.commitAndRelease();
+        }
+        assertTrue(cache.getInvalidations() > 0);
+        assertEquals("after", manager.getObject(CacheDummy.class, obj.getId()).getName());
+    }
+
+    @Test
+    public void testInvalidationListener() throws Exception {
+        List<Map<Table, List<String>>> published =
+                Collections.synchronizedList(new ArrayList<>());
+        manager.setCacheInvalidationListener(published::add);
+        try {
+            CacheDummy obj1 = create("one");
+            CacheDummy obj2 = create("two");
+            assertEquals(2, published.size());
+            published.clear();
+
+            // published once after the commit
+            DbTransaction.encapsulate(manager.getPool());
+            try {
+                obj1.setName("one2");
+                manager.saveObject(obj1);
+                obj2.setName("two2");
+                manager.saveObject(obj2);
+                assertEquals(0, published.size());
+            } finally {
+                DbTransaction.commitAndRelease();
+            }
+            assertEquals(1, published.size());
+            assertEquals(2, published.get(0).values().iterator().next().size());
+            published.clear();
+
+            // not published after rollback
+            DbTransaction.encapsulate(manager.getPool());
+            try {
+                obj1.setName("one3");
+                manager.saveObject(obj1);
+            } finally {
+                DbTransaction.rollbackAndRelease();
+            }
+            assertEquals(0, published.size());
+
+            // not published if the write failed
+            CacheDummy unknown = new CacheDummy();
+            unknown.setId(UUID.randomUUID());
+            assertThrows(MException.class, () -> manager.saveObject(unknown));
+            assertEquals(0, published.size());
+        } finally {
+            manager.setCacheInvalidationListener(null);
+        }
+    }
+}
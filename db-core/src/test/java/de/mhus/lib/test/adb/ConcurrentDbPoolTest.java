@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.core.node.INode;
+import de.mhus.lib.core.node.MNode;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.ConcurrentDbPool;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbPoolBundle;
+import de.mhus.lib.tests.TestUtil;
+
+public class ConcurrentDbPoolTest {
+
+    @BeforeAll
+    public static void begin() throws Exception {
+        TestUtil.clearCfg();
+    }
+
+    private DbPool createPool(String name, int maxSize, String acquireTimeout) throws Exception {
+        INode cconfig = new MNode();
+        INode cdb = cconfig.createObject("test");
+        cdb.setProperty("driver", "org.hsqldb.jdbcDriver");
+        cdb.setProperty("url", "jdbc:hsqldb:mem:" + name);
+        cdb.setProperty("user", "sa");
+        cdb.setProperty("password", "");
+        cdb.setProperty("poolType", DbPool.TYPE_CONCURRENT);
+        cdb.setProperty("maxSize", maxSize);
+        cdb.setProperty("acquireTimeout", acquireTimeout);
+        DbPool pool = new DbPoolBundle(cconfig, null).getPool("test");
+        assertTrue(pool instanceof ConcurrentDbPool);
+        return pool;
+    }
+
+    @Test
+    public void testBorrowAndReturn() throws Exception {
+        DbPool pool = createPool("concurrentBorrow", 2, "1s");
+        assertEquals(1000, pool.getAcquireTimeout());
+        DbConnection con = pool.getConnection();
+        assertEquals(1, pool.getUsedSize());
+        con.close();
+        assertEquals(0, pool.getUsedSize());
+
+        // the free connection is used again
+        con = pool.getConnection();
+        con.close();
+        assertEquals(1, pool.getSize());
+        pool.close();
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        DbPool pool = createPool("concurrentMax", 2, "200");
+        assertEquals(200, pool.getAcquireTimeout());
+        DbConnection con1 = pool.getConnection();
+        DbConnection con2 = pool.getConnection();
+        assertEquals(2, pool.getSize());
+
+        long start = System.currentTimeMillis();
+        assertThrows(MException.class, () -> pool.getConnection());
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertEquals(1, pool.getAcquireTimeouts());
+        assertEquals(2, pool.getSize());
+
+        con1.close();
+        con2.close();
+        pool.close();
+    }
+
+    @Test
+    public void testWaitForReturn() throws Exception {
+        DbPool pool = createPool("concurrentWait", 1, "10s");
+        DbConnection con = pool.getConnection();
+        AtomicReference<DbConnection> received = new AtomicReference<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread waiter =
+                new Thread(
+                        () -> {
+                            started.countDown();
+                            try {
+                                received.set(pool.getConnection());
+                            } catch (Exception e) {
+                                error.set(e);
+                            }
+                        });
+        waiter.start();
+        started.await();
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        con.close();
+        waiter.join(5000);
+        assertNull(error.get());
+        assertNotNull(received.get());
+        // woken up by the return, not by the acquire timeout
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, pool.getSize());
+        received.get().close();
+        pool.close();
+    }
+
+    @Test
+    public void testNoOvertaking() throws Exception {
+        DbPool pool = createPool("concurrentFair", 1, "1s");
+        DbConnection con = pool.getConnection();
+        AtomicReference<DbConnection> received = new AtomicReference<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread waiter =
+                new Thread(
+                        () -> {
+                            started.countDown();
+                            try {
+                                DbConnection c = pool.getConnection();
+                                received.set(c);
+                                // hold it longer than the acquire timeout of the new caller
+                                Thread.sleep(1500);
+                                c.close();
+                            } catch (Exception e) {
+                                error.set(e);
+                            }
+                        });
+        waiter.start();
+        started.await();
+        Thread.sleep(100);
+
+        // the returned connection belongs to the waiting thread, not to the new caller
+        con.close();
+        assertThrows(MException.class, () -> pool.getConnection());
+        waiter.join(5000);
+        assertNull(error.get());
+        assertNotNull(received.get());
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrentBorrow() throws Exception {
+        int max = 3;
+        DbPool pool = createPool("concurrentLoad", max, "10s");
+        AtomicInteger used = new AtomicInteger();
+        AtomicInteger maxUsed = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread =
+                    new Thread(
+                            () -> {
+                                for (int i = 0; i < 200; i++) {
+                                    try {
+                                        DbConnection con = pool.getConnection();
+                                        maxUsed.accumulateAndGet(
+                                                used.incrementAndGet(), Math::max);
+                                        used.decrementAndGet();
+                                        con.close();
+                                    } catch (Exception e) {
+                                        error.compareAndSet(null, e);
+                                        errors.incrementAndGet();
+                                    }
+                                }
+                            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertNull(error.get());
+        assertEquals(0, errors.get());
+        assertTrue(maxUsed.get() <= max);
+        assertTrue(pool.getSize() <= max);
+        assertEquals(0, pool.getUsedSize());
+        pool.close();
+    }
+}
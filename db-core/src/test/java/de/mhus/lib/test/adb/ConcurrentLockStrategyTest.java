@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.adb.DbManager;
+import de.mhus.lib.adb.transaction.ConcurrentLockStrategy;
+import de.mhus.lib.adb.transaction.LockBase;
+import de.mhus.lib.errors.TimeoutRuntimeException;
+import de.mhus.lib.tests.TestUtil;
+
+public class ConcurrentLockStrategyTest {
+
+    private static final String KEY = "test,1";
+
+    @BeforeAll
+    public static void begin() throws Exception {
+        TestUtil.clearCfg();
+    }
+
+    @Test
+    public void testLockAndRelease() throws Exception {
+        ConcurrentLockStrategy strategy = new ConcurrentLockStrategy();
+        try {
+            Owner a = new Owner("a");
+            Owner b = new Owner("b");
+            strategy.lock(null, KEY, a, 1000);
+            assertTrue(strategy.isLocked(null, KEY, b));
+            assertTrue(strategy.isLockedByOwner(null, KEY, a));
+            assertFalse(strategy.isLockedByOwner(null, KEY, b));
+            assertEquals(1, strategy.getSize());
+
+            // only the owner can release the lock
+            strategy.releaseLock(null, KEY, b);
+            assertTrue(strategy.isLocked(null, KEY, b));
+
+            strategy.releaseLock(null, KEY, a);
+            assertFalse(strategy.isLocked(null, KEY, b));
+            assertEquals(0, strategy.getSize());
+        } finally {
+            strategy.close();
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ConcurrentLockStrategy strategy = new ConcurrentLockStrategy();
+        try {
+            Owner a = new Owner("a");
+            strategy.lock(null, KEY, a, 1000);
+            assertThrows(
+                    TimeoutRuntimeException.class,
+                    () -> strategy.lock(null, KEY, new Owner("b"), 200));
+            assertTrue(strategy.isLockedByOwner(null, KEY, a));
+            assertTrue(strategy.getStatistics()[0].contains(" timeouts=1 "));
+            strategy.releaseLock(null, KEY, a);
+        } finally {
+            strategy.close();
+        }
+    }
+
+    @Test
+    public void testWakeupOnRelease() throws Exception {
+        ConcurrentLockStrategy strategy = new ConcurrentLockStrategy();
+        try {
+            Owner a = new Owner("a");
+            Owner b = new Owner("b");
+            strategy.lock(null, KEY, a, 1000);
+
+            AtomicLong locked = new AtomicLong();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread waiter =
+                    new Thread(
+                            () -> {
+                                try {
+                                    strategy.lock(null, KEY, b, 10000);
+                                    locked.set(System.currentTimeMillis());
+                                } catch (Throwable t) {
+                                    error.set(t);
+                                }
+                            });
+            waiter.start();
+            Thread.sleep(200);
+
+            long released = System.currentTimeMillis();
+            strategy.releaseLock(null, KEY, a);
+            waiter.join(5000);
+
+            assertNull(error.get());
+            assertTrue(strategy.isLockedByOwner(null, KEY, b));
+            // woken up by the release and not by the timeout
+            assertTrue(locked.get() - released < 1000);
+            assertTrue(strategy.getStatistics()[0].contains(" contended=1 "));
+            strategy.releaseLock(null, KEY, b);
+        } finally {
+            strategy.close();
+        }
+    }
+
+    @Test
+    public void testExpiredLock() throws Exception {
+        ConcurrentLockStrategy strategy = new ConcurrentLockStrategy();
+        try {
+            strategy.setMaxLockAge(200);
+            Owner b = new Owner("b");
+            strategy.lock(null, KEY, new Owner("a"), 1000);
+
+            // the waiting thread takes over the stale lock
+            strategy.lock(null, KEY, b, 5000);
+            assertTrue(strategy.isLockedByOwner(null, KEY, b));
+            assertTrue(strategy.getStatistics()[0].contains(" expired=1 "));
+            strategy.releaseLock(null, KEY, b);
+        } finally {
+            strategy.close();
+        }
+    }
+
+    @Test
+    public void testSweep() throws Exception {
+        ConcurrentLockStrategy strategy = new ConcurrentLockStrategy();
+        try {
+            strategy.setMaxLockAge(100);
+            Owner a = new Owner("a");
+            strategy.lock(null, KEY, a, 1000);
+            Thread.sleep(200);
+            strategy.sweep();
+            assertEquals(0, strategy.getSize());
+            assertFalse(strategy.isLocked(null, KEY, a));
+        } finally {
+            strategy.close();
+        }
+    }
+
+    private static class Owner extends LockBase {
+
+        private String name;
+
+        Owner(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void lock(long timeout) throws TimeoutRuntimeException {}
+
+        @Override
+        public void release() {}
+
+        @Override
+        public DbManager getDbManager() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Set<String> getLockKeys() {
+            return null;
+        }
+
+        @Override
+        protected boolean isLocked() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.core.M;
+import de.mhus.lib.sql.Dialect;
+import de.mhus.lib.sql.DialectHsqldb;
+import de.mhus.lib.sql.DialectPostgresql;
+
+public class DialectBindTest {
+
+    private enum Color {
+        RED,
+        GREEN
+    }
+
+    /** Bind the value and return the called setter with its value. */
+    private List<Object> bind(Dialect dialect, Object value, String type) throws Exception {
+        List<Object> calls = new ArrayList<>();
+        PreparedStatement sth =
+                (PreparedStatement)
+                        Proxy.newProxyInstance(
+                                getClass().getClassLoader(),
+                                new Class<?>[] {PreparedStatement.class},
+                                (proxy, method, args) -> {
+                                    assertEquals(1, args[0]);
+                                    calls.add(method.getName());
+                                    calls.add(args[1]);
+                                    return null;
+                                });
+        dialect.bindParameter(sth, 1, value, type);
+        return calls;
+    }
+
+    @Test
+    public void testNull() throws Exception {
+        Dialect dialect = new DialectHsqldb();
+        for (String type : new String[] {M.TYPE_INT, M.TYPE_DOUBLE, M.TYPE_DATE, null})
+            assertEquals(Arrays.asList("setNull", Types.NULL), bind(dialect, null, type));
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        Dialect dialect = new DialectHsqldb();
+        assertEquals(Arrays.asList("setInt", 5), bind(dialect, 5, M.TYPE_INT));
+        assertEquals(Arrays.asList("setInt", 1), bind(dialect, Color.GREEN, M.TYPE_INT));
+        assertEquals(Arrays.asList("setLong", 7L), bind(dialect, "7", M.TYPE_INT));
+        assertEquals(Arrays.asList("setLong", 7L), bind(dialect, 7, M.TYPE_LONG));
+        assertEquals(Arrays.asList("setLong", 8L), bind(dialect, "8", M.TYPE_LONG));
+        assertEquals(Arrays.asList("setLong", 9L), bind(dialect, new Date(9), M.TYPE_LONG));
+    }
+
+    @Test
+    public void testFloatingPoint() throws Exception {
+        Dialect dialect = new DialectHsqldb();
+        assertEquals(Arrays.asList("setDouble", 1.5), bind(dialect, 1.5, M.TYPE_DOUBLE));
+        assertEquals(Arrays.asList("setDouble", 1.5), bind(dialect, 1.5f, M.TYPE_FLOAT));
+        // strings are not truncated
+        assertEquals(Arrays.asList("setDouble", 1.5), bind(dialect, "1.5", M.TYPE_DOUBLE));
+        assertEquals(Arrays.asList("setDouble", -0.25), bind(dialect, "-0.25", M.TYPE_FLOAT));
+    }
+
+    @Test
+    public void testDate() throws Exception {
+        Dialect dialect = new DialectHsqldb();
+        assertEquals(
+                Arrays.asList("setTimestamp", new Timestamp(1000)),
+                bind(dialect, new Date(1000), M.TYPE_DATE));
+        assertEquals(
+                Arrays.asList("setTimestamp", new Timestamp(1000)),
+                bind(dialect, 1000L, M.TYPE_DATE));
+    }
+
+    @Test
+    public void testBoolean() throws Exception {
+        assertEquals(Arrays.asList("setInt", 1), bind(new DialectHsqldb(), "true", M.TYPE_BOOL));
+        assertEquals(Arrays.asList("setInt", 0), bind(new DialectHsqldb(), false, M.TYPE_BOOL));
+        assertEquals(
+                Arrays.asList("setBoolean", true),
+                bind(new DialectPostgresql(), true, M.TYPE_BOOL));
+    }
+
+    @Test
+    public void testStringAndStream() throws Exception {
+        Dialect dialect = new DialectHsqldb();
+        assertEquals(Arrays.asList("setString", "text"), bind(dialect, "text", M.TYPE_STRING));
+        assertEquals(Arrays.asList("setString", "12"), bind(dialect, 12, M.TYPE_STRING));
+        InputStream is = new ByteArrayInputStream(new byte[0]);
+        assertEquals(Arrays.asList("setBinaryStream", is), bind(dialect, is, null));
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.core.node.INode;
+import de.mhus.lib.core.node.MNode;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbPoolBundle;
+import de.mhus.lib.sql.DbResult;
+import de.mhus.lib.sql.JdbcConnection;
+import de.mhus.lib.tests.TestUtil;
+
+public class JdbcConnectionTest {
+
+    @BeforeAll
+    public static void begin() throws Exception {
+        TestUtil.clearCfg();
+    }
+
+    private DbPool createPool(String name) throws Exception {
+        INode cconfig = new MNode();
+        INode cdb = cconfig.createObject("test");
+        cdb.setProperty("driver", "org.hsqldb.jdbcDriver");
+        cdb.setProperty("url", "jdbc:hsqldb:mem:" + name);
+        cdb.setProperty("user", "sa");
+        cdb.setProperty("password", "");
+        // the same connection is borrowed again
+        cdb.setProperty("maxSize", 1);
+        DbPool pool = new DbPoolBundle(cconfig, null).getPool("test");
+
+        DbConnection con = pool.getConnection();
+        con.createStatement("CREATE TABLE value_ (id_ INT PRIMARY KEY, value_ INT)")
+                .execute(new HashMap<>());
+        con.createStatement("INSERT INTO value_ VALUES (1, 1)").execute(new HashMap<>());
+        con.commit();
+        con.close();
+        return pool;
+    }
+
+    private int read(DbConnection con) throws Exception {
+        DbResult res =
+                con.createStatement("SELECT value_ FROM value_ WHERE id_ = 1")
+                        .executeQuery(new HashMap<>());
+        assertTrue(res.next());
+        int out = res.getInt("value_");
+        res.close();
+        return out;
+    }
+
+    private void update(String name, int value) throws Exception {
+        try (Connection con = DriverManager.getConnection("jdbc:hsqldb:mem:" + name, "sa", "")) {
+            Statement sth = con.createStatement();
+            sth.executeUpdate("UPDATE value_ SET value_ = " + value + " WHERE id_ = 1");
+            con.commit();
+            sth.close();
+        }
+    }
+
+    @Test
+    public void testReadCommitted() throws Exception {
+        DbPool pool = createPool("readCommitted");
+
+        DbConnection con = pool.getConnection();
+        assertEquals(1, read(con));
+        con.close();
+
+        update("readCommitted", 2);
+
+        con = pool.getConnection();
+        assertEquals(2, read(con));
+        con.close();
+        pool.close();
+    }
+
+    @Test
+    public void testRepeatableRead() throws Exception {
+        DbPool pool = createPool("repeatableRead");
+
+        DbConnection con = pool.getConnection();
+        ((JdbcConnection) con.instance())
+                .getConnection()
+                .setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        con.commit();
+        long rollbacks = pool.getRollbacksIssued();
+        assertEquals(1, read(con));
+        // the snapshot of the read transaction must be dropped
+        con.close();
+        assertEquals(rollbacks + 1, pool.getRollbacksIssued());
+
+        update("repeatableRead", 2);
+
+        con = pool.getConnection();
+        assertEquals(2, read(con));
+        con.close();
+        pool.close();
+    }
+}
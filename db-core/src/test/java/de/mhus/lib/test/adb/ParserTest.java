@@ -30,6 +30,7 @@ import de.mhus.lib.adb.QueryParser;
 import de.mhus.lib.adb.util.ParserJdbcDebug;
 import de.mhus.lib.core.MApi;
 import de.mhus.lib.core.logging.Log.LEVEL;
+import de.mhus.lib.sql.analytics.SqlFingerprint;
 import de.mhus.lib.test.adb.model.Person;
 import de.mhus.lib.tests.TestCase;
 
@@ -172,4 +173,24 @@ public class ParserTest extends TestCase {
 
         manager.getPool().close();
     }
+
+    @Test
+    public void testFingerprint() {
+        SqlFingerprint f1 =
+                SqlFingerprint.of("SELECT * FROM t WHERE id = 5 AND name='it''s' -- x\n LIMIT 10");
+        SqlFingerprint f2 = SqlFingerprint.of("select  *\n from t where id=123 and name = 'b'");
+        assertEquals("select * from t where id = ? and name = ? limit ?", f1.getSql());
+        assertEquals("select * from t where id = ? and name = ?", f2.getSql());
+        assertFalse(f1.equals(f2));
+
+        SqlFingerprint f3 = SqlFingerprint.of("DELETE FROM t WHERE id IN ( 1, 2 ,3, 'a' )");
+        SqlFingerprint f4 = SqlFingerprint.of("delete from t where id in (7) /* c */");
+        assertEquals("delete from t where id in (?)", f3.getSql());
+        assertEquals(f3, f4);
+        assertEquals(f3.getId(), f4.getId());
+        assertEquals(16, f3.getId().length());
+
+        SqlFingerprint f5 = SqlFingerprint.of("update t set a=$a$,\"B 1\"=1.5");
+        assertEquals("update t set a = $a$,\"B 1\" = ?", f5.getSql());
+    }
 }
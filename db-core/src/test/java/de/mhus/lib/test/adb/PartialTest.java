@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.adb.DbManagerJdbc;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.adb.query.AQuery;
+import de.mhus.lib.adb.query.Db;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.test.adb.model.CacheDummy;
+import de.mhus.lib.test.adb.model.CacheSchema;
+import de.mhus.lib.tests.TestUtil;
+
+public class PartialTest {
+
+    private static DbManagerJdbc manager;
+    private static Table table;
+
+    @BeforeAll
+    public static void begin() throws Exception {
+        TestUtil.clearCfg();
+        DbPool pool = TransactionTest.createPool("partialModel").getPool("test");
+        manager = new DbManagerJdbc("", pool, null, new CacheSchema());
+        table = manager.getTable(manager.getRegistryName(CacheDummy.class));
+    }
+
+    private CacheDummy loadPartial(CacheDummy obj) throws Exception {
+        AQuery<CacheDummy> q = Db.query(CacheDummy.class).eq("id", obj.getId()).select("id");
+        return manager.getByQualification(q).getNextAndClose();
+    }
+
+    private String loadName(CacheDummy obj) throws Exception {
+        return manager.getObject(CacheDummy.class, obj.getId()).getName();
+    }
+
+    @Test
+    public void testEqualCopies() throws Exception {
+        CacheDummy obj = new CacheDummy();
+        obj.setName("copies");
+        manager.createObject(obj);
+
+        CacheDummy p1 = loadPartial(obj);
+        CacheDummy p2 = loadPartial(obj);
+        assertEquals(p1, p2);
+        // the state is kept by identity, the second copy does not replace the first
+        assertTrue(table.isPartial(p1));
+        assertTrue(table.isPartial(p2));
+        assertFalse(table.isLoaded(p1, "name"));
+
+        manager.saveObject(p1);
+        manager.saveObject(p2);
+        assertEquals("copies", loadName(obj));
+    }
+
+    @Test
+    public void testExplicitSet() throws Exception {
+        CacheDummy obj = new CacheDummy();
+        obj.setName("explicit");
+        manager.createObject(obj);
+
+        // not marked, the column is not written
+        CacheDummy p = loadPartial(obj);
+        p.setName("unmarked");
+        manager.saveObject(p);
+        assertEquals("explicit", loadName(obj));
+
+        // marked after using the setter
+        p.setName("marked");
+        table.markModified(p, "name");
+        manager.saveObject(p);
+        assertEquals("marked", loadName(obj));
+        assertTrue(table.isLoaded(p, "name"));
+
+        // set to the value of a not loaded field
+        p = loadPartial(obj);
+        assertNull(p.getName());
+        table.setValue(p, "name", null);
+        manager.saveObject(p);
+        assertNull(loadName(obj));
+    }
+}
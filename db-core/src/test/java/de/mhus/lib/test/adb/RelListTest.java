@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.adb.DbManagerJdbc;
+import de.mhus.lib.adb.relation.RelList;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.test.adb.model.CacheDummy;
+import de.mhus.lib.test.adb.model.CacheSchema;
+import de.mhus.lib.tests.TestUtil;
+
+public class RelListTest {
+
+    private CacheDummy create(String name) {
+        CacheDummy obj = new CacheDummy();
+        obj.setId(UUID.randomUUID());
+        obj.setName(name);
+        return obj;
+    }
+
+    @Test
+    public void testAddRemove() {
+        CacheDummy a = create("a");
+        CacheDummy b = create("b");
+        CacheDummy c = create("c");
+        RelList<CacheDummy> list = new RelList<>(Arrays.asList(a, b), null);
+        assertFalse(list.changed());
+        assertEquals(2, list.size());
+
+        list.add(c);
+        assertTrue(list.changed());
+        assertTrue(list.contains(c));
+        assertEquals(3, list.size());
+
+        // adding a loaded member again does not change the list
+        list.add(a);
+        assertEquals(3, list.size());
+
+        // removing an added member discards the add
+        list.remove(c);
+        assertFalse(list.contains(c));
+        assertFalse(list.changed());
+
+        // removing and adding again a loaded member discards the remove
+        list.remove(a);
+        assertTrue(list.changed());
+        list.add(a);
+        assertFalse(list.changed());
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    public void testRetainAll() {
+        CacheDummy a = create("a");
+        CacheDummy b = create("b");
+        RelList<CacheDummy> list = new RelList<>(Arrays.asList(a, b), null);
+        assertTrue(list.retainAll(Arrays.asList(b)));
+        assertEquals(Arrays.asList(b), list);
+        assertTrue(list.changed());
+        assertFalse(list.retainAll(Arrays.asList(b)));
+    }
+
+    @Test
+    public void testSnapshot() {
+        CacheDummy a = create("a");
+        CacheDummy b = create("b");
+        RelList<CacheDummy> list = new RelList<>(Arrays.asList(a), null);
+        Iterator<CacheDummy> iter = list.iterator();
+        list.add(b);
+        // the iterator works on the snapshot before the modification
+        assertEquals(a, iter.next());
+        assertFalse(iter.hasNext());
+        assertEquals(Arrays.asList(a, b), list);
+    }
+
+    @Test
+    public void testKeyFunction() {
+        CacheDummy a = create("a");
+        CacheDummy copy = create("copy");
+        copy.setId(a.getId());
+        CacheDummy noKey = create("noKey");
+        noKey.setId(null);
+        RelList<CacheDummy> list =
+                new RelList<>(Arrays.asList(a, noKey), null, o -> ((CacheDummy) o).getId());
+
+        // the same key is the same member
+        assertTrue(list.contains(copy));
+        list.remove(copy);
+        assertFalse(list.contains(a));
+        list.add(copy);
+        assertFalse(list.changed());
+
+        // objects without key are compared by identity
+        CacheDummy other = create("noKey");
+        other.setId(null);
+        assertFalse(list.contains(other));
+        assertTrue(list.contains(noKey));
+    }
+
+    @Test
+    public void testChanged() {
+        CacheDummy a = create("a");
+        RelList<CacheDummy> list = new RelList<>(Arrays.asList(a), null);
+        list.setChanged(a);
+        assertTrue(list.changed());
+        list.unsetChanged(a);
+        assertFalse(list.changed());
+    }
+
+    @Test
+    public void testSaveFailed() throws Exception {
+        TestUtil.clearCfg();
+        DbPool pool = TransactionTest.createPool("relListModel").getPool("test");
+        DbManagerJdbc manager =
+                new DbManagerJdbc("", pool, null, new CacheSchema()) {
+                    @Override
+                    public void saveObjects(DbConnection con, Collection<?> objects)
+                            throws MException {
+                        throw new MException(RC.ERROR, "save failed");
+                    }
+                };
+        CacheDummy a = create("a");
+        CacheDummy b = create("b");
+        RelList<CacheDummy> list = new RelList<>(Arrays.asList(a), null);
+        list.add(b);
+
+        assertThrows(MException.class, () -> list.save(manager, null, "name", "parent"));
+        // the changes are kept to save them again
+        assertTrue(list.changed());
+        List<CacheDummy> members = list;
+        assertEquals(Arrays.asList(a, b), members);
+        pool.close();
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb.model;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+import de.mhus.lib.annotations.adb.DbPersistent;
+import de.mhus.lib.annotations.adb.DbPrimaryKey;
+
+public class CacheDummy {
+
+    private UUID id;
+    private String name;
+    private HashMap<String, String> values = new HashMap<>();
+
+    @DbPrimaryKey
+    public UUID getId() {
+        return id;
+    }
+
+    public void setId(UUID id) {
+        this.id = id;
+    }
+
+    @DbPersistent
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @DbPersistent
+    public HashMap<String, String> getValues() {
+        return values;
+    }
+
+    public void setValues(HashMap<String, String> values) {
+        this.values = values;
+    }
+
+    // copies of the same row are equal
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CacheDummy)) return false;
+        return id != null && id.equals(((CacheDummy) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id == null ? 0 : id.hashCode();
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.lib.test.adb.model;
+
+import java.util.List;
+
+import de.mhus.lib.adb.DbSchema;
+import de.mhus.lib.adb.model.Table;
+
+public class CacheSchema extends DbSchema {
+
+    public long cacheTtl = 1000;
+
+    @Override
+    public void findObjectTypes(List<Class<? extends Object>> list) {
+        list.add(CacheDummy.class);
+    }
+
+    @Override
+    public int getCacheSize(Table table) {
+        return 100;
+    }
+
+    @Override
+    public long getCacheTtl(Table table) {
+        return cacheTtl;
+    }
+}
@@ -15,8 +15,8 @@
  */
 package de.mhus.db.karaf.xdb.adb.sql;
 
-import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 
 import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
@@ -32,7 +32,7 @@ import de.mhus.lib.sql.analytics.SqlAnalytics;
 import de.mhus.lib.sql.analytics.SqlAnalyzer;
 import de.mhus.lib.sql.analytics.SqlReporter;
 import de.mhus.lib.sql.analytics.SqlRuntimeAnalyzer;
-import de.mhus.lib.sql.analytics.SqlRuntimeAnalyzer.Container;
+import de.mhus.lib.sql.analytics.SqlRuntimeAnalyzer.Snapshot;
 import de.mhus.lib.sql.analytics.SqlRuntimeWarning;
 import de.mhus.lib.sql.analytics.SqlRuntimeWriter;
 import de.mhus.osgi.api.karaf.AbstractCmd;
@@ -52,7 +52,8 @@ public class CmdSql extends AbstractCmd {
                     "Command:\n"
                             + " set - sets analytics tool (analyzer,writer,warning,reporter,<class>),\n"
                             + " reset - remove analytics tool,\n"
-                            + " list - print analysis data,\n"
+                            + " list - print analysis data, runtimes in milliseconds,\n"
+                            + " clear - reset analysis data,\n"
                             + "",
             multiValued = false)
     String cmd;
@@ -105,14 +106,32 @@ public class CmdSql extends AbstractCmd {
                 {
                     SqlAnalyzer analyzer = SqlAnalytics.getAnalyzer();
                     if (analyzer instanceof SqlRuntimeAnalyzer) {
-                        Collection<Container> data = ((SqlRuntimeAnalyzer) analyzer).getData();
+                        List<Snapshot> data = ((SqlRuntimeAnalyzer) analyzer).getSnapshot();
                         ConsoleTable table = new ConsoleTable(tblOpt);
-                        table.setHeaderValues("Count", "Runtime", "R/C", "Sql");
-                        for (Container d : data) {
+                        table.setHeaderValues(
+                                "Count",
+                                "Runtime",
+                                "R/C",
+                                "P50",
+                                "P95",
+                                "P99",
+                                "Max",
+                                "Errors",
+                                "Rows",
+                                "Id",
+                                "Sql");
+                        for (Snapshot d : data) {
                             table.addRowValues(
                                     d.getCnt(),
-                                    d.getRuntime(),
-                                    d.getRuntime() / (long) d.getCnt(),
+                                    d.getRuntime() / 1000000,
+                                    d.getAverage() / 1000000,
+                                    toMillis(d.getP50()),
+                                    toMillis(d.getP95()),
+                                    toMillis(d.getP99()),
+                                    toMillis(d.getMax()),
+                                    d.getErrors(),
+                                    d.getRows(),
+                                    d.getId(),
                                     d.getSql());
                         }
                         table.sort(
@@ -130,10 +149,22 @@ public class CmdSql extends AbstractCmd {
                     }
                 }
                 break;
+            case "clear":
+                {
+                    SqlAnalyzer analyzer = SqlAnalytics.getAnalyzer();
+                    if (analyzer instanceof SqlRuntimeAnalyzer)
+                        ((SqlRuntimeAnalyzer) analyzer).reset();
+                    System.out.println("OK");
+                }
+                break;
             default:
                 System.out.println("Unknown cmd");
         }
 
         return null;
     }
+
+    private String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
 }
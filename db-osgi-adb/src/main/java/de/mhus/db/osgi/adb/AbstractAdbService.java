@@ -17,6 +17,7 @@ package de.mhus.db.osgi.adb;
 
 import javax.sql.DataSource;
 
+import de.mhus.db.osgi.adb.cluster.ClusterCacheInvalidation;
 import de.mhus.db.osgi.api.adb.AdbService;
 import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.adb.DbManagerJdbc;
@@ -26,6 +27,8 @@ import de.mhus.lib.core.MLog;
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.MSystem;
 import de.mhus.lib.core.activator.DefaultActivator;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgString;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.errors.MException;
 import de.mhus.lib.sql.DataSourceProvider;
@@ -37,9 +40,15 @@ import de.mhus.osgi.api.util.DataSourceUtil;
 //
 public abstract class AbstractAdbService extends MLog implements AdbService {
 
+    private static final CfgBoolean CFG_CACHE_INVALIDATION =
+            new CfgBoolean(AbstractAdbService.class, "cacheInvalidation", false);
+    private static final CfgString CFG_CACHE_INVALIDATION_PREFIX =
+            new CfgString(AbstractAdbService.class, "cacheInvalidationPrefix", "adb");
+
     protected String dataSourceName;
     protected String dataSourceRoName;
     private DbManager manager;
+    private ClusterCacheInvalidation cacheInvalidation;
 
     //	protected abstract void doInitialize() throws Exception;
 
@@ -57,14 +66,41 @@ public abstract class AbstractAdbService extends MLog implements AdbService {
 
         manager = doCreateDbManager(clean);
 
+        doStartCacheInvalidation();
+
         doPostOpen();
     }
 
     protected void doPostOpen() throws MException {}
 
+    /**
+     * Start the invalidation of the entity caches of other nodes if 'cacheInvalidation' is enabled.
+     * The change log table is shared by all services with the same prefix.
+     */
+    protected void doStartCacheInvalidation() {
+        if (!CFG_CACHE_INVALIDATION.value() || !(manager instanceof DbManagerJdbc)) return;
+        try {
+            cacheInvalidation =
+                    new ClusterCacheInvalidation(
+                            (DbManagerJdbc) manager, CFG_CACHE_INVALIDATION_PREFIX.value());
+            cacheInvalidation.start();
+        } catch (Throwable t) {
+            log().e("start cache invalidation failed", dataSourceName, t);
+            cacheInvalidation = null;
+        }
+    }
+
+    public ClusterCacheInvalidation getCacheInvalidation() {
+        return cacheInvalidation;
+    }
+
     @Override
     public void doClose() {
         if (manager == null) return;
+        if (cacheInvalidation != null) {
+            cacheInvalidation.stop();
+            cacheInvalidation = null;
+        }
         manager.getPool().close();
         manager = null;
     }
@@ -107,6 +107,9 @@ public abstract class AbstractCommonService extends AbstractAdbService implement
                             });
     private final CfgBoolean CFG_USE_PSEUDO =
             new CfgBoolean(AbstractCommonService.class, SERVICE_NAME + "@pseudoPoolEnabled", false);
+    private final CfgString CFG_POOL_TYPE =
+            new CfgString(
+                    AbstractCommonService.class, SERVICE_NAME + "@poolType", DbPool.TYPE_DEFAULT);
     private final CfgBoolean CFG_ENABLED =
             new CfgBoolean(AbstractCommonService.class, SERVICE_NAME + "@enabled", true);
     private final CfgInt CFG_INIT_RETRY_SEC =
@@ -239,7 +242,7 @@ public abstract class AbstractCommonService extends AbstractAdbService implement
                             doCreateConfig(),
                             doCreateActivator()));
         else
-            return new DefaultDbPool(
+            return createPool(
                     new DataSourceProvider(
                             getDataSource(),
                             doCreateDialect(),
@@ -250,7 +253,7 @@ public abstract class AbstractCommonService extends AbstractAdbService implement
     @Override
     protected DbPool doCreateRoDataPool() {
         if (MString.equals(dataSourceName, dataSourceRoName) || CFG_USE_PSEUDO.value()) return null;
-        return new DefaultDbPool(
+        return createPool(
                 new DataSourceProvider(
                         getDataSourceRo(),
                         doCreateDialect(),
@@ -258,6 +261,15 @@ public abstract class AbstractCommonService extends AbstractAdbService implement
                         doCreateActivator()));
     }
 
+    protected DbPool createPool(DataSourceProvider provider) {
+        try {
+            return DbPool.create(CFG_POOL_TYPE.value(), provider);
+        } catch (Exception e) {
+            log().e("can't create pool, fallback to default", CFG_POOL_TYPE.value(), e);
+            return new DefaultDbPool(provider);
+        }
+    }
+
     private class MyTrackerCustomizer
             implements ServiceTrackerCustomizer<CommonDbConsumer, CommonDbConsumer> {
 
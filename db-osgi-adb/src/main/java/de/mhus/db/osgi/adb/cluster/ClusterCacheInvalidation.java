@@ -0,0 +1,555 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.db.osgi.adb.cluster;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.mhus.lib.adb.CacheInvalidationListener;
+import de.mhus.lib.adb.DbManagerJdbc;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.core.M;
+import de.mhus.lib.core.MHousekeeper;
+import de.mhus.lib.core.MHousekeeperTask;
+import de.mhus.lib.core.MLog;
+import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgTimeInterval;
+import de.mhus.lib.core.node.INode;
+import de.mhus.lib.core.node.MNode;
+import de.mhus.lib.core.node.NodeList;
+import de.mhus.lib.sql.DbConnection;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbResult;
+import de.mhus.lib.sql.DbStatement;
+import de.mhus.lib.sql.Dialect;
+
+/**
+ * Invalidate the entity caches of all nodes using the same database. Written objects of cached
+ * tables are appended to a change log table, every node polls the table for new entries and
+ * removes the objects from the local caches.
+ *
+ * <p>The entries are numbered by a sequence. A writer takes the maximum and inserts the following
+ * numbers, if another writer was faster the insert fails by the primary key and is repeated. So a
+ * number is only visible if all lower numbers are committed and it's enough to remember the last
+ * processed number. If a node is too far behind or the entries are already removed by the
+ * retention cleanup, all caches of the node are cleared.
+ *
+ * <p>The committed keys are queued and written by a background task, the commit of the writer
+ * doesn't need a second connection of the pool. If the queue is too long the keys of a table are
+ * replaced by one entry to clear the whole table cache.
+ *
+ * @author mikehummel
+ */
+public class ClusterCacheInvalidation extends MLog implements CacheInvalidationListener {
+
+    private static final CfgTimeInterval CFG_POLL_INTERVAL =
+            new CfgTimeInterval(ClusterCacheInvalidation.class, "pollInterval", "5s");
+    private static final CfgInt CFG_MAX_LAG =
+            new CfgInt(ClusterCacheInvalidation.class, "maxLag", 10000);
+    private static final CfgTimeInterval CFG_RETENTION =
+            new CfgTimeInterval(ClusterCacheInvalidation.class, "retention", "1h");
+    private static final CfgTimeInterval CFG_CLEANUP_INTERVAL =
+            new CfgTimeInterval(ClusterCacheInvalidation.class, "cleanupInterval", "10m");
+    private static final CfgInt CFG_PUBLISH_RETRIES =
+            new CfgInt(ClusterCacheInvalidation.class, "publishRetries", 10);
+    private static final CfgTimeInterval CFG_PUBLISH_INTERVAL =
+            new CfgTimeInterval(ClusterCacheInvalidation.class, "publishInterval", "1s");
+
+    /** Key of an entry to clear the whole cache of the table. */
+    public static final String ALL = "*";
+
+    private static final int REGISTRY_SIZE = 200;
+    private static final int KEY_SIZE = 200;
+
+    private DbManagerJdbc manager;
+    private DbPool pool;
+    private String prefix;
+    private String nodeId = UUID.randomUUID().toString();
+    private String table;
+    private String cSeq;
+    private String cRegistry;
+    private String cKey;
+    private String cNode;
+    private String cCreated;
+    private MHousekeeperTask task;
+    private MHousekeeperTask publishTask;
+    // keys to publish by registry name, guarded by pendingLock
+    private LinkedHashMap<String, Set<String>> pending = new LinkedHashMap<>();
+    private int pendingSize;
+    private final Object pendingLock = new Object();
+    private final Object publishLock = new Object();
+    private volatile long lastSeq = -1;
+    private long lastCleanup;
+
+    private AtomicLong published = new AtomicLong();
+    private AtomicLong publishConflicts = new AtomicLong();
+    private AtomicLong publishErrors = new AtomicLong();
+    private AtomicLong received = new AtomicLong();
+    private AtomicLong fullFlushes = new AtomicLong();
+    private AtomicLong pollErrors = new AtomicLong();
+    private volatile long lag;
+    private volatile long lastDelay;
+    private volatile long maxDelay;
+    private volatile long lastPollTime;
+
+    public ClusterCacheInvalidation(DbManagerJdbc manager, String prefix) {
+        this.manager = manager;
+        this.pool = manager.getPool();
+        this.prefix = prefix;
+    }
+
+    /**
+     * Create the change log table, register the listener at the manager and start polling.
+     *
+     * @throws Exception
+     */
+    public synchronized void start() throws Exception {
+        if (task != null) return;
+        Dialect dialect = pool.getDialect();
+        String tableOrg = prefix + "_invalidation";
+        table = dialect.normalizeTableName(tableOrg);
+        cSeq = dialect.normalizeColumnName("seq");
+        cRegistry = dialect.normalizeColumnName("registry");
+        cKey = dialect.normalizeColumnName("pk");
+        cNode = dialect.normalizeColumnName("node");
+        cCreated = dialect.normalizeColumnName("created");
+
+        DbConnection con = pool.getConnection();
+        try {
+            dialect.createStructure(createStructure(tableOrg), con, null, false);
+            con.commit();
+            long[] range = readRange(con);
+            lastSeq = range[1];
+        } finally {
+            con.close();
+        }
+        // objects could be cached while no invalidation was received
+        flushAll();
+
+        manager.setCacheInvalidationListener(this);
+        task =
+                new MHousekeeperTask("cache invalidation " + prefix) {
+
+                    @Override
+                    public void doit() throws Exception {
+                        poll();
+                    }
+                };
+        publishTask =
+                new MHousekeeperTask("cache invalidation publisher " + prefix) {
+
+                    @Override
+                    public void doit() throws Exception {
+                        publish();
+                    }
+                };
+        MHousekeeper housekeeper = M.l(MHousekeeper.class);
+        if (housekeeper != null) {
+            housekeeper.register(task, CFG_POLL_INTERVAL.interval());
+            housekeeper.register(publishTask, CFG_PUBLISH_INTERVAL.interval());
+        } else {
+            log().w("Housekeeper not found - call publish() and poll() manually", prefix);
+        }
+    }
+
+    public synchronized void stop() {
+        if (task == null) return;
+        task.cancel();
+        task = null;
+        publishTask.cancel();
+        publishTask = null;
+        if (manager.getCacheInvalidationListener() == this)
+            manager.setCacheInvalidationListener(null);
+        // the keys committed before
+        publish();
+    }
+
+    protected INode createStructure(String tableOrg) {
+        INode cstr = new MNode();
+        INode ctable = cstr.createObject("table");
+        ctable.setProperty(Dialect.K_NAME, tableOrg);
+        NodeList fields = ctable.createArray("field");
+        createField(fields, "seq", "LONG", 0);
+        createField(fields, "registry", "STRING", REGISTRY_SIZE);
+        createField(fields, "pk", "STRING", KEY_SIZE);
+        createField(fields, "node", "STRING", 40);
+        createField(fields, "created", "LONG", 0);
+        ctable.setProperty(Dialect.K_PRIMARY_KEY, "seq");
+        cstr.createArray("index");
+        return cstr;
+    }
+
+    private void createField(NodeList fields, String name, String type, int size) {
+        INode cfield = fields.createObject();
+        cfield.setProperty(Dialect.K_NAME, name);
+        cfield.setProperty(Dialect.K_TYPE, type);
+        if (size > 0) cfield.setProperty(Dialect.K_SIZE, String.valueOf(size));
+        cfield.setProperty(Dialect.K_NOT_NULL, "yes");
+        if (name.equals("seq")) cfield.setProperty(Dialect.K_CATEGORIES, Dialect.C_PRIMARY_KEY);
+    }
+
+    /**
+     * Queue the keys of one committed transaction, they are written to the change log by the
+     * publisher task. It's called by the manager after the commit, so other nodes can't load the
+     * old values again.
+     *
+     * @param cacheKeys The written objects by table
+     */
+    @Override
+    public void invalidated(Map<Table, List<String>> cacheKeys) {
+        if (this.table == null || cacheKeys.isEmpty()) return;
+        synchronized (pendingLock) {
+            for (Map.Entry<Table, List<String>> entry : cacheKeys.entrySet()) {
+                String registryName = entry.getKey().getRegistryName();
+                if (registryName.length() > REGISTRY_SIZE) {
+                    log().w("registry name too long for cache invalidation", entry.getKey());
+                    continue;
+                }
+                for (String key : entry.getValue())
+                    // too long keys clear the whole table cache on the other nodes
+                    addPending(registryName, key.length() > KEY_SIZE ? ALL : key);
+            }
+        }
+    }
+
+    // guarded by pendingLock
+    private void addPending(String registryName, String key) {
+        Set<String> keys = pending.get(registryName);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            pending.put(registryName, keys);
+        }
+        if (keys.contains(ALL) || !keys.add(key)) return;
+        pendingSize++;
+        if (pendingSize > CFG_MAX_LAG.value() && !ALL.equals(key)) {
+            // clear the whole table cache on the other nodes instead
+            pendingSize -= keys.size() - 1;
+            keys.clear();
+            keys.add(ALL);
+        }
+    }
+
+    /**
+     * Append the queued keys to the change log in one transaction. It's called by the publisher
+     * task. If it fails the keys are queued again.
+     */
+    public void publish() {
+        Map<String, Set<String>> keys;
+        int size;
+        synchronized (pendingLock) {
+            if (pending.isEmpty() || this.table == null) return;
+            keys = pending;
+            size = pendingSize;
+            pending = new LinkedHashMap<>();
+            pendingSize = 0;
+        }
+        // one publisher at a time, the sequence numbers of the batch are taken together
+        synchronized (publishLock) {
+            if (write(keys, size)) return;
+        }
+        synchronized (pendingLock) {
+            for (Map.Entry<String, Set<String>> entry : keys.entrySet())
+                for (String key : entry.getValue()) addPending(entry.getKey(), key);
+        }
+    }
+
+    private boolean write(Map<String, Set<String>> keys, int size) {
+        DbConnection con = null;
+        try {
+            con = pool.getConnection();
+            for (int retry = 0; ; retry++) {
+                try {
+                    long seq = readRange(con)[1];
+                    long now = System.currentTimeMillis();
+                    DbStatement sth =
+                            con.createStatement(
+                                    "INSERT INTO "
+                                            + this.table
+                                            + "("
+                                            + cSeq
+                                            + ","
+                                            + cRegistry
+                                            + ","
+                                            + cKey
+                                            + ","
+                                            + cNode
+                                            + ","
+                                            + cCreated
+                                            + ") VALUES ($seq$,$registry$,$key$,$node$,$created$)");
+                    try {
+                        for (Map.Entry<String, Set<String>> entry : keys.entrySet()) {
+                            for (String key : entry.getValue()) {
+                                Map<String, Object> attributes = new HashMap<>();
+                                attributes.put("seq", ++seq);
+                                attributes.put("registry", entry.getKey());
+                                attributes.put("key", key);
+                                attributes.put("node", nodeId);
+                                attributes.put("created", now);
+                                sth.addBatch(attributes);
+                            }
+                        }
+                        sth.executeBatch();
+                    } finally {
+                        sth.close();
+                    }
+                    con.commit();
+                    published.addAndGet(size);
+                    return true;
+                } catch (SQLException e) {
+                    // the sequence numbers are taken by another writer
+                    con.rollback();
+                    if (retry >= CFG_PUBLISH_RETRIES.value()) throw e;
+                    publishConflicts.incrementAndGet();
+                }
+            }
+        } catch (Throwable t) {
+            publishErrors.incrementAndGet();
+            log().w("publish cache invalidation failed", size, t);
+            return false;
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    /**
+     * Return the number of keys waiting to be published.
+     *
+     * @return Number of keys
+     */
+    public int getPending() {
+        synchronized (pendingLock) {
+            return pendingSize;
+        }
+    }
+
+    /**
+     * Read new entries of the change log and remove the objects from the local caches. It's called
+     * by the housekeeper.
+     */
+    public synchronized void poll() {
+        if (task == null) return;
+        DbConnection con = null;
+        try {
+            con = pool.getConnection();
+            long now = System.currentTimeMillis();
+            lastPollTime = now;
+            long[] range = readRange(con);
+            long max = range[1];
+            lag = Math.max(0, max - lastSeq);
+            if (max < lastSeq || range[0] > lastSeq + 1 && max > lastSeq) {
+                // the table was reset or the next entries are removed by the cleanup
+                log().i("cache invalidation entries lost, clear caches", lastSeq, range[0], max);
+                flushAll();
+                lastSeq = max;
+            } else if (lag > CFG_MAX_LAG.value()) {
+                log().i("cache invalidation is behind, clear caches", lag);
+                flushAll();
+                lastSeq = max;
+            } else if (lag > 0) {
+                readEntries(con, max, now);
+            }
+            if (now - lastCleanup > CFG_CLEANUP_INTERVAL.interval()) {
+                lastCleanup = now;
+                cleanup(con, max, now);
+            }
+            con.commit();
+        } catch (Throwable t) {
+            pollErrors.incrementAndGet();
+            log().w("poll cache invalidation failed", prefix, t);
+            if (con != null) {
+                try {
+                    con.rollback();
+                } catch (Exception e) {
+                    log().d(e);
+                }
+            }
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    private void readEntries(DbConnection con, long max, long now) throws Exception {
+        DbStatement sth =
+                con.createStatement(
+                        "SELECT "
+                                + cRegistry
+                                + ","
+                                + cKey
+                                + ","
+                                + cNode
+                                + ","
+                                + cCreated
+                                + " FROM "
+                                + table
+                                + " WHERE "
+                                + cSeq
+                                + ">$from$ AND "
+                                + cSeq
+                                + "<=$to$ ORDER BY "
+                                + cSeq);
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("from", lastSeq);
+        attributes.put("to", max);
+        long created = 0;
+        try {
+            DbResult res = sth.executeQuery(attributes);
+            while (res.next()) {
+                // own writes are already invalidated
+                if (nodeId.equals(res.getString(cNode))) continue;
+                received.incrementAndGet();
+                created = res.getLong(cCreated);
+                Table t = manager.getTable(res.getString(cRegistry));
+                if (t == null) continue;
+                String key = res.getString(cKey);
+                if (ALL.equals(key)) t.clearCache();
+                else t.invalidateCacheKey(key);
+            }
+            res.close();
+        } finally {
+            sth.close();
+        }
+        lastSeq = max;
+        if (created > 0) {
+            lastDelay = now - created;
+            if (lastDelay > maxDelay) maxDelay = lastDelay;
+        }
+    }
+
+    private void cleanup(DbConnection con, long max, long now) throws Exception {
+        // keep the last entry, it's the base of the sequence
+        DbStatement sth =
+                con.createStatement(
+                        "DELETE FROM "
+                                + table
+                                + " WHERE "
+                                + cCreated
+                                + "<$created$ AND "
+                                + cSeq
+                                + "<$max$");
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("created", now - CFG_RETENTION.interval());
+        attributes.put("max", max);
+        try {
+            int cnt = sth.executeUpdate(attributes);
+            if (cnt > 0) log().d("removed cache invalidation entries", cnt);
+        } finally {
+            sth.close();
+        }
+    }
+
+    private long[] readRange(DbConnection con) throws Exception {
+        DbStatement sth =
+                con.createStatement(
+                        "SELECT MIN("
+                                + cSeq
+                                + ") AS minseq, MAX("
+                                + cSeq
+                                + ") AS maxseq FROM "
+                                + table);
+        try {
+            DbResult res = sth.executeQuery(new HashMap<>());
+            long[] out = new long[2];
+            if (res.next()) {
+                out[0] = res.getLong("minseq");
+                out[1] = res.getLong("maxseq");
+            }
+            res.close();
+            return out;
+        } finally {
+            sth.close();
+        }
+    }
+
+    /** Clear the entity caches of all tables of the manager. */
+    public void flushAll() {
+        fullFlushes.incrementAndGet();
+        for (String name : manager.getRegistryNames()) {
+            Table t = manager.getTable(name);
+            if (t != null) t.clearCache();
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Return the number of entries behind the change log at the last poll.
+     *
+     * @return Number of entries
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * Return the time between the write and the local invalidation of the last received entry.
+     *
+     * @return Delay in milliseconds, depends on the clocks of the nodes
+     */
+    public long getLastDelay() {
+        return lastDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public long getLastPollTime() {
+        return lastPollTime;
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getPublishConflicts() {
+        return publishConflicts.get();
+    }
+
+    public long getPublishErrors() {
+        return publishErrors.get();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getFullFlushes() {
+        return fullFlushes.get();
+    }
+
+    public long getPollErrors() {
+        return pollErrors.get();
+    }
+
+    @Override
+    public String toString() {
+        return MSystem.toString(this, prefix, nodeId, lastSeq, lag, received.get());
+    }
+}
@@ -18,22 +18,34 @@ package de.mhus.db.osgi.adb.cluster;
 import java.net.URL;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
 import de.mhus.lib.core.M;
 import de.mhus.lib.core.MCast;
+import de.mhus.lib.core.MHousekeeper;
+import de.mhus.lib.core.MHousekeeperTask;
 import de.mhus.lib.core.MLog;
 import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MSystem;
 import de.mhus.lib.core.MThread;
+import de.mhus.lib.core.cfg.CfgBoolean;
 import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.core.cfg.CfgTimeInterval;
 import de.mhus.lib.core.concurrent.Lock;
 import de.mhus.lib.core.logging.ITracer;
 import de.mhus.lib.core.node.INode;
 import de.mhus.lib.core.node.INodeFactory;
+import de.mhus.lib.core.node.MNode;
+import de.mhus.lib.core.node.NodeList;
 import de.mhus.lib.core.service.ClusterApi;
 import de.mhus.lib.core.util.SoftHashMap;
 import de.mhus.lib.sql.DataSourceProvider;
@@ -46,10 +58,37 @@ import de.mhus.lib.sql.Dialect;
 import de.mhus.osgi.api.util.DataSourceUtil;
 import io.opentracing.Scope;
 
+/**
+ * Cluster locks stored in the database. By default a lock holds a connection with a row selected
+ * for update.
+ *
+ * <p>With 'leases' set to true a lock is a lease in the lease table: the owner node, the expiry
+ * time and a fencing token. A lease is taken by one conditional update or insert and the
+ * connection is given back immediately, the held leases of a node are renewed by one batch of the
+ * heartbeat. Waiting threads of the same node are woken by the release, other nodes poll with an
+ * increasing backoff. If a node dies the leases expire after the lease time.
+ *
+ * <p>The fencing token is incremented every time the lease is taken, it can be used to reject
+ * writes of a former owner which lost its lease.
+ *
+ * @author mikehummel
+ */
 public class ClusterViaDatabase extends MLog implements ClusterApi {
 
     private static final CfgInt CFG_INIT_RETRY_SEC =
             new CfgInt(ClusterViaDatabase.class, "initRetrySec", 30);
+    private static final CfgBoolean CFG_LEASES =
+            new CfgBoolean(ClusterViaDatabase.class, "leases", false);
+    private static final CfgTimeInterval CFG_LEASE_TIME =
+            new CfgTimeInterval(ClusterViaDatabase.class, "leaseTime", "1m");
+    private static final CfgTimeInterval CFG_HEARTBEAT_INTERVAL =
+            new CfgTimeInterval(ClusterViaDatabase.class, "heartbeatInterval", "15s");
+    private static final CfgLong CFG_MIN_BACKOFF =
+            new CfgLong(ClusterViaDatabase.class, "minBackoff", 10);
+    private static final CfgLong CFG_MAX_BACKOFF =
+            new CfgLong(ClusterViaDatabase.class, "maxBackoff", 1000);
+
+    private static final int NAME_SIZE = 200;
 
     private String dsName;
     private DataSource ds;
@@ -60,6 +99,21 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
     private SoftHashMap<String, Lock> cache = new SoftHashMap<>();
 
     private boolean startInit;
+    private volatile boolean ready;
+    private boolean leases = CFG_LEASES.value();
+    private String nodeId = UUID.randomUUID().toString();
+    private String leaseTable;
+    private String cName;
+    private String cOwner;
+    private String cToken;
+    private String cExpires;
+    private ConcurrentHashMap<String, LeaseLock> held = new ConcurrentHashMap<>();
+    // releases failed by a database error, retried by the heartbeat
+    private ConcurrentHashMap<String, FailedRelease> releases = new ConcurrentHashMap<>();
+    private MHousekeeperTask heartbeat;
+    private AtomicLong acquired = new AtomicLong();
+    private AtomicLong conflicts = new AtomicLong();
+    private AtomicLong lost = new AtomicLong();
 
     public ClusterViaDatabase(String dsName, String prefix) {
         this.dsName = dsName;
@@ -70,9 +124,9 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
 
     @Override
     public Lock getLock(String name) {
-        init();
+        if (!ready) init();
         synchronized (cache) {
-            return cache.getOrCreate(name, (k) -> new DbLock(k));
+            return cache.getOrCreate(name, (k) -> leases ? new LeaseLock(k) : new DbLock(k));
         }
     }
 
@@ -100,12 +154,22 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
                     dsProvider.setDialect(dialect);
                     pool = new DefaultDbPool(dsProvider);
                     // init tables
-                    URL url = MSystem.locateResource(this, "SqlDbStorage.xml");
                     DbConnection con = pool.getConnection();
-                    INode data = M.l(INodeFactory.class).read(url);
-                    data.setString("prefix", prefix);
-                    pool.getDialect().createStructure(data, con, null, false);
-                    con.close();
+                    try {
+                        if (leases) {
+                            createLeaseStructure(con);
+                        } else {
+                            URL url = MSystem.locateResource(this, "SqlDbStorage.xml");
+                            INode data = M.l(INodeFactory.class).read(url);
+                            data.setString("prefix", prefix);
+                            pool.getDialect().createStructure(data, con, null, false);
+                        }
+                        con.commit();
+                    } finally {
+                        con.close();
+                    }
+                    if (leases) startHeartbeat();
+                    ready = true;
                     return;
                 }
             } catch (Exception e) {
@@ -116,6 +180,315 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
         }
     }
 
+    private void createLeaseStructure(DbConnection con) throws Exception {
+        Dialect dialect = pool.getDialect();
+        String tableOrg = prefix + "_lease";
+        leaseTable = dialect.normalizeTableName(tableOrg);
+        cName = dialect.normalizeColumnName("name");
+        cOwner = dialect.normalizeColumnName("owner");
+        cToken = dialect.normalizeColumnName("token");
+        cExpires = dialect.normalizeColumnName("expires");
+
+        INode cstr = new MNode();
+        INode ctable = cstr.createObject("table");
+        ctable.setProperty(Dialect.K_NAME, tableOrg);
+        ctable.setProperty(Dialect.K_PRIMARY_KEY, "name");
+        NodeList fields = ctable.createArray("field");
+        createField(fields, "name", "STRING", NAME_SIZE);
+        createField(fields, "owner", "STRING", 40);
+        createField(fields, "token", "LONG", 0);
+        createField(fields, "expires", "LONG", 0);
+        cstr.createArray("index");
+        dialect.createStructure(cstr, con, null, false);
+    }
+
+    private void createField(NodeList fields, String name, String type, int size) {
+        INode cfield = fields.createObject();
+        cfield.setProperty(Dialect.K_NAME, name);
+        cfield.setProperty(Dialect.K_TYPE, type);
+        if (size > 0) cfield.setProperty(Dialect.K_SIZE, String.valueOf(size));
+        cfield.setProperty(Dialect.K_NOT_NULL, "yes");
+        if (name.equals("name")) cfield.setProperty(Dialect.K_CATEGORIES, Dialect.C_PRIMARY_KEY);
+    }
+
+    private void startHeartbeat() {
+        heartbeat =
+                new MHousekeeperTask("cluster lease heartbeat " + prefix) {
+
+                    @Override
+                    public void doit() throws Exception {
+                        heartbeat();
+                    }
+                };
+        MHousekeeper housekeeper = M.l(MHousekeeper.class);
+        if (housekeeper != null) {
+            housekeeper.register(heartbeat, CFG_HEARTBEAT_INTERVAL.interval());
+        } else {
+            log().w("Housekeeper not found - call heartbeat() manually", prefix);
+        }
+    }
+
+    /**
+     * Take the lease if it's free or expired.
+     *
+     * @param name The name of the lock
+     * @return The fencing token or 0 if the lease is held by another owner
+     */
+    private long tryLease(String name) {
+        DbConnection con = null;
+        try {
+            con = pool.getConnection();
+            long now = System.currentTimeMillis();
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put("name", name);
+            attributes.put("node", nodeId);
+            attributes.put("now", now);
+            attributes.put("expires", now + CFG_LEASE_TIME.interval());
+            long token = 0;
+            DbStatement sth =
+                    con.createStatement(
+                            "UPDATE "
+                                    + leaseTable
+                                    + " SET "
+                                    + cOwner
+                                    + "=$node$,"
+                                    + cToken
+                                    + "="
+                                    + cToken
+                                    + "+1,"
+                                    + cExpires
+                                    + "=$expires$ WHERE "
+                                    + cName
+                                    + "=$name$ AND "
+                                    + cExpires
+                                    + "<$now$");
+            try {
+                if (sth.executeUpdate(attributes) == 1) token = readToken(con, attributes);
+            } finally {
+                sth.close();
+            }
+            if (token == 0) {
+                // first use of the lock
+                sth =
+                        con.createStatement(
+                                "INSERT INTO "
+                                        + leaseTable
+                                        + "("
+                                        + cName
+                                        + ","
+                                        + cOwner
+                                        + ","
+                                        + cToken
+                                        + ","
+                                        + cExpires
+                                        + ") VALUES ($name$,$node$,1,$expires$)");
+                try {
+                    sth.executeUpdate(attributes);
+                    token = 1;
+                } catch (SQLException e) {
+                    // the lease exists and is held by another owner
+                    con.rollback();
+                    conflicts.incrementAndGet();
+                    return 0;
+                } finally {
+                    sth.close();
+                }
+            }
+            con.commit();
+            acquired.incrementAndGet();
+            return token;
+        } catch (Exception e) {
+            log().d("take lease failed", name, e);
+            if (con != null) {
+                try {
+                    con.rollback();
+                } catch (Exception e1) {
+                    log().d(e1);
+                }
+            }
+            return 0;
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    private long readToken(DbConnection con, Map<String, Object> attributes) throws Exception {
+        DbStatement sth =
+                con.createStatement(
+                        "SELECT " + cToken + " FROM " + leaseTable + " WHERE " + cName + "=$name$");
+        try {
+            DbResult res = sth.executeQuery(attributes);
+            long token = res.next() ? res.getLong(cToken) : 0;
+            res.close();
+            return token;
+        } finally {
+            sth.close();
+        }
+    }
+
+    /**
+     * Release or renew the lease if the token is still the current one.
+     *
+     * @param name The name of the lock
+     * @param token The fencing token of the owner
+     * @param renew Set a new expiry time instead of releasing the lease
+     * @return true if the lease was held by the token
+     * @throws Exception If the database is not available
+     */
+    private boolean updateLease(String name, long token, boolean renew) throws Exception {
+        DbConnection con = null;
+        try {
+            con = pool.getConnection();
+            Map<String, Object> attributes = new HashMap<>();
+            attributes.put("name", name);
+            attributes.put("token", token);
+            attributes.put("node", renew ? nodeId : "");
+            attributes.put(
+                    "expires", renew ? System.currentTimeMillis() + CFG_LEASE_TIME.interval() : 0);
+            DbStatement sth =
+                    con.createStatement(
+                            "UPDATE "
+                                    + leaseTable
+                                    + " SET "
+                                    + cOwner
+                                    + "=$node$,"
+                                    + cExpires
+                                    + "=$expires$ WHERE "
+                                    + cName
+                                    + "=$name$ AND "
+                                    + cToken
+                                    + "=$token$");
+            int cnt;
+            try {
+                cnt = sth.executeUpdate(attributes);
+            } finally {
+                sth.close();
+            }
+            con.commit();
+            return cnt == 1;
+        } catch (Exception e) {
+            if (con != null) {
+                try {
+                    con.rollback();
+                } catch (Exception e1) {
+                    log().d(e1);
+                }
+            }
+            throw e;
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    /**
+     * Retry failed releases and renew the held leases of this node with one batch, a lease is
+     * renewed only by its name and the current token. If the token is not found the lease was
+     * taken over by another owner and is marked as lost. It's called by the housekeeper.
+     */
+    public void heartbeat() {
+        retryReleases();
+        if (held.isEmpty()) return;
+        DbConnection con = null;
+        try {
+            con = pool.getConnection();
+            long expires = System.currentTimeMillis() + CFG_LEASE_TIME.interval();
+            List<LeaseLock> locks = new ArrayList<>();
+            List<Long> tokens = new ArrayList<>();
+            int[] cnt;
+            DbStatement sth =
+                    con.createStatement(
+                            "UPDATE "
+                                    + leaseTable
+                                    + " SET "
+                                    + cExpires
+                                    + "=$expires$ WHERE "
+                                    + cName
+                                    + "=$name$ AND "
+                                    + cToken
+                                    + "=$token$");
+            try {
+                for (LeaseLock lock : held.values()) {
+                    long token = lock.token;
+                    if (token == 0) continue;
+                    Map<String, Object> attributes = new HashMap<>();
+                    attributes.put("name", lock.name);
+                    attributes.put("token", token);
+                    attributes.put("expires", expires);
+                    sth.addBatch(attributes);
+                    locks.add(lock);
+                    tokens.add(token);
+                }
+                cnt = sth.executeBatch();
+            } finally {
+                sth.close();
+            }
+            con.commit();
+            // negative counts are unknown, e.g. Statement.SUCCESS_NO_INFO
+            for (int i = 0; i < cnt.length && i < locks.size(); i++)
+                if (cnt[i] == 0) locks.get(i).setLost(tokens.get(i));
+        } catch (Throwable t) {
+            log().w("lease heartbeat failed", prefix, t);
+            if (con != null) {
+                try {
+                    con.rollback();
+                } catch (Exception e) {
+                    log().d(e);
+                }
+            }
+        } finally {
+            if (con != null) con.close();
+        }
+    }
+
+    private void retryReleases() {
+        for (FailedRelease release : releases.values()) {
+            try {
+                updateLease(release.name, release.token, false);
+                releases.remove(release.name, release);
+            } catch (Exception e) {
+                log().d("retry release lease failed", release.name, release.token, e);
+                // not renewed, the lease is expired anyway
+                if (System.currentTimeMillis() - release.time > CFG_LEASE_TIME.interval())
+                    releases.remove(release.name, release);
+            }
+        }
+    }
+
+    /**
+     * Return the number of failed releases waiting for a retry by the heartbeat.
+     *
+     * @return Number of failed releases
+     */
+    public int getFailedReleases() {
+        return releases.size();
+    }
+
+    public long getAcquiredLeases() {
+        return acquired.get();
+    }
+
+    public long getLeaseConflicts() {
+        return conflicts.get();
+    }
+
+    /**
+     * Return the number of leases taken over by another owner while they were held by this node,
+     * e.g. because the heartbeat was too late.
+     *
+     * @return Number of lost leases
+     */
+    public long getLostLeases() {
+        return lost.get();
+    }
+
+    public int getHeldLeases() {
+        return held.size();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
     private Con tryLock(String value) {
         log().t("Try Lock", value);
         DbConnection con = null;
@@ -335,4 +708,180 @@ public class ClusterViaDatabase extends MLog implements ClusterApi {
             return lockStacktrace;
         }
     }
+
+    /**
+     * A lock as lease in the lease table. Threads of this node wait on the monitor of the lock and
+     * are woken up by the release, the lease of another node is polled with an increasing backoff.
+     */
+    public class LeaseLock implements Lock {
+
+        private final String name;
+        private volatile long token;
+        private long lockStart;
+        private int lockCnt;
+        private String lockOwner;
+        private String lockStacktrace;
+
+        public LeaseLock(String name) {
+            this.name = name.length() > NAME_SIZE ? shorten(name) : name;
+        }
+
+        private String shorten(String name) {
+            String hash = Integer.toHexString(name.hashCode());
+            return name.substring(0, NAME_SIZE - hash.length() - 1) + "#" + hash;
+        }
+
+        @Override
+        public Lock lock() {
+            acquire(-1);
+            return this;
+        }
+
+        @Override
+        public boolean lock(long timeout) {
+            return acquire(timeout);
+        }
+
+        private synchronized boolean acquire(long timeout) {
+            long start = System.currentTimeMillis();
+            long backoff = CFG_MIN_BACKOFF.value();
+            Scope scope = null;
+            try {
+                while (true) {
+                    // held by another thread of this node, wait for the release
+                    if (token == 0) {
+                        long t = tryLease(name);
+                        if (t > 0) {
+                            token = t;
+                            lockStart = System.currentTimeMillis();
+                            lockCnt++;
+                            lockOwner =
+                                    MSystem.findCalling(4) + " " + Thread.currentThread().getId();
+                            lockStacktrace =
+                                    MCast.toString("", Thread.currentThread().getStackTrace());
+                            held.put(name, this);
+                            return true;
+                        }
+                    }
+                    long wait = backoff;
+                    if (timeout >= 0) {
+                        long left = start + timeout - System.currentTimeMillis();
+                        if (left <= 0) return false;
+                        wait = Math.min(wait, left);
+                    }
+                    if (scope == null)
+                        scope = ITracer.get().enter("LeaseLock.lock", "name", getName());
+                    wait(wait);
+                    backoff = Math.min(backoff * 2, CFG_MAX_BACKOFF.value());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                if (scope != null) scope.close();
+            }
+        }
+
+        @Override
+        public synchronized boolean unlock() {
+            if (token == 0) return true;
+            held.remove(name, this);
+            try {
+                if (!updateLease(name, token, false))
+                    log().d("lease was already lost", name, token);
+            } catch (Exception e) {
+                log().w("release lease failed", name, token, e);
+                releases.put(name, new FailedRelease(name, token));
+            }
+            token = 0;
+            lockOwner = null;
+            lockStacktrace = null;
+            lockStart = 0;
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public void unlockHard() {
+            unlock();
+        }
+
+        private synchronized void setLost(long token) {
+            if (this.token != token) return;
+            log().w("lease lost", name, token, lockOwner);
+            lost.incrementAndGet();
+            held.remove(name, this);
+            this.token = 0;
+            lockOwner = null;
+            lockStacktrace = null;
+            lockStart = 0;
+            notifyAll();
+        }
+
+        @Override
+        public boolean isLocked() {
+            return token != 0;
+        }
+
+        /**
+         * Return the fencing token of the current lease. It's incremented every time the lease is
+         * taken.
+         *
+         * @return The token or 0 if not locked
+         */
+        public long getToken() {
+            return token;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getOwner() {
+            return lockOwner;
+        }
+
+        @Override
+        public long getLockTime() {
+            return lockStart;
+        }
+
+        /** Renew the lease now, returns false if the lease is lost. */
+        @Override
+        public boolean refresh() {
+            long t = token;
+            if (t == 0) return false;
+            try {
+                if (updateLease(name, t, true)) return true;
+            } catch (Exception e) {
+                log().w("renew lease failed", name, t, e);
+                return false;
+            }
+            setLost(t);
+            return false;
+        }
+
+        @Override
+        public long getCnt() {
+            return lockCnt;
+        }
+
+        @Override
+        public String getStartStackTrace() {
+            return lockStacktrace;
+        }
+    }
+
+    private static class FailedRelease {
+        private final String name;
+        private final long token;
+        private final long time = System.currentTimeMillis();
+
+        private FailedRelease(String name, long token) {
+            this.name = name;
+            this.token = token;
+        }
+    }
 }
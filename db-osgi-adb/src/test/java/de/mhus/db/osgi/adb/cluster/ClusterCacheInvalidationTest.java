@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.db.osgi.adb.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.adb.DbManagerJdbc;
+import de.mhus.lib.adb.DbSchema;
+import de.mhus.lib.adb.DbTransaction;
+import de.mhus.lib.adb.model.Table;
+import de.mhus.lib.annotations.adb.DbPersistent;
+import de.mhus.lib.annotations.adb.DbPrimaryKey;
+import de.mhus.lib.core.MPeriod;
+import de.mhus.lib.core.node.INode;
+import de.mhus.lib.core.node.MNode;
+import de.mhus.lib.sql.DbPool;
+import de.mhus.lib.sql.DbPoolBundle;
+
+public class ClusterCacheInvalidationTest {
+
+    private static DbManagerJdbc createManager() throws Exception {
+        INode cconfig = new MNode();
+        INode cdb = cconfig.createObject("test");
+        cdb.setProperty("driver", "org.hsqldb.jdbcDriver");
+        cdb.setProperty("url", "jdbc:hsqldb:mem:clustercache");
+        cdb.setProperty("user", "sa");
+        cdb.setProperty("password", "");
+        DbPool pool = new DbPoolBundle(cconfig, null).getPool("test");
+        return new DbManagerJdbc("", pool, null, new CachedSchema());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        // two nodes using the same database
+        DbManagerJdbc manager1 = createManager();
+        DbManagerJdbc manager2 = createManager();
+        ClusterCacheInvalidation node1 = new ClusterCacheInvalidation(manager1, "test");
+        ClusterCacheInvalidation node2 = new ClusterCacheInvalidation(manager2, "test");
+        node1.start();
+        node2.start();
+        try {
+            assertTrue(manager1.getCacheInvalidationListener() == node1);
+
+            CachedObject obj = new CachedObject();
+            obj.setName("first");
+            manager1.createObject(obj);
+            // queued on the commit, written by the publisher task
+            assertEquals(1, node1.getPending());
+            assertEquals(0, node1.getPublished());
+            node1.publish();
+            assertEquals(0, node1.getPending());
+            assertEquals(1, node1.getPublished());
+
+            // cached on the second node
+            assertEquals("first", manager2.getObject(CachedObject.class, obj.getId()).getName());
+
+            obj.setName("second");
+            manager1.saveObject(obj);
+            node1.publish();
+            assertEquals(2, node1.getPublished());
+
+            node2.poll();
+            assertTrue(node2.getReceived() >= 2);
+            assertEquals("second", manager2.getObject(CachedObject.class, obj.getId()).getName());
+
+            // a rollback is not published
+            DbTransaction.encapsulate(manager1.getPool());
+            try {
+                obj.setName("third");
+                manager1.saveObject(obj);
+            } finally {
+                DbTransaction.rollbackAndRelease();
+            }
+            assertEquals(0, node1.getPending());
+            assertEquals(2, node1.getPublished());
+
+            // all objects of a transaction are published after the commit
+            CachedObject obj2 = new CachedObject();
+            obj2.setName("other");
+            manager1.createObject(obj2);
+            node1.publish();
+            DbTransaction.encapsulate(manager1.getPool());
+            try {
+                obj.setName("fourth");
+                manager1.saveObject(obj);
+                obj2.setName("fifth");
+                manager1.saveObject(obj2);
+                assertEquals(0, node1.getPending());
+                assertEquals(3, node1.getPublished());
+            } finally {
+                DbTransaction.commitAndRelease();
+            }
+            assertEquals(2, node1.getPending());
+            node1.publish();
+            assertEquals(5, node1.getPublished());
+
+            node2.poll();
+            assertEquals("fourth", manager2.getObject(CachedObject.class, obj.getId()).getName());
+            assertEquals("fifth", manager2.getObject(CachedObject.class, obj2.getId()).getName());
+        } finally {
+            node1.stop();
+            node2.stop();
+        }
+        assertTrue(manager1.getCacheInvalidationListener() == null);
+    }
+
+    public static class CachedSchema extends DbSchema {
+
+        @Override
+        public void findObjectTypes(List<Class<? extends Object>> list) {
+            list.add(CachedObject.class);
+        }
+
+        @Override
+        public int getCacheSize(Table table) {
+            return 100;
+        }
+
+        @Override
+        public long getCacheTtl(Table table) {
+            return MPeriod.HOUR_IN_MILLISECONDS;
+        }
+    }
+
+    public static class CachedObject {
+
+        private UUID id;
+        private String name;
+
+        @DbPrimaryKey
+        public UUID getId() {
+            return id;
+        }
+
+        public void setId(UUID id) {
+            this.id = id;
+        }
+
+        @DbPersistent
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
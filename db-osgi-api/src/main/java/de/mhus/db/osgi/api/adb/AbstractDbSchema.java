@@ -20,10 +20,11 @@ import java.util.HashMap;
 import de.mhus.lib.adb.DbManager;
 import de.mhus.lib.adb.DbSchema;
 import de.mhus.lib.adb.model.Table;
-import de.mhus.lib.adb.transaction.MemoryLockStrategy;
+import de.mhus.lib.adb.transaction.ConcurrentLockStrategy;
 import de.mhus.lib.core.MApi;
 import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.aaa.Aaa;
+import de.mhus.lib.core.node.INode;
 import de.mhus.lib.errors.AccessDeniedException;
 import de.mhus.lib.sql.DbConnection;
 
@@ -36,11 +37,11 @@ public abstract class AbstractDbSchema extends DbSchema {
 
     public AbstractDbSchema() {
         //        trace.i("start");
-        lockStrategy = new MemoryLockStrategy();
-        ((MemoryLockStrategy) lockStrategy)
-                .setMaxLockAge(
-                        MApi.getCfg(AdbService.class)
-                                .getLong("maxLockAge", MPeriod.MINUTE_IN_MILLISECONDS * 5));
+        INode cfg = MApi.getCfg(AdbService.class);
+        lockStrategy = createLockStrategy(cfg.getString("lockStrategy", "memory"));
+        if (lockStrategy instanceof ConcurrentLockStrategy)
+            ((ConcurrentLockStrategy) lockStrategy)
+                    .setMaxLockAge(cfg.getLong("maxLockAge", MPeriod.MINUTE_IN_MILLISECONDS * 5));
     }
 
     @Override